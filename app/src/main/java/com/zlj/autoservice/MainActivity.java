@@ -4,8 +4,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import android.os.Bundle;
 import android.view.View;
 
-import java.util.Iterator;
-import java.util.ServiceLoader;
+import com.service.registry.MyServiceImpl_Invoker_app;
 
 /**
  * @author dengxiaoqiu
@@ -19,12 +18,8 @@ public class MainActivity extends AppCompatActivity {
         findViewById (R.id.bt_test).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                ServiceLoader<MyServiceImpl> serviceLoader = ServiceLoader.load(MyServiceImpl.class);
-                Iterator<MyServiceImpl> iterator = serviceLoader.iterator();
-                while (iterator.hasNext()){
-                    MyServiceImpl next = iterator.next();
-                    next.execute("1231",12312);
-                }
+                // 调用类在编译期生成，按 order 依次调用所有实现类，不需要读取 META-INF/services，也不经过反射
+                MyServiceImpl_Invoker_app.execute("1231",12312);
             }
         });
 
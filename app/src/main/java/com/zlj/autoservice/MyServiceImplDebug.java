@@ -0,0 +1,19 @@
+package com.zlj.autoservice;
+
+import android.util.Log;
+
+import com.service.annotations.AutoService;
+
+/**
+ * 只在 debug 变体中注册，release 的 service 文件和注册类里没有它。
+ *
+ * @author dengxiaoqiu
+ */
+@AutoService(value = MyServiceImpl.class, conditions = "buildType=debug")
+public class MyServiceImplDebug implements MyServiceImpl {
+    @Override
+    public boolean execute(String data, int cmd) {
+        Log.e("MyServiceImplDebug", "execute");
+        return false;
+    }
+}
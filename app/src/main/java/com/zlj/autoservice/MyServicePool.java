@@ -0,0 +1,32 @@
+package com.zlj.autoservice;
+
+import android.util.Log;
+
+import com.service.annotations.AutoService;
+
+
+/**
+ * @author dengxiaoqiu
+ */
+public final class MyServicePool {
+
+    private static final MyServiceImpl SHARED = new MyServiceImpl() {
+        @Override
+        public boolean execute(String data, int cmd) {
+            Log.e("MyServicePool", "execute");
+
+            return false;
+        }
+    };
+
+    private MyServicePool() {
+    }
+
+    /**
+     * 注册类直接调用这个方法，每次都返回同一个预先创建好的实例。
+     */
+    @AutoService(value = MyServiceImpl.class, order = 1)
+    public static MyServiceImpl shared() {
+        return SHARED;
+    }
+}
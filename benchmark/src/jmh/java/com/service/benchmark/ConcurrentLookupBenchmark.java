@@ -0,0 +1,48 @@
+package com.service.benchmark;
+
+import com.service.runtime.Services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程同时查找时的吞吐量，用来确认预热后的查找没有锁竞争。
+ *
+ * @author dengxiaoqiu
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ConcurrentLookupBenchmark {
+
+    @Benchmark
+    public void serviceLoader(SyntheticState state, Blackhole blackhole) {
+        for (Object provider : ServiceLoader.load(state.scanService, state.synthetic.scanLoader)) {
+            blackhole.consume(provider);
+        }
+    }
+
+    @Benchmark
+    public List<?> servicesCached(SyntheticState state) {
+        return Services.get(state.scanService, state.synthetic.scanLoader);
+    }
+
+    @Benchmark
+    public List<?> generatedRegistry(SyntheticState state) throws Throwable {
+        return (List<?>) state.registry.invokeExact(state.scanService);
+    }
+}
@@ -0,0 +1,482 @@
+package com.service.benchmark;
+
+import com.service.processor.AutoServiceProcessor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * AutoServiceProcessor 的编译期压力测试：生成 N 个 @AutoService 实现类，在进程内用 javac 编译，
+ * 记录处理器耗时、峰值堆内存和写出的文件数，超过阈值时以非 0 退出，CI 里可以直接发现规模相关的性能退化。
+ * <p>
+ * 生成的实现类覆盖真实工程里的几种情况：
+ * <ul>
+ * <li>分散在多个接口下的普通实现类，order 各不相同，一部分声明了 intKeys；</li>
+ * <li>外部类和嵌套类同时是实现类，和示例里的 MyServiceImplTwo.MyServiceImplThree 一样；</li>
+ * <li>一个类实现所有接口；</li>
+ * <li>编译前 CLASS_OUTPUT 里已经有 service 文件，其中有已经删除的类和 order 过期的条目。</li>
+ * </ul>
+ * 编译后会检查每个 service 文件的内容，过期条目没有被清理或者实现类缺失时同样算失败。
+ * <p>
+ * 用法：
+ * <pre>
+ * ./gradlew :benchmark:processorStress [-Pstress.sizes=1000,10000,50000] [-Pstress.maxMicrosPerProvider=N]
+ *     [-Pstress.maxScaling=R] [-Pstress.maxHeapMb=N] [-Pstress.procOnly]
+ * </pre>
+ * 处理器耗时和写出的文件数来自处理器自身的 autoservice.metrics 报告；峰值堆内存是各个堆内存池峰值之和，
+ * 会略高于真实峰值，只适合和同一台机器上的历史结果比较，所以默认不检查。
+ *
+ * @author dengxiaoqiu
+ */
+public final class ProcessorStress {
+
+    private static final String MODULE = "stress";
+
+    private static final int NESTED_EVERY = 10;
+    private static final int MANY_INTERFACES_EVERY = 50;
+    private static final int KEYED_EVERY = 3;
+    /**
+     * 每 100 个实现类在已有的 service 文件里放一个已经删除的类。
+     */
+    private static final int STALE_EVERY = 100;
+
+    private static final Pattern ORDER = Pattern.compile("#\\s*order\\s*=\\s*(-?\\d+)");
+
+    private ProcessorStress() {
+    }
+
+    public static void main(String[] args) {
+        List<Integer> sizes = Arrays.asList(1000, 10000, 50000);
+        int interfaces = 16;
+        double maxMicrosPerProvider = 2000;
+        double maxScaling = 3;
+        long maxHeapMb = 0;
+        boolean procOnly = false;
+        Path report = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            if (arg.equals("--sizes") && hasValue) {
+                sizes = new ArrayList<>();
+                for (String size : args[++i].split(",")) {
+                    sizes.add(Integer.parseInt(size.trim()));
+                }
+                Collections.sort(sizes);
+            } else if (arg.equals("--interfaces") && hasValue) {
+                interfaces = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (arg.equals("--max-micros-per-provider") && hasValue) {
+                maxMicrosPerProvider = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--max-scaling") && hasValue) {
+                maxScaling = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--max-heap-mb") && hasValue) {
+                maxHeapMb = Long.parseLong(args[++i]);
+            } else if (arg.equals("--proc-only")) {
+                procOnly = true;
+            } else if (arg.equals("--report") && hasValue) {
+                report = Paths.get(args[++i]);
+            } else {
+                System.err.println("Unknown option " + arg);
+                System.err.println("Usage: ProcessorStress [--sizes 1000,10000,50000] [--interfaces N]"
+                        + " [--max-micros-per-provider N] [--max-scaling R] [--max-heap-mb N] [--proc-only]"
+                        + " [--report <json>]");
+                System.exit(2);
+                return;
+            }
+        }
+        if (sizes.isEmpty()) {
+            System.err.println("No sizes given");
+            System.exit(2);
+            return;
+        }
+
+        List<String> failures = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
+        try {
+            // 先按最小的规模编译一次，避免第一个规模把 javac 和处理器的类加载、JIT 也算进去
+            run(sizes.get(0), interfaces, procOnly);
+            for (int size : sizes) {
+                Result result = run(size, interfaces, procOnly);
+                results.add(result);
+                System.out.println(result);
+                if (!result.problems.isEmpty()) {
+                    failures.add(size + " providers: " + result.problems);
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            // 编译失败本身也是一种退化，例如生成的类超过了常量池上限；处理器报告缺少指标时同样失败
+            System.err.println("ProcessorStress failed: " + e);
+            System.exit(1);
+            return;
+        }
+
+        for (Result result : results) {
+            if (maxMicrosPerProvider > 0 && result.microsPerProvider() > maxMicrosPerProvider) {
+                failures.add(String.format(Locale.ROOT, "%d providers: %.1f us per provider > %.1f",
+                        result.providers, result.microsPerProvider(), maxMicrosPerProvider));
+            }
+            if (maxHeapMb > 0 && result.peakHeapBytes > maxHeapMb << 20) {
+                failures.add(String.format(Locale.ROOT, "%d providers: peak heap %d MB > %d MB",
+                        result.providers, result.peakHeapBytes >> 20, maxHeapMb));
+            }
+        }
+        // 最大规模和最小规模每个实现类的耗时之比，线性时约为 1，出现 O(n^2) 时会随规模一起变大
+        Result smallest = results.get(0);
+        Result largest = results.get(results.size() - 1);
+        double scaling = smallest.microsPerProvider() > 0
+                ? largest.microsPerProvider() / smallest.microsPerProvider() : 0;
+        if (results.size() > 1) {
+            System.out.println(String.format(Locale.ROOT, "scaling %d -> %d providers: %.2fx per provider",
+                    smallest.providers, largest.providers, scaling));
+            if (maxScaling > 0 && scaling > maxScaling) {
+                failures.add(String.format(Locale.ROOT,
+                        "per-provider time grows %.2fx from %d to %d providers > %.2fx",
+                        scaling, smallest.providers, largest.providers, maxScaling));
+            }
+        }
+
+        if (report != null) {
+            try {
+                writeReport(report, results, scaling, failures);
+                System.out.println("Wrote report to: " + report);
+            } catch (IOException e) {
+                System.err.println("Unable to write report, " + e);
+            }
+        }
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                System.err.println("FAILED: " + failure);
+            }
+            System.exit(1);
+        }
+    }
+
+    static Result run(int size, int interfaces, boolean procOnly) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("A JDK is required to compile synthetic providers");
+        }
+        Path root = Files.createTempDirectory("autoservice-stress-");
+        try {
+            Path classes = Files.createDirectories(root.resolve("classes"));
+            Path metrics = root.resolve("metrics.json");
+            Workload workload = new Workload(size, interfaces);
+            workload.seedServiceFiles(classes);
+
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            List<String> options = new ArrayList<>(Arrays.asList(
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-Aautoservice.module=" + MODULE,
+                    "-Aautoservice.aggregate=",
+                    "-Aautoservice.binaryIndex=true",
+                    "-Aautoservice.metrics=" + metrics));
+            if (procOnly) {
+                options.add("-proc:only");
+            }
+            resetPeakHeap();
+            long start = System.nanoTime();
+            try (StandardJavaFileManager fileManager =
+                         compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+                fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(classes.toFile()));
+                fileManager.setLocation(StandardLocation.SOURCE_OUTPUT,
+                        Collections.singletonList(Files.createDirectories(root.resolve("generated")).toFile()));
+                JavaCompiler.CompilationTask task =
+                        compiler.getTask(null, fileManager, diagnostics, options, null, workload.sources);
+                task.setProcessors(Collections.singletonList(new AutoServiceProcessor()));
+                if (!task.call()) {
+                    throw new IllegalStateException("Compilation failed: " + diagnostics.getDiagnostics());
+                }
+            }
+            long javacNanos = System.nanoTime() - start;
+            long peakHeap = peakHeap();
+
+            String json = new String(Files.readAllBytes(metrics), StandardCharsets.UTF_8);
+            Result result = new Result(size, workload.registrations, workload.staleEntries, javacNanos,
+                    metric(json, "totalNanos"), peakHeap, metric(json, "classOutputFilesWritten"),
+                    metric(json, "sourceFilesWritten"));
+            workload.verify(classes, result.problems);
+            return result;
+        } finally {
+            SyntheticProviders.deleteRecursively(root);
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * 报告里缺少某个指标时直接失败，否则阈值检查会拿到一个无效值而悄悄失效。
+     */
+    static long metric(String json, String name) {
+        Matcher matcher = Pattern.compile("\"" + name + "\":\\s*(\\d+)").matcher(json);
+        if (!matcher.find()) {
+            throw new IllegalStateException("Missing metric " + name + " in processor report: " + json);
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static void writeReport(Path report, List<Result> results, double scaling, List<String> failures)
+            throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"processor\": \"").append(AutoServiceProcessor.class.getName()).append("\",\n");
+        json.append("  \"scaling\": ").append(String.format(Locale.ROOT, "%.3f", scaling)).append(",\n");
+        json.append("  \"results\": [");
+        String separator = "\n";
+        for (Result result : results) {
+            json.append(separator)
+                    .append("    {\"providers\": ").append(result.providers)
+                    .append(", \"registrations\": ").append(result.registrations)
+                    .append(", \"staleEntries\": ").append(result.staleEntries)
+                    .append(", \"javacNanos\": ").append(result.javacNanos)
+                    .append(", \"processorNanos\": ").append(result.processorNanos)
+                    .append(", \"peakHeapBytes\": ").append(result.peakHeapBytes)
+                    .append(", \"classOutputFilesWritten\": ").append(result.classOutputFilesWritten)
+                    .append(", \"sourceFilesWritten\": ").append(result.sourceFilesWritten)
+                    .append('}');
+            separator = ",\n";
+        }
+        json.append(results.isEmpty() ? "],\n" : "\n  ],\n");
+        json.append("  \"failures\": [");
+        separator = "\n";
+        for (String failure : failures) {
+            json.append(separator).append("    \"").append(failure.replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append('"');
+            separator = ",\n";
+        }
+        json.append(failures.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        if (report.getParent() != null) {
+            Files.createDirectories(report.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    /**
+     * 生成的源文件，以及编译后每个 service 文件应有的内容。
+     */
+    private static final class Workload {
+
+        final List<JavaFileObject> sources = new ArrayList<>();
+        /**
+         * key 为接口，value 为实现类的 binary name 和 order。
+         */
+        final Map<String, Map<String, Integer>> expected = new HashMap<>();
+        final int interfaces;
+        int registrations;
+        int staleEntries;
+
+        Workload(int size, int interfaces) {
+            this.interfaces = interfaces;
+            for (int s = 0; s < interfaces; s++) {
+                sources.add(SyntheticProviders.source("Service" + s, "package " + SyntheticProviders.PACKAGE + ";\n"
+                        + "public interface Service" + s + " {\n"
+                        + "    int id();\n"
+                        + "}\n"));
+            }
+            int i = 0;
+            while (i < size) {
+                int service = i % interfaces;
+                String name = "Provider" + i;
+                if (i % MANY_INTERFACES_EVERY == MANY_INTERFACES_EVERY - 1) {
+                    StringBuilder value = new StringBuilder();
+                    StringBuilder implemented = new StringBuilder();
+                    for (int s = 0; s < interfaces; s++) {
+                        value.append(s == 0 ? "" : ", ").append("Service").append(s).append(".class");
+                        implemented.append(s == 0 ? "" : ", ").append("Service").append(s);
+                        register("Service" + s, name, order(i));
+                    }
+                    sources.add(SyntheticProviders.source(name, "package " + SyntheticProviders.PACKAGE + ";\n"
+                            + "@com.service.annotations.AutoService(value = {" + value + "}, order = " + order(i)
+                            + ")\n"
+                            + "public class " + name + " implements " + implemented + " {\n"
+                            + "    @Override public int id() { return " + i + "; }\n"
+                            + "}\n"));
+                    i++;
+                } else if (i % NESTED_EVERY == NESTED_EVERY - 1 && i + 1 < size) {
+                    int nestedService = (i + 1) % interfaces;
+                    register("Service" + service, name, order(i));
+                    register("Service" + nestedService, name + "$Nested", order(i + 1));
+                    sources.add(SyntheticProviders.source(name, "package " + SyntheticProviders.PACKAGE + ";\n"
+                            + "@com.service.annotations.AutoService(value = Service" + service + ".class, order = "
+                            + order(i) + ")\n"
+                            + "public class " + name + " implements Service" + service + " {\n"
+                            + "    @Override public int id() { return " + i + "; }\n"
+                            + "\n"
+                            + "    @com.service.annotations.AutoService(value = Service" + nestedService
+                            + ".class, order = " + order(i + 1) + ")\n"
+                            + "    public static class Nested implements Service" + nestedService + " {\n"
+                            + "        @Override public int id() { return " + (i + 1) + "; }\n"
+                            + "    }\n"
+                            + "}\n"));
+                    i += 2;
+                } else {
+                    // intKeys 用 i 本身，同一个接口下不会重复
+                    String keys = i % KEYED_EVERY == 0 ? ", intKeys = " + i : "";
+                    register("Service" + service, name, order(i));
+                    sources.add(SyntheticProviders.source(name, "package " + SyntheticProviders.PACKAGE + ";\n"
+                            + "@com.service.annotations.AutoService(value = Service" + service + ".class, order = "
+                            + order(i) + keys + ")\n"
+                            + "public class " + name + " implements Service" + service + " {\n"
+                            + "    @Override public int id() { return " + i + "; }\n"
+                            + "}\n"));
+                    i++;
+                }
+            }
+        }
+
+        private static int order(int i) {
+            return i % 7 - 3;
+        }
+
+        private void register(String service, String provider, int order) {
+            String serviceName = SyntheticProviders.PACKAGE + "." + service;
+            Map<String, Integer> providers = expected.get(serviceName);
+            if (providers == null) {
+                providers = new HashMap<>();
+                expected.put(serviceName, providers);
+            }
+            providers.put(SyntheticProviders.PACKAGE + "." + provider, order);
+            registrations++;
+        }
+
+        /**
+         * 模拟上一次编译留下的 service 文件：每隔一个实现类写一条 order 过期的条目，再加上已经删除的类。
+         * 处理器只清理自己写过的条目，所以同时写一份它记录这些条目的 generated.index。
+         */
+        void seedServiceFiles(Path classes) throws IOException {
+            Path services = Files.createDirectories(classes.resolve("META-INF/services"));
+            StringBuilder generated = new StringBuilder();
+            for (Map.Entry<String, Map<String, Integer>> service : expected.entrySet()) {
+                StringBuilder content = new StringBuilder();
+                int index = 0;
+                for (String provider : service.getValue().keySet()) {
+                    if (index % 2 == 0) {
+                        content.append(provider).append(" # order=99\n");
+                    }
+                    if (index % STALE_EVERY == 0) {
+                        content.append(service.getKey()).append("Removed").append(index).append('\n');
+                        staleEntries++;
+                    }
+                    index++;
+                }
+                Files.write(services.resolve(service.getKey()), content.toString().getBytes(StandardCharsets.UTF_8));
+                generated.append('[').append(service.getKey()).append("]\n").append(content);
+            }
+            Path index = Files.createDirectories(classes.resolve("META-INF/autoservice")).resolve("generated.index");
+            Files.write(index, generated.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        void verify(Path classes, List<String> problems) throws IOException {
+            for (Map.Entry<String, Map<String, Integer>> service : expected.entrySet()) {
+                Path file = classes.resolve("META-INF/services/" + service.getKey());
+                Map<String, Integer> actual = new HashMap<>();
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int comment = line.indexOf('#');
+                        String provider = (comment < 0 ? line : line.substring(0, comment)).trim();
+                        if (provider.isEmpty()) {
+                            continue;
+                        }
+                        Matcher order = ORDER.matcher(comment < 0 ? "" : line.substring(comment));
+                        actual.put(provider, order.find() ? Integer.parseInt(order.group(1)) : 0);
+                    }
+                }
+                if (!actual.equals(service.getValue())) {
+                    int missing = 0;
+                    int wrong = 0;
+                    for (Map.Entry<String, Integer> provider : service.getValue().entrySet()) {
+                        Integer order = actual.get(provider.getKey());
+                        if (order == null) {
+                            missing++;
+                        } else if (!order.equals(provider.getValue())) {
+                            wrong++;
+                        }
+                    }
+                    int extra = actual.size() - (service.getValue().size() - missing);
+                    problems.add(service.getKey() + ": " + missing + " missing, " + extra + " stale, "
+                            + wrong + " with wrong order");
+                }
+            }
+        }
+    }
+
+    static final class Result {
+        final int providers;
+        final int registrations;
+        final int staleEntries;
+        final long javacNanos;
+        final long processorNanos;
+        final long peakHeapBytes;
+        final long classOutputFilesWritten;
+        final long sourceFilesWritten;
+        final List<String> problems = new ArrayList<>();
+
+        Result(int providers, int registrations, int staleEntries, long javacNanos, long processorNanos,
+               long peakHeapBytes, long classOutputFilesWritten, long sourceFilesWritten) {
+            this.providers = providers;
+            this.registrations = registrations;
+            this.staleEntries = staleEntries;
+            this.javacNanos = javacNanos;
+            this.processorNanos = processorNanos;
+            this.peakHeapBytes = peakHeapBytes;
+            this.classOutputFilesWritten = classOutputFilesWritten;
+            this.sourceFilesWritten = sourceFilesWritten;
+        }
+
+        double microsPerProvider() {
+            return processorNanos / 1000.0 / providers;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%6d providers (%d registrations, %d stale entries): javac %d ms,"
+                            + " processor %d ms (%.1f us per provider), peak heap %d MB,"
+                            + " %d resources and %d sources written",
+                    providers, registrations, staleEntries, javacNanos / 1000000, processorNanos / 1000000,
+                    microsPerProvider(), peakHeapBytes >> 20, classOutputFilesWritten, sourceFilesWritten);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.service.benchmark;
+
+import com.service.runtime.Services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程的查找 + 实例化延迟。配合 gc profiler 看每次查找的分配量。
+ * <p>
+ * cold* 每次先清空 Services 的缓存，衡量第一次查找（读取 service 文件或索引）的开销；
+ * 其余为预热后的稳定状态。
+ *
+ * @author dengxiaoqiu
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProviderLookupBenchmark {
+
+    /**
+     * 原来 MainActivity 中的写法：每次扫描 service 文件并反射创建全部实例。
+     */
+    @Benchmark
+    public void serviceLoader(SyntheticState state, Blackhole blackhole) {
+        for (Object provider : ServiceLoader.load(state.scanService, state.synthetic.scanLoader)) {
+            blackhole.consume(provider);
+        }
+    }
+
+    @Benchmark
+    public List<?> servicesCached(SyntheticState state) {
+        return Services.get(state.scanService, state.synthetic.scanLoader);
+    }
+
+    /**
+     * 解析结果缓存，但每次反射创建新实例。
+     */
+    @Benchmark
+    public List<?> servicesNewInstances(SyntheticState state) {
+        return Services.load(state.scanService, state.synthetic.scanLoader);
+    }
+
+    @Benchmark
+    public List<?> generatedRegistry(SyntheticState state) throws Throwable {
+        return (List<?>) state.registry.invokeExact(state.scanService);
+    }
+
+    @Benchmark
+    public void coldScan(SyntheticState state, Blackhole blackhole) {
+        Services.clear(state.synthetic.scanLoader);
+        consumeNames(Services.providerNames(state.scanService, state.synthetic.scanLoader), blackhole);
+    }
+
+    @Benchmark
+    public void coldTextIndex(SyntheticState state, Blackhole blackhole) {
+        Services.clear(state.synthetic.textIndexLoader);
+        consumeNames(Services.providerNames(state.textIndexService, state.synthetic.textIndexLoader), blackhole);
+    }
+
+    @Benchmark
+    public void coldBinaryIndex(SyntheticState state, Blackhole blackhole) {
+        Services.clear(state.synthetic.binaryIndexLoader);
+        consumeNames(Services.providerNames(state.binaryIndexService, state.synthetic.binaryIndexLoader), blackhole);
+    }
+
+    /**
+     * 冷查找并创建全部实例，和 serviceLoader 做对比。
+     */
+    @Benchmark
+    public List<?> coldScanAndInstantiate(SyntheticState state) {
+        Services.clear(state.synthetic.scanLoader);
+        return Services.get(state.scanService, state.synthetic.scanLoader);
+    }
+
+    /**
+     * 二进制索引的类名是按需解码的，这里逐个取出来，保证和其它方式做的工作一样多。
+     */
+    private static void consumeNames(List<String> names, Blackhole blackhole) {
+        for (int i = 0; i < names.size(); i++) {
+            blackhole.consume(names.get(i));
+        }
+    }
+}
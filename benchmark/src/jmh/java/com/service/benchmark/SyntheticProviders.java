@@ -0,0 +1,157 @@
+package com.service.benchmark;
+
+import com.service.processor.AutoServiceProcessor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * 在进程内用 javac + AutoServiceProcessor 编译 count 个 @AutoService 实现类，
+ * 得到和真实工程一样的 service 文件、合并索引、二进制索引和注册类。
+ * <p>
+ * 输出被拆成三个目录，分别组合成三个 ClassLoader：只有 service 文件、额外带文本索引、额外带二进制索引，
+ * 这样同一批实现类可以比较不同的查找方式。
+ *
+ * @author dengxiaoqiu
+ */
+public final class SyntheticProviders implements Closeable {
+
+    static final String PACKAGE = "bench";
+    static final String SERVICE = PACKAGE + ".Service";
+    static final String MODULE = "bench";
+    static final String REGISTRY = "com.service.registry.AutoServiceRegistry_" + MODULE;
+
+    private static final String TEXT_INDEX = "META-INF/autoservice/services.index";
+    private static final String BINARY_INDEX = "META-INF/autoservice/services.idx";
+
+    private final Path root;
+    final URLClassLoader scanLoader;
+    final URLClassLoader textIndexLoader;
+    final URLClassLoader binaryIndexLoader;
+
+    private SyntheticProviders(Path root, Path classes, Path textIndex, Path binaryIndex) throws IOException {
+        this.root = root;
+        ClassLoader parent = SyntheticProviders.class.getClassLoader();
+        scanLoader = new URLClassLoader(urls(classes), parent);
+        textIndexLoader = new URLClassLoader(urls(textIndex, classes), parent);
+        binaryIndexLoader = new URLClassLoader(urls(binaryIndex, classes), parent);
+    }
+
+    public static SyntheticProviders compile(int count) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("A JDK is required to compile synthetic providers");
+        }
+        Path root = Files.createTempDirectory("autoservice-benchmark-");
+        Path classes = Files.createDirectories(root.resolve("classes"));
+
+        List<JavaFileObject> sources = new ArrayList<>(count + 1);
+        sources.add(source("Service", "package " + PACKAGE + ";\n"
+                + "public interface Service {\n"
+                + "    int id();\n"
+                + "}\n"));
+        for (int i = 0; i < count; i++) {
+            sources.add(source("Provider" + i, "package " + PACKAGE + ";\n"
+                    + "@com.service.annotations.AutoService(Service.class)\n"
+                    + "public class Provider" + i + " implements Service {\n"
+                    + "    @Override public int id() { return " + i + "; }\n"
+                    + "}\n"));
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager =
+                     compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(classes.toFile()));
+            List<String> options = Arrays.asList(
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-Aautoservice.module=" + MODULE,
+                    // 空的 classpath：索引里只有这批实现类，但标记为已合并
+                    "-Aautoservice.aggregate=",
+                    "-Aautoservice.binaryIndex=true");
+            JavaCompiler.CompilationTask task =
+                    compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+            task.setProcessors(Collections.singletonList(new AutoServiceProcessor()));
+            if (!task.call()) {
+                throw new IllegalStateException("Compilation failed: " + diagnostics.getDiagnostics());
+            }
+        }
+
+        Path textIndex = move(classes, root.resolve("text-index"), TEXT_INDEX);
+        Path binaryIndex = move(classes, root.resolve("binary-index"), BINARY_INDEX);
+        return new SyntheticProviders(root, classes, textIndex, binaryIndex);
+    }
+
+    static Class<?> service(ClassLoader loader) throws ClassNotFoundException {
+        return Class.forName(SERVICE, false, loader);
+    }
+
+    @Override
+    public void close() throws IOException {
+        scanLoader.close();
+        textIndexLoader.close();
+        binaryIndexLoader.close();
+        deleteRecursively(root);
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static Path move(Path from, Path toRoot, String resource) throws IOException {
+        Path target = toRoot.resolve(resource);
+        Files.createDirectories(target.getParent());
+        Files.move(from.resolve(resource), target);
+        return toRoot;
+    }
+
+    private static URL[] urls(Path... paths) throws IOException {
+        URL[] urls = new URL[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            urls[i] = paths[i].toUri().toURL();
+        }
+        return urls;
+    }
+
+    static JavaFileObject source(String simpleName, final String code) {
+        URI uri = URI.create("string:///" + PACKAGE + "/" + simpleName + JavaFileObject.Kind.SOURCE.extension);
+        return new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+}
@@ -0,0 +1,54 @@
+package com.service.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * 每个 trial 编译一批实现类，所有 benchmark 共用。
+ *
+ * @author dengxiaoqiu
+ */
+@State(Scope.Benchmark)
+public class SyntheticState {
+
+    /**
+     * 每个接口的实现类个数。
+     */
+    @Param({"1", "100", "10000"})
+    public int providers;
+
+    SyntheticProviders synthetic;
+    Class<?> scanService;
+    Class<?> textIndexService;
+    Class<?> binaryIndexService;
+    /**
+     * 生成的 AutoServiceRegistry_bench.get(Class)，编译期还不存在，只能通过 MethodHandle 调用。
+     */
+    MethodHandle registry;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        synthetic = SyntheticProviders.compile(providers);
+        scanService = SyntheticProviders.service(synthetic.scanLoader);
+        textIndexService = SyntheticProviders.service(synthetic.textIndexLoader);
+        binaryIndexService = SyntheticProviders.service(synthetic.binaryIndexLoader);
+        Class<?> registryClass = Class.forName(SyntheticProviders.REGISTRY, true, synthetic.scanLoader);
+        registry = MethodHandles.publicLookup()
+                .findStatic(registryClass, "get", MethodType.methodType(List.class, Class.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        synthetic.close();
+    }
+}
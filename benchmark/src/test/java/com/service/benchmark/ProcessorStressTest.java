@@ -0,0 +1,40 @@
+package com.service.benchmark;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 用一个很小的规模跑一遍压力测试，保证生成的工作量能编译，service 文件的检查本身是对的。
+ *
+ * @author dengxiaoqiu
+ */
+public class ProcessorStressTest {
+
+    @Test
+    public void smallWorkloadPassesVerification() throws IOException {
+        ProcessorStress.Result result = ProcessorStress.run(200, 4, true);
+
+        assertTrue(result.problems.toString(), result.problems.isEmpty());
+        assertEquals(200, result.providers);
+        assertTrue(result.registrations > result.providers);
+        assertTrue(result.staleEntries > 0);
+        assertTrue(result.processorNanos > 0);
+        assertTrue(result.classOutputFilesWritten > 0);
+        assertTrue(result.sourceFilesWritten > 0);
+    }
+
+    @Test
+    public void missingMetricIsAFailure() {
+        assertEquals(12, ProcessorStress.metric("{\"totalNanos\": 12}", "totalNanos"));
+        try {
+            ProcessorStress.metric("{\"rounds\": 1}", "totalNanos");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
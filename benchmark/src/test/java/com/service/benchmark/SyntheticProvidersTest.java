@@ -0,0 +1,67 @@
+package com.service.benchmark;
+
+import com.service.runtime.Services;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 保证各个 benchmark 比较的是同一份结果：不同查找方式返回的实现类必须一致。
+ *
+ * @author dengxiaoqiu
+ */
+public class SyntheticProvidersTest {
+
+    private static SyntheticProviders synthetic;
+
+    @BeforeClass
+    public static void compile() throws IOException {
+        synthetic = SyntheticProviders.compile(3);
+    }
+
+    @AfterClass
+    public static void close() throws IOException {
+        synthetic.close();
+    }
+
+    @Test
+    public void loadersOnlyDifferInTheirIndex() {
+        assertNull(synthetic.scanLoader.getResource("META-INF/autoservice/services.index"));
+        assertNull(synthetic.scanLoader.getResource("META-INF/autoservice/services.idx"));
+        assertNotNull(synthetic.textIndexLoader.getResource("META-INF/autoservice/services.index"));
+        assertNull(synthetic.textIndexLoader.getResource("META-INF/autoservice/services.idx"));
+        assertNotNull(synthetic.binaryIndexLoader.getResource("META-INF/autoservice/services.idx"));
+        assertNull(synthetic.binaryIndexLoader.getResource("META-INF/autoservice/services.index"));
+    }
+
+    @Test
+    public void everyLookupFindsTheSameProviders() throws Exception {
+        List<String> expected = Arrays.asList("bench.Provider0", "bench.Provider1", "bench.Provider2");
+
+        assertEquals(expected, Services.providerNames(
+                SyntheticProviders.service(synthetic.scanLoader), synthetic.scanLoader));
+        assertEquals(expected, Services.providerNames(
+                SyntheticProviders.service(synthetic.textIndexLoader), synthetic.textIndexLoader));
+        assertEquals(expected, Services.providerNames(
+                SyntheticProviders.service(synthetic.binaryIndexLoader), synthetic.binaryIndexLoader));
+
+        Class<?> service = SyntheticProviders.service(synthetic.scanLoader);
+        Method get = Class.forName(SyntheticProviders.REGISTRY, true, synthetic.scanLoader)
+                .getMethod("get", Class.class);
+        List<?> instances = (List<?>) get.invoke(null, service);
+        assertEquals(expected.size(), instances.size());
+        for (int i = 0; i < instances.size(); i++) {
+            assertEquals(expected.get(i), instances.get(i).getClass().getName());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.service.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * 处理器开启 autoservice.binaryIndex 后生成的 META-INF/autoservice/services.idx 的读取器。
+ * <p>
+ * 文件在本地时通过 {@link java.nio.MappedByteBuffer} 映射，否则（jar、apk 中）一次性读入内存。
+ * 查找时只对接口名编码一次，在字符串区里按字节二分查找；实现类名在 {@link List#get(int)} 时才解码成 String，
+ * 不会一开始就为每个条目创建字符串。格式见处理器中的 BinaryIndexWriter。
+ *
+ * @author dengxiaoqiu
+ */
+public final class BinaryServiceIndex {
+
+    public static final String INDEX_FILE = "META-INF/autoservice/services.idx";
+
+    private static final int MAGIC = 0x41534958;
+    private static final int VERSION = 1;
+    private static final int FLAG_AGGREGATED = 1;
+    private static final int HEADER_SIZE = 20;
+
+    private final ByteBuffer buffer;
+    private final int flags;
+    private final int stringCount;
+    private final int serviceCount;
+    private final int stringOffsetsStart;
+    private final int servicesStart;
+    private final int providerNamesStart;
+    private final int providerOrdersStart;
+    private final int stringDataStart;
+
+    private BinaryServiceIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a service index");
+        }
+        int version = buffer.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported service index version " + version);
+        }
+        flags = buffer.getShort(6);
+        stringCount = buffer.getInt(8);
+        serviceCount = buffer.getInt(12);
+        int providerCount = buffer.getInt(16);
+        stringOffsetsStart = HEADER_SIZE;
+        servicesStart = stringOffsetsStart + (stringCount + 1) * 4;
+        providerNamesStart = servicesStart + serviceCount * 12;
+        providerOrdersStart = providerNamesStart + providerCount * 4;
+        stringDataStart = providerOrdersStart + providerCount * 4;
+        if (stringDataStart + buffer.getInt(stringOffsetsStart + stringCount * 4) > buffer.limit()) {
+            throw new IOException("Truncated service index");
+        }
+    }
+
+    /**
+     * 映射本地文件。
+     */
+    public static BinaryServiceIndex open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            return new BinaryServiceIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static BinaryServiceIndex open(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return open(new File(url.toURI()));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                // 回退到按流读取
+            }
+        }
+        try (InputStream input = url.openStream()) {
+            return read(input);
+        }
+    }
+
+    public static BinaryServiceIndex read(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = input.read(chunk)) != -1) {
+            bytes.write(chunk, 0, n);
+        }
+        return new BinaryServiceIndex(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /**
+     * 是否由 app 模块合并了所有依赖生成，此时可以代替扫描 classpath。
+     */
+    public boolean isAggregated() {
+        return (flags & FLAG_AGGREGATED) != 0;
+    }
+
+    public int serviceCount() {
+        return serviceCount;
+    }
+
+    /**
+     * @return 按 order 排好序的实现类名，索引中没有这个接口时返回 null
+     */
+    public List<String> providers(String service) {
+        int slot = find(service.getBytes(StandardCharsets.UTF_8));
+        if (slot < 0) {
+            return null;
+        }
+        int entry = servicesStart + slot * 12;
+        return new Providers(buffer.getInt(entry + 4), buffer.getInt(entry + 8));
+    }
+
+    /**
+     * @return 实现类的 order，provider 为 {@link #providers(String)} 返回列表中的下标
+     */
+    public int order(String service, int provider) {
+        int slot = find(service.getBytes(StandardCharsets.UTF_8));
+        if (slot < 0) {
+            throw new IllegalArgumentException(service + " is not in the index");
+        }
+        int entry = servicesStart + slot * 12;
+        if (provider < 0 || provider >= buffer.getInt(entry + 8)) {
+            throw new IndexOutOfBoundsException(String.valueOf(provider));
+        }
+        return buffer.getInt(providerOrdersStart + (buffer.getInt(entry + 4) + provider) * 4);
+    }
+
+    private int find(byte[] key) {
+        int low = 0;
+        int high = serviceCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = compare(buffer.getInt(servicesStart + mid * 12), key);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 直接和字符串区中的字节比较，不创建 String。
+     */
+    private int compare(int string, byte[] key) {
+        int start = stringDataStart + buffer.getInt(stringOffsetsStart + string * 4);
+        int length = stringDataStart + buffer.getInt(stringOffsetsStart + (string + 1) * 4) - start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int result = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String string(int string) {
+        int start = stringDataStart + buffer.getInt(stringOffsetsStart + string * 4);
+        int end = stringDataStart + buffer.getInt(stringOffsetsStart + (string + 1) * 4);
+        byte[] utf8 = new byte[end - start];
+        for (int i = 0; i < utf8.length; i++) {
+            utf8[i] = buffer.get(start + i);
+        }
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private final class Providers extends AbstractList<String> {
+        private final int first;
+        private final int size;
+
+        Providers(int first, int size) {
+            this.first = first;
+            this.size = size;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return string(buffer.getInt(providerNamesStart + (first + index) * 4));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
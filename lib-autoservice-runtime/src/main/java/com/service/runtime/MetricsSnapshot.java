@@ -0,0 +1,243 @@
+package com.service.runtime;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ProviderMetrics#snapshot()} 返回的不可变快照，可以通过 {@link #writeJson(Writer)} 导出。
+ * 时间单位都是纳秒。
+ *
+ * @author dengxiaoqiu
+ */
+public final class MetricsSnapshot {
+
+    private final long timestampMillis;
+    private final List<Provider> providers;
+
+    MetricsSnapshot(long timestampMillis, List<ProviderStats> stats) {
+        this.timestampMillis = timestampMillis;
+        List<Provider> providers = new ArrayList<>(stats.size());
+        for (ProviderStats provider : stats) {
+            providers.add(new Provider(provider));
+        }
+        Collections.sort(providers, new Comparator<Provider>() {
+            @Override
+            public int compare(Provider a, Provider b) {
+                int byName = a.name.compareTo(b.name);
+                return byName != 0 ? byName : Integer.compare(a.methods.size(), b.methods.size());
+            }
+        });
+        this.providers = Collections.unmodifiableList(providers);
+    }
+
+    public long timestampMillis() {
+        return timestampMillis;
+    }
+
+    public List<Provider> providers() {
+        return providers;
+    }
+
+    public void writeJson(Writer writer) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestampMillis\": ").append(timestampMillis).append(",\n");
+        json.append("  \"providers\": [");
+        String separator = "\n";
+        for (Provider provider : providers) {
+            json.append(separator).append("    {\"name\": ");
+            appendString(json, provider.name);
+            json.append(", \"instances\": ").append(provider.instances)
+                    .append(", \"instantiationNanos\": ").append(provider.instantiationNanos)
+                    .append(", \"maxInstantiationNanos\": ").append(provider.maxInstantiationNanos)
+                    .append(", \"methods\": [");
+            String methodSeparator = "\n";
+            for (Method method : provider.methods) {
+                json.append(methodSeparator).append("      {\"name\": ");
+                appendString(json, method.name);
+                json.append(", \"calls\": ").append(method.calls)
+                        .append(", \"failures\": ").append(method.failures)
+                        .append(", \"totalNanos\": ").append(method.totalNanos)
+                        .append(", \"maxNanos\": ").append(method.maxNanos)
+                        .append(", \"p50Nanos\": ").append(method.percentileNanos(0.5))
+                        .append(", \"p99Nanos\": ").append(method.percentileNanos(0.99))
+                        .append(", \"histogram\": [");
+                for (int i = 0; i < method.histogram.length; i++) {
+                    json.append(i == 0 ? "" : ", ").append(method.histogram[i]);
+                }
+                json.append("]}");
+                methodSeparator = ",\n";
+            }
+            json.append(provider.methods.isEmpty() ? "]}" : "\n    ]}");
+            separator = ",\n";
+        }
+        json.append(providers.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        writer.write(json.toString());
+        writer.flush();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\');
+            }
+            json.append(c);
+        }
+        json.append('"');
+    }
+
+    /**
+     * 一个实现类的统计。
+     */
+    public static final class Provider {
+        private final String name;
+        private final long instances;
+        private final long instantiationNanos;
+        private final long maxInstantiationNanos;
+        private final List<Method> methods;
+
+        Provider(ProviderStats stats) {
+            this.name = stats.providerName;
+            this.instances = stats.instances.sum();
+            this.instantiationNanos = stats.instantiationNanos.sum();
+            this.maxInstantiationNanos = stats.maxInstantiationNanos.get();
+            List<Method> methods = new ArrayList<>(stats.methods.length);
+            for (ProviderStats.MethodStats method : stats.methods) {
+                methods.add(new Method(method));
+            }
+            this.methods = Collections.unmodifiableList(methods);
+        }
+
+        /**
+         * 实现类的 binary name。
+         */
+        public String name() {
+            return name;
+        }
+
+        public long instances() {
+            return instances;
+        }
+
+        /**
+         * 所有实例的创建耗时之和。
+         */
+        public long instantiationNanos() {
+            return instantiationNanos;
+        }
+
+        public long maxInstantiationNanos() {
+            return maxInstantiationNanos;
+        }
+
+        public List<Method> methods() {
+            return methods;
+        }
+
+        @Override
+        public String toString() {
+            return "MetricsSnapshot.Provider{name=" + name + ", instances=" + instances
+                    + ", instantiationNanos=" + instantiationNanos + ", methods=" + methods + '}';
+        }
+    }
+
+    /**
+     * 一个方法的统计。各项计数分别读取，调用还在进行时彼此之间可能差几次。
+     */
+    public static final class Method {
+        private final String name;
+        private final long calls;
+        private final long failures;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] histogram;
+
+        Method(ProviderStats.MethodStats stats) {
+            this.name = stats.name;
+            this.calls = stats.calls.sum();
+            this.failures = stats.failures.sum();
+            this.totalNanos = stats.totalNanos.sum();
+            this.maxNanos = stats.maxNanos.get();
+            this.histogram = new long[stats.histogram.length];
+            int i = 0;
+            for (LongAdder bucket : stats.histogram) {
+                histogram[i++] = bucket.sum();
+            }
+        }
+
+        /**
+         * 方法签名，例如 execute(java.lang.String,int)。
+         */
+        public String name() {
+            return name;
+        }
+
+        public long calls() {
+            return calls;
+        }
+
+        /**
+         * 抛出异常的调用次数，这些调用同样计入 {@link #calls()} 和耗时。
+         */
+        public long failures() {
+            return failures;
+        }
+
+        public long totalNanos() {
+            return totalNanos;
+        }
+
+        public long maxNanos() {
+            return maxNanos;
+        }
+
+        public long meanNanos() {
+            return calls == 0 ? 0 : totalNanos / calls;
+        }
+
+        /**
+         * 第 i 个元素是耗时在 [2^(i-1), 2^i) 纳秒的调用次数，最后一个元素包括所有更长的调用。
+         */
+        public long[] histogram() {
+            return histogram.clone();
+        }
+
+        /**
+         * 按分桶估算的分位数，返回所在桶的上界，不超过 {@link #maxNanos()}。
+         *
+         * @param quantile 0 到 1 之间，例如 0.99
+         */
+        public long percentileNanos(double quantile) {
+            long total = 0;
+            for (long count : histogram) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && histogram[i] > 0) {
+                    return i == histogram.length - 1 ? maxNanos : Math.min(maxNanos, 1L << i);
+                }
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "MetricsSnapshot.Method{name=" + name + ", calls=" + calls + ", failures=" + failures
+                    + ", meanNanos=" + meanNanos() + ", maxNanos=" + maxNanos + '}';
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package com.service.runtime;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 插件目录：监听一个目录里的 jar，运行时放入、替换或删除 jar 后自动更新实现类列表。
+ * <p>
+ * 每个 jar 只读取 META-INF/services 下的条目，格式和 AutoServiceProcessor 生成的一致；目录变化时只重新读取变化的 jar，
+ * 其它 jar 沿用已经解析好的结果。结果以不可变的 {@link Snapshot} 通过 AtomicReference 发布，
+ * 读取方不加锁，也不会看到更新到一半的状态。
+ * <p>
+ * 每个 jar 使用自己的 URLClassLoader。jar 被删除或替换后，旧的 loader 要等到包含它的快照都被回收才关闭，
+ * 在这之后的下一次更新时检查，所以持有旧快照的读取方仍然可以通过它创建实例。从快照创建的实例如果之后还要加载类或资源，
+ * 调用方需要一直持有这个快照；{@link #close()} 会立即关闭所有 loader。
+ * <p>
+ * 复制大文件时可能先收到只写了一部分的 jar，读取失败时保留这个 jar 之前的结果，等下一次修改事件再读；
+ * 最好先复制到其它目录再移动进来。
+ *
+ * @author dengxiaoqiu
+ */
+public final class PluginRegistry implements Closeable {
+
+    private final Path directory;
+    private final ClassLoader parent;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+
+    /**
+     * 只在持有 this 锁时访问，key 为 jar 的文件名，按文件名排序决定同 order 实现类的先后。
+     */
+    private final TreeMap<String, Plugin> plugins = new TreeMap<>();
+
+    /**
+     * 已经发布的快照，快照被回收后进入 released，只在持有 this 锁时访问。
+     */
+    private final Set<Published> published = new HashSet<>();
+    private final ReferenceQueue<Snapshot> released = new ReferenceQueue<>();
+
+    private WatchService watchService;
+    private Thread watcher;
+    /**
+     * {@link #close()} 之后为 true，只在持有 this 锁时访问。关闭后不能再创建新的 loader。
+     */
+    private boolean closed;
+
+    public PluginRegistry(Path directory, ClassLoader parent) {
+        this.directory = directory;
+        this.parent = parent;
+    }
+
+    /**
+     * 读取目录中已有的 jar 并开始监听，监听在一个守护线程里进行。
+     *
+     * @throws IllegalStateException 已经开始监听或者已经关闭
+     */
+    public synchronized void start() throws IOException {
+        checkNotClosed();
+        if (watchService != null) {
+            throw new IllegalStateException("Already started");
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        refresh();
+        final WatchService service = watchService;
+        watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch(service);
+            }
+        }, "PluginRegistry-" + directory.getFileName());
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * 当前的快照，读取不加锁。
+     */
+    public Snapshot snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * 重新检查整个目录：新增和修改过（大小或修改时间变化）的 jar 重新读取，不存在的 jar 移除。
+     * 监听事件丢失（OVERFLOW）时也会调用。
+     *
+     * @throws IllegalStateException 已经关闭
+     */
+    public synchronized Snapshot refresh() throws IOException {
+        checkNotClosed();
+        List<String> present = new ArrayList<>();
+        try (DirectoryStream<Path> jars = Files.newDirectoryStream(directory, "*.jar")) {
+            for (Path jar : jars) {
+                String name = jar.getFileName().toString();
+                present.add(name);
+                update(name);
+            }
+        }
+        for (String name : new ArrayList<>(plugins.keySet())) {
+            if (!present.contains(name)) {
+                remove(name);
+            }
+        }
+        return publish();
+    }
+
+    /**
+     * 停止监听并关闭所有 loader，之后 {@link #start()} 和 {@link #refresh()} 抛出 IllegalStateException。
+     * 重复调用没有影响。
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = watcher;
+            if (watchService != null) {
+                watchService.close();
+            }
+            for (Plugin plugin : plugins.values()) {
+                plugin.close();
+            }
+            for (Published snapshot : published) {
+                for (Plugin plugin : snapshot.plugins) {
+                    plugin.close();
+                }
+            }
+            plugins.clear();
+            published.clear();
+            snapshot.set(Snapshot.EMPTY);
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void watch(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            try {
+                boolean overflow = false;
+                List<String> changed = new ArrayList<>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                    } else {
+                        String name = ((Path) event.context()).getFileName().toString();
+                        if (name.endsWith(".jar") && !changed.contains(name)) {
+                            changed.add(name);
+                        }
+                    }
+                }
+                if (overflow) {
+                    refresh();
+                } else if (!changed.isEmpty()) {
+                    apply(changed);
+                }
+            } catch (IOException | RuntimeException e) {
+                // 监听线程不能退出，出错的 jar 保留之前的结果，下一次事件或 refresh() 时再处理
+            }
+            if (!key.reset()) {
+                return;
+            }
+        }
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("Closed");
+        }
+    }
+
+    private synchronized void apply(List<String> changed) {
+        if (watchService == null || closed) {
+            return;
+        }
+        for (String name : changed) {
+            if (Files.exists(directory.resolve(name))) {
+                update(name);
+            } else {
+                remove(name);
+            }
+        }
+        publish();
+    }
+
+    /**
+     * 大小和修改时间都没变时跳过，读取失败时保留之前的结果。
+     */
+    private void update(String name) {
+        Path jar = directory.resolve(name);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return;
+        }
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        Plugin previous = plugins.get(name);
+        if (previous != null && previous.size == size && previous.lastModified == lastModified) {
+            return;
+        }
+        Map<String, Map<String, Integer>> services;
+        try {
+            services = readServices(jar);
+        } catch (IOException e) {
+            return;
+        }
+        URLClassLoader loader;
+        try {
+            loader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, parent);
+        } catch (IOException e) {
+            return;
+        }
+        plugins.put(name, new Plugin(jar, size, lastModified, services, loader));
+        if (previous != null) {
+            previous.retire();
+        }
+    }
+
+    private void remove(String name) {
+        Plugin removed = plugins.remove(name);
+        if (removed != null) {
+            removed.retire();
+        }
+    }
+
+    /**
+     * 用已经解析好的各个 jar 重新合并出快照，不读取文件。顺便关闭已经没有快照引用的旧 loader。
+     */
+    private Snapshot publish() {
+        Reference<? extends Snapshot> reference;
+        while ((reference = released.poll()) != null) {
+            Published snapshot = (Published) reference;
+            published.remove(snapshot);
+            for (Plugin plugin : snapshot.plugins) {
+                plugin.release();
+            }
+        }
+        List<Plugin> current = new ArrayList<>(plugins.values());
+        Snapshot next = new Snapshot(snapshot.get().version + 1, current);
+        for (Plugin plugin : current) {
+            plugin.snapshots++;
+        }
+        published.add(new Published(next, current, released));
+        snapshot.set(next);
+        return next;
+    }
+
+    /**
+     * 只读取 jar 中 META-INF/services 下的条目。
+     */
+    static Map<String, Map<String, Integer>> readServices(Path jar) throws IOException {
+        Map<String, Map<String, Integer>> services = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.startsWith(ServiceConfigs.PREFIX)
+                        || name.length() == ServiceConfigs.PREFIX.length()
+                        || name.indexOf('/', ServiceConfigs.PREFIX.length()) >= 0) {
+                    continue;
+                }
+                Map<String, Integer> providers = new LinkedHashMap<>();
+                try (InputStream input = zip.getInputStream(entry)) {
+                    ServiceConfigs.parse(input, providers);
+                }
+                if (!providers.isEmpty()) {
+                    services.put(name.substring(ServiceConfigs.PREFIX.length()), providers);
+                }
+            }
+        }
+        return services;
+    }
+
+    /**
+     * 一个插件 jar 的解析结果。
+     */
+    static final class Plugin {
+        final Path path;
+        final long size;
+        final long lastModified;
+        final Map<String, Map<String, Integer>> services;
+        final URLClassLoader loader;
+
+        /**
+         * 还没有被回收的快照中包含这个 jar 的个数，只在持有 PluginRegistry 锁时访问。
+         */
+        int snapshots;
+        boolean retired;
+
+        Plugin(Path path, long size, long lastModified, Map<String, Map<String, Integer>> services,
+               URLClassLoader loader) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.services = services;
+            this.loader = loader;
+        }
+
+        /**
+         * jar 被删除或替换，没有快照引用时关闭 loader。
+         */
+        void retire() {
+            retired = true;
+            if (snapshots == 0) {
+                close();
+            }
+        }
+
+        /**
+         * 一个包含这个 jar 的快照被回收。
+         */
+        void release() {
+            snapshots--;
+            if (retired && snapshots == 0) {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                loader.close();
+            } catch (IOException e) {
+                // 已经不再使用，关闭失败也不影响快照
+            }
+        }
+    }
+
+    /**
+     * 快照被回收时进入 ReferenceQueue，记录它包含的 jar，快照本身已经取不到。
+     */
+    private static final class Published extends PhantomReference<Snapshot> {
+        final List<Plugin> plugins;
+
+        Published(Snapshot snapshot, List<Plugin> plugins, ReferenceQueue<Snapshot> queue) {
+            super(snapshot, queue);
+            this.plugins = plugins;
+        }
+    }
+
+    /**
+     * 某一时刻所有插件的实现类列表，创建后不再变化。
+     */
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(0, Collections.<Plugin>emptyList());
+
+        private final long version;
+        private final List<Path> plugins;
+        private final Map<String, List<Provider>> providers;
+
+        Snapshot(long version, List<Plugin> plugins) {
+            this.version = version;
+            List<Path> paths = new ArrayList<>(plugins.size());
+            Map<String, List<Provider>> providers = new HashMap<>();
+            for (Plugin plugin : plugins) {
+                paths.add(plugin.path);
+                for (Map.Entry<String, Map<String, Integer>> service : plugin.services.entrySet()) {
+                    List<Provider> list = providers.get(service.getKey());
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        providers.put(service.getKey(), list);
+                    }
+                    for (Map.Entry<String, Integer> provider : service.getValue().entrySet()) {
+                        list.add(new Provider(provider.getKey(), provider.getValue(), plugin.loader));
+                    }
+                }
+            }
+            // 和 Services 一样按 order 稳定排序，order 相同时按 jar 文件名和文件中的顺序
+            for (List<Provider> list : providers.values()) {
+                Collections.sort(list, Provider.BY_ORDER);
+            }
+            this.plugins = Collections.unmodifiableList(paths);
+            this.providers = providers;
+        }
+
+        /**
+         * 每次发布新快照时加一。
+         */
+        public long version() {
+            return version;
+        }
+
+        public List<Path> plugins() {
+            return plugins;
+        }
+
+        /**
+         * 不加载实现类，返回所有插件中 service 的实现类名，按 order 排序。
+         */
+        public List<String> providerNames(String service) {
+            List<Provider> list = providers.get(service);
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            List<String> names = new ArrayList<>(list.size());
+            for (Provider provider : list) {
+                names.add(provider.name);
+            }
+            return Collections.unmodifiableList(names);
+        }
+
+        /**
+         * 通过各自插件的 ClassLoader 创建实现类的新实例。
+         *
+         * @throws ServiceConfigurationError 实现类不存在、不是 service 的子类或者不能创建
+         */
+        public <T> List<T> newInstances(Class<T> service) {
+            List<Provider> list = providers.get(service.getName());
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            List<T> instances = new ArrayList<>(list.size());
+            for (Provider provider : list) {
+                instances.add(new ProviderHolder<>(service, provider.loader, Collections.<String>emptyList())
+                        .newInstance(provider.name));
+            }
+            return instances;
+        }
+    }
+
+    private static final class Provider {
+        static final Comparator<Provider> BY_ORDER = new Comparator<Provider>() {
+            @Override
+            public int compare(Provider a, Provider b) {
+                return Integer.compare(a.order, b.order);
+            }
+        };
+
+        final String name;
+        final int order;
+        final ClassLoader loader;
+
+        Provider(String name, int order, ClassLoader loader) {
+            this.name = name;
+            this.order = order;
+            this.loader = loader;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.service.runtime;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 容量有限的实现类实例缓存，适合内存紧张的设备。
+ * <p>
+ * 和 {@link Services#get(Class)} 永久持有所有实例不同，这里每个接口的实例列表通过软引用或弱引用持有，
+ * 超过容量时淘汰最久没有访问的接口，空闲超过指定时间的接口也会被淘汰；被淘汰或被 GC 回收后再次访问时，
+ * 按已经解析好的 META-INF/services 条目重新创建实例，不需要再读取资源文件。
+ * 命中、未命中、淘汰次数通过 {@link #stats()} 获取，可以按设备档次调整容量。
+ *
+ * @author dengxiaoqiu
+ */
+public final class ProviderCache {
+
+    /**
+     * 实例列表的持有方式。
+     */
+    public enum ReferenceType {
+        /**
+         * 只按容量和空闲时间淘汰。
+         */
+        STRONG,
+        /**
+         * 内存不足时允许 GC 回收。
+         */
+        SOFT,
+        /**
+         * 没有其它地方引用时即可被 GC 回收。
+         */
+        WEAK
+    }
+
+    private final ClassLoader loader;
+    private final int capacity;
+    private final ReferenceType referenceType;
+    private final long idleNanos;
+
+    /**
+     * 按访问顺序排列，最前面的是最久没有访问的接口。
+     */
+    private final LinkedHashMap<Class<?>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param loader        查找和加载实现类使用的 ClassLoader，null 表示系统 ClassLoader
+     * @param capacity      最多缓存多少个接口的实例
+     * @param referenceType 实例列表的持有方式
+     * @param idleTimeout   空闲多久后淘汰，小于等于 0 表示不按空闲时间淘汰
+     */
+    public ProviderCache(ClassLoader loader, int capacity, ReferenceType referenceType, long idleTimeout,
+                         TimeUnit unit) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        if (referenceType == null || unit == null) {
+            throw new NullPointerException();
+        }
+        this.loader = loader;
+        this.capacity = capacity;
+        this.referenceType = referenceType;
+        this.idleNanos = idleTimeout > 0 ? unit.toNanos(idleTimeout) : 0;
+    }
+
+    /**
+     * 使用软引用、不按空闲时间淘汰。
+     */
+    public ProviderCache(ClassLoader loader, int capacity) {
+        this(loader, capacity, ReferenceType.SOFT, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return 实现类实例，不可修改；同一个列表在被淘汰之前会一直返回给调用方
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(Class<T> service) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry entry = entries.get(service);
+            if (entry != null) {
+                List<?> instances = entry.instances();
+                if (instances != null && !isIdle(entry, now)) {
+                    entry.lastAccess = now;
+                    hitCount++;
+                    return (List<T>) instances;
+                }
+                // 已经被 GC 回收或者空闲太久
+                entries.remove(service);
+                evictionCount++;
+            }
+            missCount++;
+        }
+
+        // 在锁外创建实例，避免一个接口的构造方法阻塞其它接口的查找
+        List<T> created = Collections.unmodifiableList(Services.holder(service, loader).newInstances());
+        synchronized (this) {
+            Entry entry = entries.get(service);
+            if (entry != null) {
+                List<?> instances = entry.instances();
+                if (instances != null) {
+                    // 其它线程已经放进去了，使用同一份实例
+                    return (List<T>) instances;
+                }
+            }
+            entries.put(service, newEntry(created, now));
+            trim(now);
+        }
+        return created;
+    }
+
+    /**
+     * 淘汰空闲超时和已经被 GC 回收的接口。访问缓存时也会顺带清理，一般不需要主动调用。
+     */
+    public synchronized void cleanUp() {
+        trim(System.nanoTime());
+    }
+
+    public synchronized void invalidate(Class<?> service) {
+        entries.remove(service);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * @return 当前缓存的接口数量，可能包含还没有清理的、已经被 GC 回收的条目
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hitCount, missCount, evictionCount, entries.size());
+    }
+
+    private void trim(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entries.size() > capacity || entry.instances() == null || isIdle(entry, now)) {
+                iterator.remove();
+                evictionCount++;
+            }
+        }
+    }
+
+    private boolean isIdle(Entry entry, long now) {
+        return idleNanos > 0 && now - entry.lastAccess > idleNanos;
+    }
+
+    private Entry newEntry(List<?> instances, long now) {
+        switch (referenceType) {
+            case WEAK:
+                return new Entry(null, new WeakReference<List<?>>(instances), now);
+            case SOFT:
+                return new Entry(null, new SoftReference<List<?>>(instances), now);
+            default:
+                return new Entry(instances, null, now);
+        }
+    }
+
+    private static final class Entry {
+        /**
+         * STRONG 时直接持有，否则为 null。
+         */
+        final List<?> strong;
+        final Reference<List<?>> reference;
+        long lastAccess;
+
+        Entry(List<?> strong, Reference<List<?>> reference, long lastAccess) {
+            this.strong = strong;
+            this.reference = reference;
+            this.lastAccess = lastAccess;
+        }
+
+        List<?> instances() {
+            return strong != null ? strong : reference.get();
+        }
+    }
+
+    /**
+     * 缓存统计的快照。
+     */
+    public static final class Stats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final int size;
+
+        Stats(long hitCount, long missCount, long evictionCount, int size) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.size = size;
+        }
+
+        public long hitCount() {
+            return hitCount;
+        }
+
+        public long missCount() {
+            return missCount;
+        }
+
+        /**
+         * 超出容量、空闲超时以及被 GC 回收的次数。
+         */
+        public long evictionCount() {
+            return evictionCount;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public double hitRate() {
+            long requests = hitCount + missCount;
+            return requests == 0 ? 1.0 : (double) hitCount / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "ProviderCache.Stats{hitCount=" + hitCount + ", missCount=" + missCount
+                    + ", evictionCount=" + evictionCount + ", size=" + size + '}';
+        }
+    }
+}
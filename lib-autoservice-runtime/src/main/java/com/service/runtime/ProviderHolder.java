@@ -0,0 +1,71 @@
+package com.service.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+
+/**
+ * 一个接口在一个 ClassLoader 下的实现类列表。
+ * 实现类列表在创建时确定；实例第一次访问时创建，之后通过 volatile 字段发布，读取不再加锁。
+ *
+ * @author dengxiaoqiu
+ */
+final class ProviderHolder<T> {
+
+    private final Class<T> service;
+    private final ClassLoader loader;
+    private final List<String> names;
+
+    private volatile List<T> instances;
+
+    ProviderHolder(Class<T> service, ClassLoader loader, List<String> names) {
+        this.service = service;
+        this.loader = loader;
+        this.names = names;
+    }
+
+    List<String> names() {
+        return names;
+    }
+
+    List<T> instances() {
+        List<T> result = instances;
+        if (result == null) {
+            synchronized (this) {
+                result = instances;
+                if (result == null) {
+                    result = Collections.unmodifiableList(newInstances());
+                    instances = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    List<T> newInstances() {
+        List<T> result = new ArrayList<>(names.size());
+        for (String name : names) {
+            result.add(newInstance(name));
+        }
+        return result;
+    }
+
+    T newInstance(String name) {
+        Class<?> providerClass;
+        try {
+            providerClass = Class.forName(name, false, loader);
+        } catch (ClassNotFoundException e) {
+            throw new ServiceConfigurationError(service.getName() + ": Provider " + name + " not found", e);
+        }
+        if (!service.isAssignableFrom(providerClass)) {
+            throw new ServiceConfigurationError(service.getName() + ": Provider " + name + " not a subtype");
+        }
+        try {
+            return service.cast(providerClass.getConstructor().newInstance());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new ServiceConfigurationError(
+                    service.getName() + ": Provider " + name + " could not be instantiated", e);
+        }
+    }
+}
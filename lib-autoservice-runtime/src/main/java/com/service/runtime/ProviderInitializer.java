@@ -0,0 +1,179 @@
+package com.service.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * 按编译期生成的初始化计划创建实现类：计划按 AutoService#dependsOn() 分层，同一层的实现类互不依赖，
+ * 提交到 executor 并行创建，一层全部完成后才开始下一层。启动耗时约等于依赖链上最长的一条，而不是所有实现类之和。
+ * <p>
+ * 计划由 AutoServiceRegistry_&lt;module&gt;.initPlan() 提供，创建实例不经过反射：
+ * <pre>
+ * ProviderInitializer.Initialized initialized =
+ *         ProviderInitializer.initialize(AutoServiceRegistry_app.initPlan(), executor).join();
+ * List&lt;MyServiceImpl&gt; services = initialized.get(MyServiceImpl.class);
+ * </pre>
+ *
+ * @author dengxiaoqiu
+ */
+public final class ProviderInitializer {
+
+    private ProviderInitializer() {
+    }
+
+    /**
+     * 依次执行每一层，返回的 future 在所有实现类创建完成后完成。
+     * 某个实现类创建失败时，这一层结束后以 ServiceConfigurationError 异常完成，后面的层不再执行。
+     */
+    public static CompletableFuture<Initialized> initialize(final Plan plan, final Executor executor) {
+        final Object[] instances = new Object[plan.steps.length];
+        final long[] nanos = new long[plan.steps.length];
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (final List<Step> layer : plan.layers) {
+            chain = chain.thenCompose(new Function<Void, CompletableFuture<Void>>() {
+                @Override
+                public CompletableFuture<Void> apply(Void ignored) {
+                    return runLayer(layer, executor, instances, nanos);
+                }
+            });
+        }
+        // allOf 完成之前的写入对之后的阶段可见
+        return chain.thenApply(new Function<Void, Initialized>() {
+            @Override
+            public Initialized apply(Void ignored) {
+                return new Initialized(plan, instances, nanos);
+            }
+        });
+    }
+
+    private static CompletableFuture<Void> runLayer(List<Step> layer, Executor executor, final Object[] instances,
+                                                    final long[] nanos) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[layer.size()];
+        for (int i = 0; i < futures.length; i++) {
+            final Step step = layer.get(i);
+            futures[i] = CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        instances[step.rank] = step.create();
+                    } catch (RuntimeException | Error e) {
+                        throw new ServiceConfigurationError("Provider " + step.provider
+                                + " could not be initialized", e);
+                    } finally {
+                        nanos[step.rank] = System.nanoTime() - start;
+                    }
+                }
+            }, executor);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * 计划中的一个实现类，由生成的注册类实现 create()。
+     */
+    public abstract static class Step {
+        final int rank;
+        final String provider;
+        final Class<?>[] services;
+
+        /**
+         * @param rank     在整个计划里按 order、类名排序的下标，同一个接口的实例按它排序
+         * @param services 实现类注册的接口
+         */
+        protected Step(int rank, String provider, Class<?>... services) {
+            this.rank = rank;
+            this.provider = provider;
+            this.services = services;
+        }
+
+        public String provider() {
+            return provider;
+        }
+
+        protected abstract Object create();
+    }
+
+    /**
+     * 分层的初始化计划，第 n 层的实现类只依赖前 n - 1 层。
+     */
+    public static final class Plan {
+        final List<List<Step>> layers;
+        final Step[] steps;
+
+        public Plan(List<List<Step>> layers) {
+            int count = 0;
+            for (List<Step> layer : layers) {
+                count += layer.size();
+            }
+            Step[] steps = new Step[count];
+            List<List<Step>> copy = new ArrayList<>(layers.size());
+            for (List<Step> layer : layers) {
+                for (Step step : layer) {
+                    if (step.rank < 0 || step.rank >= count || steps[step.rank] != null) {
+                        throw new IllegalArgumentException("Invalid rank " + step.rank + " for " + step.provider);
+                    }
+                    steps[step.rank] = step;
+                }
+                copy.add(Collections.unmodifiableList(new ArrayList<>(layer)));
+            }
+            this.layers = Collections.unmodifiableList(copy);
+            this.steps = steps;
+        }
+
+        public List<List<Step>> layers() {
+            return layers;
+        }
+
+        public int size() {
+            return steps.length;
+        }
+    }
+
+    /**
+     * 初始化的结果，创建后不再变化。
+     */
+    public static final class Initialized {
+        private final Map<Class<?>, List<Object>> services = new HashMap<>();
+        private final Map<String, Long> durations = new LinkedHashMap<>();
+
+        Initialized(Plan plan, Object[] instances, long[] nanos) {
+            for (Step step : plan.steps) {
+                Object instance = instances[step.rank];
+                for (Class<?> service : step.services) {
+                    List<Object> list = services.get(service);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        services.put(service, list);
+                    }
+                    list.add(instance);
+                }
+                durations.put(step.provider, nanos[step.rank]);
+            }
+        }
+
+        /**
+         * 返回 service 所有实现类的实例，按 order 排序，和注册类的 get() 顺序一致。
+         */
+        @SuppressWarnings("unchecked")
+        public <T> List<T> get(Class<T> service) {
+            List<Object> list = services.get(service);
+            return list != null ? Collections.unmodifiableList((List<T>) (List<?>) list) : Collections.<T>emptyList();
+        }
+
+        /**
+         * key 为实现类的 binary name，value 为创建耗时（纳秒）。
+         */
+        public Map<String, Long> durations() {
+            return Collections.unmodifiableMap(durations);
+        }
+    }
+}
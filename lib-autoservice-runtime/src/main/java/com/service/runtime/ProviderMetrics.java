@@ -0,0 +1,64 @@
+package com.service.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 实现类的调用统计入口。
+ * <p>
+ * 给处理器传 autoservice.instrument=true 后，注册类、分发类和调用类创建的是 &lt;实现类&gt;_Instrumented 包装类，
+ * 包装类在类初始化时通过 {@link #register} 登记，之后记录创建耗时、每个方法的调用次数和耗时分布。
+ * 不开启时不会生成包装类，也不会用到这个类。
+ *
+ * @author dengxiaoqiu
+ */
+public final class ProviderMetrics {
+
+    /**
+     * key 为实现类名加上方法签名，见 {@link #register}。
+     */
+    private static final ConcurrentMap<String, ProviderStats> STATS = new ConcurrentHashMap<>();
+
+    private ProviderMetrics() {
+    }
+
+    /**
+     * 由生成的包装类调用。同一个实现类被多个 ClassLoader 加载时，方法列表相同的共用一份统计；
+     * 方法列表不同（例如插件加载了另一个版本）时各自一份，快照里会出现同名的多个实现类，
+     * 否则包装类按下标取到的是另一个版本的方法统计。
+     *
+     * @param methods 方法签名，包装类按下标通过 {@link ProviderStats#method(int)} 取对应的统计
+     */
+    public static ProviderStats register(String providerName, String... methods) {
+        // 类名和方法签名里都不会有换行
+        String key = providerName + '\n' + String.join("\n", methods);
+        ProviderStats stats = STATS.get(key);
+        if (stats == null) {
+            ProviderStats created = new ProviderStats(providerName, methods);
+            stats = STATS.putIfAbsent(key, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 当前所有实现类统计的快照，实现类按名字排序。快照不会随后续调用变化，可以直接导出。
+     */
+    public static MetricsSnapshot snapshot() {
+        List<ProviderStats> providers = new ArrayList<>(STATS.values());
+        return new MetricsSnapshot(System.currentTimeMillis(), providers);
+    }
+
+    /**
+     * 把所有计数清零，已经登记的实现类保留。
+     */
+    public static void reset() {
+        for (ProviderStats stats : STATS.values()) {
+            stats.reset();
+        }
+    }
+}
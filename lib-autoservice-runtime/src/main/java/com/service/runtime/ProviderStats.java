@@ -0,0 +1,105 @@
+package com.service.runtime;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个实现类的统计数据，由 AutoServiceProcessor 生成的 &lt;实现类&gt;_Instrumented 包装类写入。
+ * <p>
+ * 计数都用 {@link LongAdder}，并发调用时各线程写不同的 cell，不会争用同一个变量。
+ *
+ * @author dengxiaoqiu
+ */
+public final class ProviderStats {
+
+    final String providerName;
+    final LongAdder instances = new LongAdder();
+    final LongAdder instantiationNanos = new LongAdder();
+    final LongAccumulator maxInstantiationNanos = new LongAccumulator(Math::max, 0);
+    final MethodStats[] methods;
+
+    ProviderStats(String providerName, String[] methods) {
+        this.providerName = providerName;
+        this.methods = new MethodStats[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            this.methods[i] = new MethodStats(methods[i]);
+        }
+    }
+
+    /**
+     * 记录一次创建实现类的耗时。
+     */
+    public void instantiated(long nanos) {
+        instances.increment();
+        instantiationNanos.add(nanos);
+        maxInstantiationNanos.accumulate(nanos);
+    }
+
+    /**
+     * @param index 注册时方法列表里的下标
+     */
+    public MethodStats method(int index) {
+        return methods[index];
+    }
+
+    void reset() {
+        instances.reset();
+        instantiationNanos.reset();
+        maxInstantiationNanos.reset();
+        for (MethodStats method : methods) {
+            method.reset();
+        }
+    }
+
+    /**
+     * 一个方法的调用次数、异常次数和耗时分布。
+     * <p>
+     * 耗时按 2 的幂分桶：第 i 个桶统计 [2^(i-1), 2^i) 纳秒的调用，最后一个桶包括所有更长的调用。
+     */
+    public static final class MethodStats {
+
+        static final int BUCKETS = 40;
+
+        final String name;
+        final LongAdder calls = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+        MethodStats(String name) {
+            this.name = name;
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * 记录一次调用的耗时，抛出异常的调用也会记录。
+         */
+        public void record(long nanos) {
+            calls.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            histogram[bucket(nanos)].increment();
+        }
+
+        public void failed() {
+            failures.increment();
+        }
+
+        static int bucket(long nanos) {
+            return nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+        }
+
+        void reset() {
+            calls.reset();
+            failures.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            for (LongAdder bucket : histogram) {
+                bucket.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.service.runtime;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+
+/**
+ * 读取 META-INF/services 文件，格式和 ServiceLoader、处理器里的 ServicesFiles 保持一致。
+ *
+ * @author dengxiaoqiu
+ */
+final class ServiceConfigs {
+
+    static final String PREFIX = "META-INF/services/";
+    /**
+     * AutoService#order() 不为 0 时处理器写在行尾的注释。
+     */
+    static final String ORDER_COMMENT = "# order=";
+
+    private ServiceConfigs() {
+    }
+
+    /**
+     * 读取 loader 能看到的所有 service 文件去重合并，再按 order 稳定排序，
+     * order 相同的保持 classpath 顺序。
+     */
+    static List<String> providerNames(String service, ClassLoader loader) {
+        final Map<String, Integer> names = new LinkedHashMap<>();
+        try {
+            Enumeration<URL> configs = loader.getResources(PREFIX + service);
+            while (configs.hasMoreElements()) {
+                URL url = configs.nextElement();
+                try (InputStream input = url.openStream()) {
+                    parse(input, names);
+                }
+            }
+        } catch (IOException e) {
+            throw new ServiceConfigurationError(service + ": Error reading configuration file", e);
+        }
+        if (names.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> sorted = new ArrayList<>(names.keySet());
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Integer.compare(names.get(a), names.get(b));
+            }
+        });
+        return Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * 解析一个 service 文件，已经存在的实现类保留第一次出现时的 order。
+     */
+    static void parse(InputStream input, Map<String, Integer> names) throws IOException {
+        BufferedReader r = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String line;
+        while ((line = r.readLine()) != null) {
+            int order = 0;
+            int commentStart = line.indexOf('#');
+            if (commentStart >= 0) {
+                order = parseOrder(line, commentStart);
+                line = line.substring(0, commentStart);
+            }
+            line = line.trim();
+            if (!line.isEmpty() && !names.containsKey(line)) {
+                names.put(line, order);
+            }
+        }
+    }
+
+    private static int parseOrder(String line, int commentStart) {
+        if (!line.startsWith(ORDER_COMMENT, commentStart)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(line.substring(commentStart + ORDER_COMMENT.length()).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.service.runtime;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+
+/**
+ * 编译期合并出来的索引，app 模块设置了 autoservice.aggregate 时才会有。
+ * 优先使用二进制的 {@link BinaryServiceIndex#INDEX_FILE}，没有时读取文本格式的 META-INF/autoservice/services.index。
+ * 索引中已经按 order 排好序，读取一次后即可回答所有接口的查询。
+ *
+ * @author dengxiaoqiu
+ */
+final class ServiceIndex {
+
+    static final String INDEX_FILE = "META-INF/autoservice/services.index";
+
+    static final ServiceIndex EMPTY = new ServiceIndex(Collections.<String, List<String>>emptyMap());
+
+    private final Map<String, List<String>> providers;
+    private final BinaryServiceIndex binary;
+
+    private ServiceIndex(Map<String, List<String>> providers) {
+        this.providers = providers;
+        this.binary = null;
+    }
+
+    private ServiceIndex(BinaryServiceIndex binary) {
+        this.providers = null;
+        this.binary = binary;
+    }
+
+    /**
+     * @return 索引中没有这个接口时返回 null，调用方需要回退到扫描 service 文件
+     */
+    List<String> providers(String service) {
+        return binary != null ? binary.providers(service) : providers.get(service);
+    }
+
+    /**
+     * 只使用 loader 自己的索引：父 ClassLoader 也能看到同一个索引时，它只覆盖父 ClassLoader 的 jar，
+     * 子 ClassLoader（例如插件）里的实现类不在其中，返回 {@link #EMPTY} 让调用方扫描 service 文件。
+     */
+    static ServiceIndex load(ClassLoader loader) {
+        URL binaryUrl = ownResource(loader, BinaryServiceIndex.INDEX_FILE);
+        if (binaryUrl != null) {
+            try {
+                BinaryServiceIndex binary = BinaryServiceIndex.open(binaryUrl);
+                // 没有合并依赖的二进制索引只包含某一个模块，不能代替扫描
+                if (binary.isAggregated()) {
+                    return new ServiceIndex(binary);
+                }
+            } catch (IOException e) {
+                throw new ServiceConfigurationError("Error reading " + binaryUrl, e);
+            }
+        }
+        URL url = ownResource(loader, INDEX_FILE);
+        if (url == null) {
+            return EMPTY;
+        }
+        try (InputStream input = url.openStream()) {
+            return new ServiceIndex(parse(input));
+        } catch (IOException e) {
+            throw new ServiceConfigurationError("Error reading " + url, e);
+        }
+    }
+
+    /**
+     * @return loader 能找到、并且不是从父 ClassLoader 找到的资源，否则返回 null
+     */
+    private static URL ownResource(ClassLoader loader, String name) {
+        URL url = loader.getResource(name);
+        if (url == null) {
+            return null;
+        }
+        ClassLoader parent = loader.getParent();
+        return parent != null && url.equals(parent.getResource(name)) ? null : url;
+    }
+
+    static Map<String, List<String>> parse(InputStream input) throws IOException {
+        Map<String, List<String>> result = new HashMap<>();
+        BufferedReader r = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        List<String> current = null;
+        String line;
+        while ((line = r.readLine()) != null) {
+            int commentStart = line.indexOf('#');
+            if (commentStart >= 0) {
+                line = line.substring(0, commentStart);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.charAt(0) == '[' && line.charAt(line.length() - 1) == ']') {
+                current = new ArrayList<>();
+                result.put(line.substring(1, line.length() - 1), current);
+            } else if (current != null) {
+                current.add(line);
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : result.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return result;
+    }
+}
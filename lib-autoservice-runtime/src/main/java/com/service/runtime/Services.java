@@ -0,0 +1,121 @@
+package com.service.runtime;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 带缓存的 {@link java.util.ServiceLoader} 替代。
+ * <p>
+ * 每个接口在每个 ClassLoader 下只解析一次 META-INF/services 文件（有编译期合并的索引时只读索引），实现类实例也只创建一次，
+ * 预热之后的并发调用不会加锁。文件格式与 AutoServiceProcessor 生成的一致，旧的 jar 不需要重新编译。
+ *
+ * @author dengxiaoqiu
+ */
+public final class Services {
+
+    private static final ConcurrentMap<ClassLoader, LoaderCache> CACHE = new ConcurrentHashMap<>();
+
+    private Services() {
+    }
+
+    /**
+     * 使用当前线程的 context ClassLoader 查找，和 {@link java.util.ServiceLoader#load(Class)} 一致。
+     *
+     * @return 缓存的实现类实例，不可修改
+     */
+    public static <T> List<T> get(Class<T> service) {
+        return get(service, Thread.currentThread().getContextClassLoader());
+    }
+
+    public static <T> List<T> get(Class<T> service, ClassLoader loader) {
+        return holder(service, loader).instances();
+    }
+
+    /**
+     * 与 {@link #get(Class)} 使用同一份解析结果，但每次都创建新的实例。
+     */
+    public static <T> List<T> load(Class<T> service) {
+        return load(service, Thread.currentThread().getContextClassLoader());
+    }
+
+    public static <T> List<T> load(Class<T> service, ClassLoader loader) {
+        return holder(service, loader).newInstances();
+    }
+
+    /**
+     * 返回实现类的 binary name，不会加载实现类。
+     */
+    public static List<String> providerNames(Class<?> service, ClassLoader loader) {
+        return holder(service, loader).names();
+    }
+
+    /**
+     * 丢弃 loader 相关的缓存，例如插件卸载时调用，避免 ClassLoader 泄漏。
+     */
+    public static void clear(ClassLoader loader) {
+        CACHE.remove(nonNull(loader));
+    }
+
+    public static void clearAll() {
+        CACHE.clear();
+    }
+
+    /**
+     * {@link ProviderCache} 也通过这里复用解析结果。
+     */
+    @SuppressWarnings("unchecked")
+    static <T> ProviderHolder<T> holder(Class<T> service, ClassLoader loader) {
+        ClassLoader key = nonNull(loader);
+        LoaderCache cache = CACHE.get(key);
+        if (cache == null) {
+            LoaderCache created = new LoaderCache(key);
+            cache = CACHE.putIfAbsent(key, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        ProviderHolder<?> holder = cache.holders.get(service);
+        if (holder == null) {
+            ProviderHolder<T> created = new ProviderHolder<>(service, key, cache.providerNames(service.getName()));
+            holder = cache.holders.putIfAbsent(service, created);
+            if (holder == null) {
+                holder = created;
+            }
+        }
+        return (ProviderHolder<T>) holder;
+    }
+
+    private static ClassLoader nonNull(ClassLoader loader) {
+        return loader != null ? loader : ClassLoader.getSystemClassLoader();
+    }
+
+    /**
+     * 一个 ClassLoader 下的缓存：合并索引只读一次，之后每个接口一个 ProviderHolder。
+     */
+    private static final class LoaderCache {
+        final ClassLoader loader;
+        final ConcurrentMap<Class<?>, ProviderHolder<?>> holders = new ConcurrentHashMap<>();
+
+        private volatile ServiceIndex index;
+
+        LoaderCache(ClassLoader loader) {
+            this.loader = loader;
+        }
+
+        /**
+         * 优先使用编译期合并的索引，索引中没有的接口再扫描 classpath 上的 service 文件。
+         * 索引中有的接口视为完整列表，所以合并时要传运行时 classpath 和本模块的资源目录，见 README 合并索引一节。
+         * 索引属于父 ClassLoader 时不使用，见 {@link ServiceIndex#load(ClassLoader)}。
+         */
+        List<String> providerNames(String service) {
+            ServiceIndex current = index;
+            if (current == null) {
+                current = ServiceIndex.load(loader);
+                index = current;
+            }
+            List<String> names = current.providers(service);
+            return names != null ? names : ServiceConfigs.providerNames(service, loader);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.service.runtime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class PluginRegistryTest {
+
+    private static final String SERVICE = ServiceConfigs.PREFIX + Runnable.class.getName();
+    private static final String FIRST = First.class.getName();
+    private static final String SECOND = Second.class.getName();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private PluginRegistry registry;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temporaryFolder.newFolder("plugins").toPath();
+        // 父 loader 为 null，实现类只能从插件 jar 中加载
+        registry = new PluginRegistry(directory, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        registry.close();
+    }
+
+    @Test
+    public void refreshMergesJarsByOrder() throws IOException {
+        jar("a.jar", SECOND + " # order=1", FIRST);
+        jar("b.jar", SECOND);
+        Files.write(directory.resolve("notes.txt"), Collections.singletonList(FIRST));
+
+        PluginRegistry.Snapshot snapshot = registry.refresh();
+
+        assertEquals(1, snapshot.version());
+        assertEquals(Arrays.asList(directory.resolve("a.jar"), directory.resolve("b.jar")), snapshot.plugins());
+        assertEquals(Arrays.asList(FIRST, SECOND, SECOND), snapshot.providerNames(Runnable.class.getName()));
+        List<Runnable> instances = snapshot.newInstances(Runnable.class);
+        assertEquals(FIRST, instances.get(0).getClass().getName());
+        assertTrue(instances.get(0).getClass().getClassLoader() != instances.get(1).getClass().getClassLoader());
+        assertSame(snapshot, registry.snapshot());
+    }
+
+    @Test
+    public void refreshOnlyRereadsChangedJars() throws IOException {
+        jar("a.jar", FIRST);
+        jar("b.jar", SECOND);
+        ClassLoader a = loaderOf(registry.refresh(), 0);
+        ClassLoader b = loaderOf(registry.snapshot(), 1);
+
+        jar("b.jar", FIRST);
+        PluginRegistry.Snapshot snapshot = registry.refresh();
+
+        assertSame(a, loaderOf(snapshot, 0));
+        assertTrue(b != loaderOf(snapshot, 1));
+        assertEquals(Arrays.asList(FIRST, FIRST), snapshot.providerNames(Runnable.class.getName()));
+
+        Files.delete(directory.resolve("a.jar"));
+        snapshot = registry.refresh();
+        assertEquals(Collections.singletonList(directory.resolve("b.jar")), snapshot.plugins());
+    }
+
+    @Test
+    public void oldLoaderStaysOpenWhileASnapshotUsesIt() throws Exception {
+        jar("a.jar", FIRST);
+        PluginRegistry.Snapshot old = registry.refresh();
+        ClassLoader loader = loaderOf(old, 0);
+
+        Files.delete(directory.resolve("a.jar"));
+        assertTrue(registry.refresh().plugins().isEmpty());
+
+        // 旧快照还能从被删除的 jar 中加载没有加载过的类
+        assertEquals(FIRST, old.newInstances(Runnable.class).get(0).getClass().getName());
+        assertSame(loader, loader.loadClass(SECOND).getClassLoader());
+        assertNotNull(loader.getResource(SERVICE));
+
+        WeakReference<PluginRegistry.Snapshot> collected = new WeakReference<>(old);
+        old = null;
+        for (int i = 0; i < 50 && loader.getResource(SERVICE) != null; i++) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(20);
+            registry.refresh();
+        }
+        assertNull(collected.get());
+        assertNull(loader.getResource(SERVICE));
+    }
+
+    @Test
+    public void closeClosesAllLoaders() throws IOException {
+        jar("a.jar", FIRST);
+        PluginRegistry.Snapshot old = registry.refresh();
+        ClassLoader replaced = loaderOf(old, 0);
+        jar("a.jar", SECOND);
+        ClassLoader current = loaderOf(registry.refresh(), 0);
+
+        registry.close();
+
+        assertNull(replaced.getResource(SERVICE));
+        assertNull(current.getResource(SERVICE));
+        assertEquals(0, registry.snapshot().plugins().size());
+    }
+
+    @Test
+    public void closedRegistryCannotBeRefreshedOrStarted() throws IOException {
+        jar("a.jar", FIRST);
+        registry.close();
+
+        try {
+            registry.refresh();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            registry.start();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(0, registry.snapshot().plugins().size());
+        // 重复关闭没有影响
+        registry.close();
+    }
+
+    @Test
+    public void watcherPicksUpNewJars() throws IOException, InterruptedException {
+        registry.start();
+        Path staging = temporaryFolder.newFolder().toPath().resolve("a.jar");
+        write(staging, FIRST);
+        Files.move(staging, directory.resolve("a.jar"), StandardCopyOption.ATOMIC_MOVE);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (registry.snapshot().plugins().isEmpty() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        assertEquals(Collections.singletonList(FIRST),
+                registry.snapshot().providerNames(Runnable.class.getName()));
+    }
+
+    private static ClassLoader loaderOf(PluginRegistry.Snapshot snapshot, int index) {
+        return snapshot.newInstances(Runnable.class).get(index).getClass().getClassLoader();
+    }
+
+    private void jar(String name, String... providers) throws IOException {
+        Path jar = directory.resolve(name);
+        long previous = Files.exists(jar) ? Files.getLastModifiedTime(jar).toMillis() : 0;
+        write(jar, providers);
+        // 文件系统的时间精度可能只有一秒，保证修改时间变化
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(Math.max(System.currentTimeMillis(), previous + 1000)));
+    }
+
+    private static void write(Path jar, String... providers) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            zip.putNextEntry(new ZipEntry(SERVICE));
+            zip.write((String.join("\n", providers) + "\n").getBytes(StandardCharsets.UTF_8));
+            for (Class<?> provider : Arrays.asList(First.class, Second.class)) {
+                String entry = provider.getName().replace('.', '/') + ".class";
+                zip.putNextEntry(new ZipEntry(entry));
+                try (InputStream input = PluginRegistryTest.class.getClassLoader().getResourceAsStream(entry)) {
+                    copy(input, zip);
+                }
+            }
+        }
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+    }
+
+    public static class First implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+
+    public static class Second implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+}
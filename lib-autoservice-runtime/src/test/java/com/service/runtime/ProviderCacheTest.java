@@ -0,0 +1,142 @@
+package com.service.runtime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class ProviderCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private URLClassLoader loader;
+
+    @Before
+    public void setUp() throws IOException {
+        File dir = temporaryFolder.newFolder();
+        ServicesTest.write(dir, ServiceConfigs.PREFIX + Alpha.class.getName(), AlphaImpl.class.getName());
+        ServicesTest.write(dir, ServiceConfigs.PREFIX + Beta.class.getName(), BetaImpl.class.getName());
+        ServicesTest.write(dir, ServiceConfigs.PREFIX + Gamma.class.getName(), GammaImpl.class.getName());
+        loader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Services.clear(loader);
+        loader.close();
+    }
+
+    @Test
+    public void hitsReturnTheSameInstances() {
+        ProviderCache cache = new ProviderCache(loader, 4, ProviderCache.ReferenceType.STRONG, 0, TimeUnit.SECONDS);
+
+        List<Alpha> alphas = cache.get(Alpha.class);
+        assertEquals(1, alphas.size());
+        assertTrue(alphas.get(0) instanceof AlphaImpl);
+        assertSame(alphas, cache.get(Alpha.class));
+
+        ProviderCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(0, stats.evictionCount());
+        assertEquals(1, stats.size());
+        assertEquals(0.5, stats.hitRate(), 0);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverCapacity() {
+        ProviderCache cache = new ProviderCache(loader, 2, ProviderCache.ReferenceType.STRONG, 0, TimeUnit.SECONDS);
+
+        List<Alpha> alphas = cache.get(Alpha.class);
+        List<Beta> betas = cache.get(Beta.class);
+        cache.get(Alpha.class);
+        cache.get(Gamma.class);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.stats().evictionCount());
+        assertSame(alphas, cache.get(Alpha.class));
+        assertNotSame(betas, cache.get(Beta.class));
+    }
+
+    @Test
+    public void evictsIdleEntries() throws InterruptedException {
+        ProviderCache cache = new ProviderCache(loader, 4, ProviderCache.ReferenceType.STRONG, 1,
+                TimeUnit.MILLISECONDS);
+
+        List<Alpha> alphas = cache.get(Alpha.class);
+        Thread.sleep(20);
+
+        assertNotSame(alphas, cache.get(Alpha.class));
+        assertEquals(1, cache.stats().evictionCount());
+        assertEquals(2, cache.stats().missCount());
+    }
+
+    @Test
+    public void cleanUpDropsCollectedEntries() throws InterruptedException {
+        ProviderCache cache = new ProviderCache(loader, 4, ProviderCache.ReferenceType.WEAK, 0, TimeUnit.SECONDS);
+        cache.get(Alpha.class);
+
+        for (int i = 0; i < 50 && cache.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            cache.cleanUp();
+        }
+
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.stats().evictionCount());
+    }
+
+    @Test
+    public void invalidate() {
+        ProviderCache cache = new ProviderCache(loader, 4);
+        List<Alpha> alphas = cache.get(Alpha.class);
+        cache.get(Beta.class);
+
+        cache.invalidate(Alpha.class);
+        assertEquals(1, cache.size());
+        assertNotSame(alphas, cache.get(Alpha.class));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCapacity() {
+        new ProviderCache(loader, 0);
+    }
+
+    public interface Alpha {
+    }
+
+    public interface Beta {
+    }
+
+    public interface Gamma {
+    }
+
+    public static class AlphaImpl implements Alpha {
+    }
+
+    public static class BetaImpl implements Beta {
+    }
+
+    public static class GammaImpl implements Gamma {
+    }
+}
@@ -0,0 +1,106 @@
+package com.service.runtime;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class ProviderInitializerTest {
+
+    private final List<String> created = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void layersRunInOrderAndResultsFollowRank() {
+        ProviderInitializer.Plan plan = new ProviderInitializer.Plan(Arrays.asList(
+                Arrays.asList(step(2, "c", Runnable.class), step(0, "a", Runnable.class, Object.class)),
+                Collections.singletonList(step(1, "b", Runnable.class))));
+        assertEquals(3, plan.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ProviderInitializer.Initialized initialized = ProviderInitializer.initialize(plan, executor).join();
+
+            assertEquals("b", created.get(2));
+            assertEquals(Arrays.asList("a", "b", "c"), names(initialized.get(Runnable.class)));
+            assertEquals(Collections.singletonList("a"), names(initialized.get(Object.class)));
+            assertTrue(initialized.get(String.class).isEmpty());
+            assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(initialized.durations().keySet()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void failureStopsLaterLayers() {
+        ProviderInitializer.Plan plan = new ProviderInitializer.Plan(Arrays.asList(
+                Arrays.asList(step(0, "a", Runnable.class), step(1, "broken", Runnable.class)),
+                Collections.singletonList(step(2, "c", Runnable.class))));
+
+        try {
+            ProviderInitializer.initialize(plan, Runnable::run).join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof ServiceConfigurationError);
+            assertEquals("Provider broken could not be initialized", e.getCause().getMessage());
+        }
+        assertEquals(Collections.singletonList("a"), created);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateRanksAreRejected() {
+        new ProviderInitializer.Plan(Collections.singletonList(
+                Arrays.asList(step(0, "a", Runnable.class), step(0, "b", Runnable.class))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ranksMustCoverThePlan() {
+        new ProviderInitializer.Plan(Collections.singletonList(Collections.singletonList(step(1, "a"))));
+    }
+
+    private ProviderInitializer.Step step(int rank, final String name, Class<?>... services) {
+        return new ProviderInitializer.Step(rank, name, services) {
+            @Override
+            protected Object create() {
+                if (name.equals("broken")) {
+                    throw new IllegalStateException(name);
+                }
+                created.add(name);
+                return new Named(name);
+            }
+        };
+    }
+
+    private static List<String> names(List<?> instances) {
+        List<String> names = new ArrayList<>();
+        for (Object instance : instances) {
+            names.add(((Named) instance).name);
+        }
+        return names;
+    }
+
+    private static final class Named implements Runnable {
+        final String name;
+
+        Named(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+}
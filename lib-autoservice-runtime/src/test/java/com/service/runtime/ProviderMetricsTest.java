@@ -0,0 +1,136 @@
+package com.service.runtime;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class ProviderMetricsTest {
+
+    @Test
+    public void registerReturnsTheSameStatsForAName() {
+        ProviderStats stats = ProviderMetrics.register("t.Same", "run()");
+        assertSame(stats, ProviderMetrics.register("t.Same", "run()"));
+    }
+
+    @Test
+    public void differentMethodListsGetTheirOwnStats() {
+        // 另一个 ClassLoader 加载了同名但方法更多的版本
+        ProviderStats first = ProviderMetrics.register("t.Versioned", "run()");
+        ProviderStats second = ProviderMetrics.register("t.Versioned", "run()", "stop()");
+        assertNotSame(first, second);
+        second.method(1).record(10);
+        first.method(0).record(20);
+
+        List<MetricsSnapshot.Provider> providers = new ArrayList<>();
+        for (MetricsSnapshot.Provider provider : ProviderMetrics.snapshot().providers()) {
+            if (provider.name().equals("t.Versioned")) {
+                providers.add(provider);
+            }
+        }
+        assertEquals(2, providers.size());
+        assertEquals(20, providers.get(0).methods().get(0).totalNanos());
+        assertEquals("stop()", providers.get(1).methods().get(1).name());
+        assertEquals(10, providers.get(1).methods().get(1).totalNanos());
+    }
+
+    @Test
+    public void snapshotIsDetachedFromLaterCalls() {
+        ProviderStats stats = ProviderMetrics.register("t.Detached", "run()");
+        stats.instantiated(100);
+        stats.method(0).record(10);
+        MetricsSnapshot.Provider before = find(ProviderMetrics.snapshot(), "t.Detached");
+
+        stats.instantiated(300);
+        stats.method(0).record(20);
+        stats.method(0).failed();
+
+        assertEquals(1, before.instances());
+        assertEquals(1, before.methods().get(0).calls());
+        MetricsSnapshot.Provider after = find(ProviderMetrics.snapshot(), "t.Detached");
+        assertEquals(2, after.instances());
+        assertEquals(400, after.instantiationNanos());
+        assertEquals(300, after.maxInstantiationNanos());
+        MetricsSnapshot.Method method = after.methods().get(0);
+        assertEquals("run()", method.name());
+        assertEquals(2, method.calls());
+        assertEquals(1, method.failures());
+        assertEquals(30, method.totalNanos());
+        assertEquals(15, method.meanNanos());
+        assertEquals(20, method.maxNanos());
+    }
+
+    @Test
+    public void histogramUsesPowerOfTwoBuckets() {
+        assertEquals(0, ProviderStats.MethodStats.bucket(0));
+        assertEquals(1, ProviderStats.MethodStats.bucket(1));
+        assertEquals(2, ProviderStats.MethodStats.bucket(2));
+        assertEquals(2, ProviderStats.MethodStats.bucket(3));
+        assertEquals(11, ProviderStats.MethodStats.bucket(1024));
+        assertEquals(ProviderStats.MethodStats.BUCKETS - 1, ProviderStats.MethodStats.bucket(Long.MAX_VALUE));
+
+        ProviderStats stats = ProviderMetrics.register("t.Histogram", "run()");
+        for (int i = 0; i < 99; i++) {
+            stats.method(0).record(3);
+        }
+        stats.method(0).record(1000);
+        MetricsSnapshot.Method method = find(ProviderMetrics.snapshot(), "t.Histogram").methods().get(0);
+        long[] expected = new long[ProviderStats.MethodStats.BUCKETS];
+        expected[2] = 99;
+        expected[10] = 1;
+        assertArrayEquals(expected, method.histogram());
+        assertEquals(4, method.percentileNanos(0.5));
+        assertEquals(4, method.percentileNanos(0.99));
+        assertEquals(1000, method.percentileNanos(1));
+    }
+
+    @Test
+    public void resetKeepsRegisteredProviders() {
+        ProviderStats stats = ProviderMetrics.register("t.Reset", "run()");
+        stats.instantiated(5);
+        stats.method(0).record(5);
+
+        ProviderMetrics.reset();
+
+        MetricsSnapshot.Provider provider = find(ProviderMetrics.snapshot(), "t.Reset");
+        assertEquals(0, provider.instances());
+        assertEquals(0, provider.methods().get(0).calls());
+        assertEquals(0, provider.methods().get(0).maxNanos());
+    }
+
+    @Test
+    public void writesJson() throws IOException {
+        ProviderStats stats = ProviderMetrics.register("t.Json\"Quoted", "run(java.lang.String)");
+        stats.instantiated(7);
+        stats.method(0).record(1);
+        StringWriter writer = new StringWriter();
+
+        ProviderMetrics.snapshot().writeJson(writer);
+
+        String json = writer.toString();
+        assertTrue(json, json.contains("{\"name\": \"t.Json\\\"Quoted\", \"instances\": 1, "
+                + "\"instantiationNanos\": 7, \"maxInstantiationNanos\": 7, \"methods\": ["));
+        assertTrue(json, json.contains("{\"name\": \"run(java.lang.String)\", \"calls\": 1, \"failures\": 0, "
+                + "\"totalNanos\": 1, \"maxNanos\": 1, \"p50Nanos\": 1, \"p99Nanos\": 1, \"histogram\": [0, 1, 0"));
+    }
+
+    private static MetricsSnapshot.Provider find(MetricsSnapshot snapshot, String name) {
+        for (MetricsSnapshot.Provider provider : snapshot.providers()) {
+            if (provider.name().equals(name)) {
+                return provider;
+            }
+        }
+        throw new AssertionError(name + " not in " + snapshot.providers());
+    }
+}
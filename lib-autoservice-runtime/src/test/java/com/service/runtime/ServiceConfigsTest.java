@@ -0,0 +1,57 @@
+package com.service.runtime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class ServiceConfigsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void parseReadsOrderComments() throws IOException {
+        Map<String, Integer> names = new LinkedHashMap<>();
+        ServiceConfigs.parse(new ByteArrayInputStream(("t.A # order=-5\n"
+                + "  t.B  \n"
+                + "# comment\n"
+                + "t.C # order=x\n"
+                + "t.A # order=7\n").getBytes(StandardCharsets.UTF_8)), names);
+
+        Map<String, Integer> expected = new LinkedHashMap<>();
+        expected.put("t.A", -5);
+        expected.put("t.B", 0);
+        expected.put("t.C", 0);
+        assertEquals(expected, names);
+    }
+
+    @Test
+    public void providerNamesMergesFilesAndSortsStably() throws IOException {
+        File first = temporaryFolder.newFolder();
+        ServicesTest.write(first, ServiceConfigs.PREFIX + "t.Service", "t.Z", "t.Late # order=3", "t.Y");
+        File second = temporaryFolder.newFolder();
+        ServicesTest.write(second, ServiceConfigs.PREFIX + "t.Service", "t.Early # order=-1", "t.Z # order=9", "t.X");
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{first.toURI().toURL(), second.toURI().toURL()},
+                null)) {
+            // order 相同的保持 classpath 顺序，重复的实现类保留第一次出现时的 order
+            assertEquals(Arrays.asList("t.Early", "t.Z", "t.Y", "t.X", "t.Late"),
+                    ServiceConfigs.providerNames("t.Service", loader));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.service.runtime;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class ServicesTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<URLClassLoader> loaders = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (URLClassLoader loader : loaders) {
+            Services.clear(loader);
+            loader.close();
+        }
+    }
+
+    @Test
+    public void getCachesInstancesSortedByOrder() throws IOException {
+        File dir = temporaryFolder.newFolder();
+        writeServiceFile(dir, Second.class.getName() + " # order=1", First.class.getName());
+        ClassLoader loader = loader(dir, getClass().getClassLoader());
+
+        List<Greeter> greeters = Services.get(Greeter.class, loader);
+        assertEquals(Arrays.asList(First.class.getName(), Second.class.getName()),
+                Services.providerNames(Greeter.class, loader));
+        assertEquals(First.class, greeters.get(0).getClass());
+        assertEquals(Second.class, greeters.get(1).getClass());
+        assertSame(greeters, Services.get(Greeter.class, loader));
+
+        List<Greeter> loaded = Services.load(Greeter.class, loader);
+        assertEquals(2, loaded.size());
+        assertNotSame(greeters.get(0), loaded.get(0));
+    }
+
+    @Test
+    public void clearDropsCachedInstances() throws IOException {
+        File dir = temporaryFolder.newFolder();
+        writeServiceFile(dir, First.class.getName());
+        ClassLoader loader = loader(dir, getClass().getClassLoader());
+
+        List<Greeter> greeters = Services.get(Greeter.class, loader);
+        Services.clear(loader);
+        assertNotSame(greeters, Services.get(Greeter.class, loader));
+    }
+
+    @Test
+    public void childLoaderDoesNotUseParentIndex() throws IOException {
+        File parentDir = temporaryFolder.newFolder();
+        writeServiceFile(parentDir, First.class.getName());
+        // 索引里多一个只在索引中出现的名字，用来区分结果来自索引还是扫描
+        write(parentDir, ServiceIndex.INDEX_FILE, "[" + Greeter.class.getName() + "]",
+                First.class.getName(), "t.OnlyInIndex");
+        File childDir = temporaryFolder.newFolder();
+        writeServiceFile(childDir, Second.class.getName());
+        ClassLoader parent = loader(parentDir, getClass().getClassLoader());
+        ClassLoader child = loader(childDir, parent);
+
+        assertEquals(Arrays.asList(First.class.getName(), "t.OnlyInIndex"),
+                Services.providerNames(Greeter.class, parent));
+        assertEquals(Arrays.asList(First.class.getName(), Second.class.getName()),
+                Services.providerNames(Greeter.class, child));
+    }
+
+    private URLClassLoader loader(File dir, ClassLoader parent) throws IOException {
+        URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, parent);
+        loaders.add(loader);
+        return loader;
+    }
+
+    static void writeServiceFile(File dir, String... lines) throws IOException {
+        write(dir, ServiceConfigs.PREFIX + Greeter.class.getName(), lines);
+    }
+
+    static void write(File dir, String path, String... lines) throws IOException {
+        Path file = dir.toPath().resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    public interface Greeter {
+        String greet();
+    }
+
+    public static class First implements Greeter {
+        @Override
+        public String greet() {
+            return "first";
+        }
+    }
+
+    public static class Second implements Greeter {
+        @Override
+        public String greet() {
+            return "second";
+        }
+    }
+}
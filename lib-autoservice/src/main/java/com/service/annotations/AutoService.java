@@ -6,11 +6,67 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
+ * 标注在实现类上，或者标注在 public static 无参工厂方法上。
+ * <p>
+ * 工厂方法的返回类型必须实现 value 中的接口，注册类直接调用它获取实例，可以返回预先创建好的对象或者池里的对象。
+ * ServiceLoader 不能调用工厂方法，所以工厂方法只出现在设置了模块名时生成的注册类、分发类里，
+ * 不写入 META-INF/services 和索引。实例的生命周期由工厂方法决定，不能设置 lazy 和 scope。
+ *
  * @author dengxiaoqiu
  */
 @Retention(RetentionPolicy.CLASS)
-@Target(ElementType.TYPE)
+@Target({ElementType.TYPE, ElementType.METHOD})
 public @interface AutoService {
 
     Class<?>[] value();
+
+    /**
+     * 排序值，越小越靠前，相同时按类名排序。
+     * 生成的 service 文件和注册类都按这个顺序输出，调用方找到第一个匹配的实现类就可以停止加载。
+     */
+    int order() default 0;
+
+    /**
+     * 为 true 时生成的注册类返回 &lt;实现类&gt;_LazyHandle，第一次调用接口方法时才加载并创建实现类，
+     * 启动时不会触发实现类的类加载和静态初始化。META-INF/services 中仍然是实现类本身。
+     * 所有实现类都需要延迟加载时可以改用处理器参数 autoservice.lazy=true。
+     */
+    boolean lazy() default false;
+
+    /**
+     * 这个实现类处理的 key。设置了模块名时会为每个接口生成 &lt;接口&gt;_Dispatcher_&lt;module&gt;，
+     * 调用 get(key) 直接拿到对应的实现类；同一个接口下 key 重复时编译报错。
+     */
+    String[] keys() default {};
+
+    /**
+     * 和 {@link #keys()} 一样，只是 key 为 int，连续的 key 分发时按下标跳转。
+     */
+    int[] intKeys() default {};
+
+    /**
+     * 实例的生命周期。非 PROTOTYPE 时生成 &lt;实现类&gt;_Holder，注册类和分发类都从 holder 取实例；
+     * META-INF/services 不受影响。
+     */
+    Scope scope() default Scope.PROTOTYPE;
+
+    /**
+     * 编译期条件，按处理器参数决定这个实现类是否参与本次编译的输出，例如 {"flavor=prod", "buildType!=release"}
+     * 对应 -Aautoservice.flavor / -Aautoservice.buildType。条件不满足时不写入 service 文件、索引和注册类，
+     * 也不生成任何辅助类，调用方在运行时不会加载到它。
+     * <p>
+     * 写法：key=value（| 分隔多个值）、key!=value、key（参数设置了并且不是 false）、!key；
+     * key 不带 . 时自动加上 autoservice. 前缀。多个条件必须全部满足，参数没有设置时 key=value 不满足。
+     */
+    String[] conditions() default {};
+
+    /**
+     * 创建这个实现类之前必须先创建好的接口，这些接口在本模块的所有实现类都会排在它前面。
+     * 设置了模块名时注册类会生成按依赖分层的 initPlan()，交给 com.service.runtime.ProviderInitializer
+     * 逐层并行创建；依赖出现环时编译报错。
+     * <p>
+     * 只有 holder 中的实例（scope = SINGLETON）会和 get() 共享，依赖的实现类是 PROTOTYPE 时计划里创建的实例
+     * 只在 Initialized 里，get() 仍然返回新实例；是 THREAD 时不在计划里。这两种情况编译时都会给出警告。
+     */
+    Class<?>[] dependsOn() default {};
 }
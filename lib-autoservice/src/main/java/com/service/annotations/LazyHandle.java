@@ -0,0 +1,29 @@
+package com.service.annotations;
+
+/**
+ * {@link AutoService#lazy()} 生成的延迟加载句柄都实现这个接口，可以在不触发类加载的情况下读取实现类的信息。
+ *
+ * @author dengxiaoqiu
+ */
+public interface LazyHandle {
+
+    /**
+     * @return 实现类的 binary name
+     */
+    String providerName();
+
+    /**
+     * @return {@link AutoService#order()} 的值
+     */
+    int providerOrder();
+
+    /**
+     * @return 实现类是否已经创建
+     */
+    boolean isProviderLoaded();
+
+    /**
+     * 返回实现类的实例，还没有创建时立即创建。
+     */
+    Object provider();
+}
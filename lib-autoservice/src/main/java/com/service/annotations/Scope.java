@@ -0,0 +1,24 @@
+package com.service.annotations;
+
+/**
+ * {@link AutoService#scope()} 的取值，决定生成的注册类、分发类每次返回的实现类实例。
+ *
+ * @author dengxiaoqiu
+ */
+public enum Scope {
+
+    /**
+     * 整个进程共用一个实例，第一次使用时才创建（initialization-on-demand holder）。
+     */
+    SINGLETON,
+
+    /**
+     * 每次获取都创建新实例，和 ServiceLoader 一致。
+     */
+    PROTOTYPE,
+
+    /**
+     * 每个线程一个实例，保存在 ThreadLocal 里，适合有状态又不想加锁的实现类。
+     */
+    THREAD
+}
@@ -1,33 +1,52 @@
 package com.service.processor;
 
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
+import com.google.common.collect.TreeMultimap;
 import com.service.annotations.AutoService;
+import com.service.annotations.Scope;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.JavaFile;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
+import java.util.TreeSet;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.AnnotationMirror;
-import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.Element;
-import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
-import javax.lang.model.type.TypeMirror;
-import javax.lang.model.util.SimpleAnnotationValueVisitor8;
-import javax.lang.model.util.Types;
 import javax.tools.Diagnostic.Kind;
 import javax.tools.FileObject;
 import javax.tools.StandardLocation;
@@ -39,16 +58,142 @@ public class AutoServiceProcessor extends AbstractProcessor {
 
     static final String MISSING_SERVICES_ERROR = "No service interfaces provided for element!";
 
+    /**
+     * 模块名，设置后会额外生成 AutoServiceRegistry_&lt;module&gt; 注册类。
+     */
+    static final String OPTION_MODULE = "autoservice.module";
+    /**
+     * 注册类所在的包名，默认是 {@link RegistryGenerator#DEFAULT_PACKAGE}。
+     */
+    static final String OPTION_REGISTRY_PACKAGE = "autoservice.registryPackage";
+    /**
+     * 依赖的 jar / 目录列表（用 File.pathSeparator 分隔），设置后会把这些依赖里的 service 文件和本模块的
+     * 合并成一个 {@link ServiceIndexes#INDEX_FILE}，一般只在 app 模块设置。
+     */
+    static final String OPTION_AGGREGATE = "autoservice.aggregate";
+    /**
+     * 设置为 true 时额外生成二进制索引 {@link BinaryIndexWriter#INDEX_FILE}，内容和合并后的文本索引相同，
+     * 需要同时设置 {@link #OPTION_AGGREGATE}，否则给出警告并忽略。
+     */
+    static final String OPTION_BINARY_INDEX = "autoservice.binaryIndex";
+    /**
+     * 开启处理器自身的耗时统计，值为 JSON 报告的输出路径；不带值或者为 true 时写到 CLASS_OUTPUT 所在的
+     * build 目录下的 reports/autoservice/{@link #METRICS_FILE}，找不到 build 目录时写在 CLASS_OUTPUT 旁边。
+     * 报告不会写进 CLASS_OUTPUT 或 SOURCE_OUTPUT，避免被打包或者当作源码编译。
+     */
+    static final String OPTION_METRICS = "autoservice.metrics";
+
+    static final String METRICS_FILE = "autoservice-metrics.json";
+    /**
+     * 设置为 true 时所有实现类都按 {@link AutoService#lazy()} 处理。
+     */
+    static final String OPTION_LAZY = "autoservice.lazy";
+    /**
+     * 设置为 true 时为每个接口生成 &lt;接口&gt;_Invoker_&lt;module&gt;，需要同时设置 {@link #OPTION_MODULE}。
+     */
+    static final String OPTION_INVOKER = "autoservice.invoker";
+    /**
+     * 设置为 true 时为每个实现类生成 &lt;实现类&gt;_Instrumented 统计包装类，需要依赖 lib-autoservice-runtime。
+     */
+    static final String OPTION_INSTRUMENT = "autoservice.instrument";
+    /**
+     * 构建变体的 flavor 和 buildType，供 {@link AutoService#conditions()} 使用；
+     * 条件里的其它 autoservice.* 参数也可以传，只是 javac 会提示没有处理器声明它。
+     */
+    static final String OPTION_FLAVOR = "autoservice.flavor";
+    static final String OPTION_BUILD_TYPE = "autoservice.buildType";
+    /**
+     * 设置为 true 时生成 GraalVM native-image 需要的 reflect-config.json 和 resource-config.json，
+     * 需要同时设置 {@link #OPTION_MODULE}，见 {@link NativeImageConfigs}。
+     */
+    static final String OPTION_NATIVE_IMAGE = "autoservice.nativeImage";
+
     /**
      * Multimap 的特点，在Multimap内部，一个key其实是对应一个Collection集合的。
      */
     private Multimap<String, String> mProviders = HashMultimap.create();
 
+    /**
+     * key 为接口的 binary name，value 为标注了 AutoService 的工厂方法，格式见 {@link ProviderInfo#binaryName}。
+     * 工厂方法只进注册类，不写入 service 文件和索引。
+     */
+    private final Multimap<String, String> mFactories = HashMultimap.create();
+
+    /**
+     * key 为实现类的 binary name，生成注册类时使用。
+     */
+    private final Map<String, ProviderInfo> mProviderInfos = new HashMap<>();
+
+    /**
+     * 生成注册类时的实现类个数，-1 表示还没有生成。
+     */
+    private int mRegistryProviderCount = -1;
+
+    /**
+     * key 为接口的 binary name，value 为对应实现类的 Element。
+     * 创建文件时作为 originating elements 传给 Filer，Gradle 增量编译靠它建立源文件和生成文件的对应关系。
+     */
+    private final Multimap<String, Element> mOriginatingElements = HashMultimap.create();
+
+    /**
+     * key 为接口的 binary name，value 为 AutoService#keys() / intKeys() 到实现类的映射，用来检查重复的 key。
+     * String key 和 int key 分别以 String 和 Integer 保存，互不冲突。
+     */
+    private final Map<String, Map<Object, String>> mKeys = new HashMap<>();
+
+    /**
+     * key 为接口的 binary name，生成分发类时使用。
+     */
+    private final Map<String, ClassName> mServiceNames = new HashMap<>();
+
+    private ProcessorMetrics mMetrics = new ProcessorMetrics(false);
+
+    private SymbolCache mSymbols;
+
+    private boolean mDebug;
+
+    private ProviderVerifier mVerifier;
+
+    /**
+     * 默认开启，-Averify=false 时关闭。
+     */
+    private boolean mVerify;
+
+    private boolean mLazy;
+
+    private boolean mInvoker;
+
+    private boolean mInstrument;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        mMetrics = new ProcessorMetrics(processingEnv.getOptions().containsKey(OPTION_METRICS));
+        mSymbols = new SymbolCache(processingEnv.getElementUtils());
+        mDebug = processingEnv.getOptions().containsKey("debug");
+        mVerifier = new ProviderVerifier(processingEnv.getTypeUtils());
+        mVerify = !"false".equalsIgnoreCase(processingEnv.getOptions().get("verify"));
+        mLazy = Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_LAZY));
+        mInvoker = Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_INVOKER));
+        mInstrument = Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_INSTRUMENT));
+    }
+
     @Override
     public ImmutableSet<String> getSupportedAnnotationTypes() {
+        if (isAggregating()) {
+            // 合并索引时即使本模块没有 @AutoService 也要运行
+            return ImmutableSet.of("*");
+        }
         return ImmutableSet.of(AutoService.class.getName());
     }
 
+    @Override
+    public ImmutableSet<String> getSupportedOptions() {
+        return ImmutableSet.of("debug", "verify", OPTION_MODULE, OPTION_REGISTRY_PACKAGE, OPTION_AGGREGATE,
+                OPTION_BINARY_INDEX, OPTION_METRICS, OPTION_LAZY, OPTION_INVOKER,
+                OPTION_INSTRUMENT, OPTION_FLAVOR, OPTION_BUILD_TYPE, OPTION_NATIVE_IMAGE);
+    }
+
     @Override
     public SourceVersion getSupportedSourceVersion() {
         return SourceVersion.latestSupported();
@@ -56,6 +201,9 @@ public class AutoServiceProcessor extends AbstractProcessor {
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        mMetrics.beginRound(roundEnv.processingOver());
+        mSymbols.reset();
+        mVerifier.reset();
         try {
             return processImpl(annotations, roundEnv);
         } catch (Exception e) {
@@ -63,154 +211,1031 @@ public class AutoServiceProcessor extends AbstractProcessor {
             e.printStackTrace(new PrintWriter(writer));
             fatalError(writer.toString());
             return true;
+        } finally {
+            mMetrics.endRound();
+            if (roundEnv.processingOver()) {
+                writeMetrics();
+            }
         }
     }
 
     private boolean processImpl(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
         if (roundEnv.processingOver()) {
-            generateConfigFiles();
+            long start = mMetrics.start();
+            checkDependencies();
+            mMetrics.endPhase("checkDependencies", start);
+            start = mMetrics.start();
+            Map<String, Map<String, Integer>> serviceFiles = generateConfigFiles();
+            mMetrics.endPhase("generateConfigFiles", start);
+            start = mMetrics.start();
+            generateServiceIndex(serviceFiles);
+            mMetrics.endPhase("generateServiceIndex", start);
+            start = mMetrics.start();
+            generateNativeImageConfigs(serviceFiles);
+            mMetrics.endPhase("generateNativeImageConfigs", start);
         } else {
+            long start = mMetrics.start();
             processAnnotations(annotations, roundEnv);
+            mMetrics.endPhase("processAnnotations", start);
+            // 最后一轮生成的源文件虽然会被编译，但同一模块里引用它的源文件无法解析，所以注册类在处理注解的这一轮生成
+            if (!mProviders.isEmpty() || !mFactories.isEmpty()) {
+                start = mMetrics.start();
+                generateRegistry();
+                mMetrics.endPhase("generateRegistry", start);
+            }
         }
-        return true;
+        // 支持 "*" 时不能占用其它注解，否则后面的处理器就收不到了
+        return !isAggregating();
+    }
+
+    private boolean isAggregating() {
+        return processingEnv != null && processingEnv.getOptions().containsKey(OPTION_AGGREGATE);
     }
 
     private void processAnnotations(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
         Set<? extends Element> elements = roundEnv.getElementsAnnotatedWith(AutoService.class);
 
-        log(annotations.toString());
-        log(elements.toString());
+        if (mDebug) {
+            log(annotations.toString());
+            log(elements.toString());
+        }
 
         // 2.遍历被注解 AutoService 修饰的类
         for (Element e : elements) {
             // TODO(gak): check for error trees?
+            if (e.getKind() == ElementKind.METHOD) {
+                mMetrics.elementProcessed();
+                processFactory((ExecutableElement) e);
+                continue;
+            }
             TypeElement providerImplementer = (TypeElement) e;
+            mMetrics.elementProcessed();
             // 3.获取被修饰的类中的注解。
-            AnnotationMirror annotationMirror = AnnotationUtils.getAnnotationMirror(e, AutoService.class);
+            AnnotationMirror annotationMirror = mSymbols.getAutoService(e);
+            if (annotationMirror == null) {
+                continue;
+            }
             // 4.第3步中获取到的注解中获取 value 值的信息。
-            Set<DeclaredType> providerInterfaces = getValueFieldOfClasses(annotationMirror);
+            Set<DeclaredType> providerInterfaces = mSymbols.getValue(annotationMirror);
+            int order = mSymbols.getOrder(annotationMirror);
             if (providerInterfaces.isEmpty()) {
                 error(MISSING_SERVICES_ERROR, e, annotationMirror);
                 continue;
             }
+            if (!checkConditions(providerImplementer, annotationMirror)) {
+                continue;
+            }
+            if (!checkInstantiable(providerImplementer, annotationMirror)) {
+                continue;
+            }
+            String implementerName = getBinaryName(providerImplementer);
+            List<String> keys = mSymbols.getKeys(annotationMirror);
+            List<Integer> intKeys = mSymbols.getIntKeys(annotationMirror);
+            List<String> dependsOn = new ArrayList<>();
+            for (DeclaredType dependency : mSymbols.getDependsOn(annotationMirror)) {
+                dependsOn.add(getBinaryName(AnnotationUtils.asTypeElement(dependency)));
+            }
+            boolean registered = false;
+            boolean valid = true;
             // 5.遍历在注解value字段中赋值的接口信息。
             for (DeclaredType providerInterface : providerInterfaces) {
                 TypeElement providerType = AnnotationUtils.asTypeElement(providerInterface);
 
-                log("provider interface: " + providerType.getQualifiedName());
-                log("provider implementer: " + providerImplementer.getQualifiedName());
+                if (mDebug) {
+                    log("provider interface: " + providerType.getQualifiedName());
+                    log("provider implementer: " + providerImplementer.getQualifiedName());
+                }
                 // 6.判断该子类跟注解中value里存的接口类型是否一致。
                 if (checkImplementer(providerImplementer, providerType)) {
                     // 7.该子类是 AutoService.value 中接口的子类，就存放到 providers 集合中。
                     // 将数据写入文件时，会从 providers 取数据。
-                    mProviders.put(getBinaryName(providerType), getBinaryName(providerImplementer));
+                    String interfaceName = getBinaryName(providerType);
+                    mProviders.put(interfaceName, implementerName);
+                    mMetrics.providerRegistered(interfaceName);
+                    mOriginatingElements.put(interfaceName, e);
+                    mServiceNames.put(interfaceName, ClassName.get(providerType));
+                    registered = true;
+                    if (!keys.isEmpty() || !intKeys.isEmpty()) {
+                        checkKeys(interfaceName, implementerName, keys, intKeys, e, annotationMirror);
+                    }
                 } else {
                     String message = "ServiceProviders must implement their service provider interface. "
                             + providerImplementer.getQualifiedName() + " does not implement "
                             + providerType.getQualifiedName();
                     error(message, e, annotationMirror);
+                    valid = false;
+                }
+            }
+            if (registered && !mProviderInfos.containsKey(implementerName)) {
+                ClassName instrumented = null;
+                if (valid && mInstrument) {
+                    instrumented = generateInstrumented(providerImplementer, implementerName, providerInterfaces,
+                            annotationMirror);
+                }
+                ClassName lazyHandle = null;
+                if (valid && (mLazy || mSymbols.getLazy(annotationMirror))) {
+                    lazyHandle = generateLazyHandle(providerImplementer, implementerName, order, providerInterfaces,
+                            instrumented, annotationMirror);
                 }
+                Scope scope = mSymbols.getScope(annotationMirror);
+                ClassName holder = null;
+                if (valid && scope != Scope.PROTOTYPE) {
+                    ClassName created = lazyHandle != null ? lazyHandle
+                            : instrumented != null ? instrumented : ClassName.get(providerImplementer);
+                    holder = generateHolder(providerImplementer, implementerName, scope, created);
+                }
+                mProviderInfos.put(implementerName, new ProviderInfo(implementerName,
+                        ClassName.get(providerImplementer), null, mVerifier.isInstantiable(providerImplementer),
+                        order, lazyHandle, instrumented, scope, holder, keys, intKeys, dependsOn));
+            }
+        }
+    }
+
+    /**
+     * 处理标注在工厂方法上的 AutoService：检查方法签名和返回类型，只记录到 {@link #mFactories}，
+     * 不生成句柄、包装类和 holder，生成的代码直接调用工厂方法。
+     */
+    private void processFactory(ExecutableElement factory) {
+        AnnotationMirror annotationMirror = mSymbols.getAutoService(factory);
+        if (annotationMirror == null) {
+            return;
+        }
+        Set<DeclaredType> providerInterfaces = mSymbols.getValue(annotationMirror);
+        if (providerInterfaces.isEmpty()) {
+            error(MISSING_SERVICES_ERROR, factory, annotationMirror);
+            return;
+        }
+        if (!checkConditions(factory, annotationMirror)) {
+            return;
+        }
+        String problem = mVerifier.checkFactory(factory);
+        if (problem == null && mSymbols.getLazy(annotationMirror)) {
+            problem = "AutoService factory methods cannot be lazy, the factory decides when instances are created";
+        }
+        if (problem == null && mSymbols.getScope(annotationMirror) != Scope.PROTOTYPE) {
+            problem = "AutoService factory methods cannot declare a scope, "
+                    + "the factory decides which instance to return";
+        }
+        if (problem != null) {
+            error(problem, factory, annotationMirror);
+            return;
+        }
+        TypeElement owner = (TypeElement) factory.getEnclosingElement();
+        String factoryName = getBinaryName(owner) + "#" + factory.getSimpleName();
+        TypeElement returnType = AnnotationUtils.asTypeElement((DeclaredType) factory.getReturnType());
+        List<String> keys = mSymbols.getKeys(annotationMirror);
+        List<Integer> intKeys = mSymbols.getIntKeys(annotationMirror);
+        List<String> dependsOn = new ArrayList<>();
+        for (DeclaredType dependency : mSymbols.getDependsOn(annotationMirror)) {
+            dependsOn.add(getBinaryName(AnnotationUtils.asTypeElement(dependency)));
+        }
+        boolean registered = false;
+        for (DeclaredType providerInterface : providerInterfaces) {
+            TypeElement providerType = AnnotationUtils.asTypeElement(providerInterface);
+            // 返回类型决定了生成代码里能不能把实例当作接口使用，所以不受 -Averify=false 影响
+            if (!mVerifier.isSubtype(returnType, providerType)) {
+                error("AutoService factory methods must return a subtype of their service provider interface. "
+                        + owner.getQualifiedName() + "." + factory.getSimpleName() + "() returns "
+                        + returnType.getQualifiedName() + ", which does not implement "
+                        + providerType.getQualifiedName(), factory, annotationMirror);
+                continue;
+            }
+            String interfaceName = getBinaryName(providerType);
+            mFactories.put(interfaceName, factoryName);
+            mMetrics.providerRegistered(interfaceName);
+            mOriginatingElements.put(interfaceName, owner);
+            mServiceNames.put(interfaceName, ClassName.get(providerType));
+            registered = true;
+            if (!keys.isEmpty() || !intKeys.isEmpty()) {
+                checkKeys(interfaceName, factoryName, keys, intKeys, factory, annotationMirror);
+            }
+        }
+        if (registered && !mProviderInfos.containsKey(factoryName)) {
+            mProviderInfos.put(factoryName, new ProviderInfo(factoryName, ClassName.get(owner),
+                    factory.getSimpleName().toString(), true, mSymbols.getOrder(annotationMirror), null, null,
+                    Scope.PROTOTYPE, null, keys, intKeys, dependsOn));
+        }
+    }
+
+    /**
+     * @return 注册类里的全部实现类，包括只进注册类的工厂方法
+     */
+    private Multimap<String, String> registryProviders() {
+        if (mFactories.isEmpty()) {
+            return mProviders;
+        }
+        Multimap<String, String> providers = HashMultimap.create(mProviders);
+        providers.putAll(mFactories);
+        return providers;
+    }
+
+    /**
+     * 检查 {@link AutoService#conditions()}：格式错误时编译报错，不满足时跳过这个实现类，
+     * 它不会出现在 service 文件、索引和注册类里。
+     *
+     * @return 条件全部满足时返回 true
+     */
+    private boolean checkConditions(Element providerImplementer, AnnotationMirror annotationMirror) {
+        List<String> conditions = mSymbols.getConditions(annotationMirror);
+        if (conditions.isEmpty()) {
+            return true;
+        }
+        for (String condition : conditions) {
+            String problem = Conditions.check(condition);
+            if (problem != null) {
+                error(problem, providerImplementer, annotationMirror);
+                return false;
+            }
+        }
+        if (Conditions.matches(conditions, processingEnv.getOptions())) {
+            return true;
+        }
+        if (mDebug) {
+            log("Skipping " + providerImplementer + ": conditions " + conditions + " not met");
+        }
+        return false;
+    }
+
+    /**
+     * 同一个接口下每个 key 只能对应一个实现类，重复时编译报错。
+     */
+    private void checkKeys(String interfaceName, String implementerName, List<String> keys, List<Integer> intKeys,
+                           Element element, AnnotationMirror annotationMirror) {
+        Map<Object, String> registeredKeys = mKeys.get(interfaceName);
+        if (registeredKeys == null) {
+            registeredKeys = new HashMap<>();
+            mKeys.put(interfaceName, registeredKeys);
+        }
+        List<Object> allKeys = new ArrayList<>(keys.size() + intKeys.size());
+        allKeys.addAll(keys);
+        allKeys.addAll(intKeys);
+        for (Object key : allKeys) {
+            String previous = registeredKeys.put(key, implementerName);
+            if (previous != null) {
+                String label = key instanceof String ? "\"" + key + "\"" : String.valueOf(key);
+                error("Duplicate key " + label + " for " + interfaceName + ": "
+                        + (previous.equals(implementerName) ? "declared twice by " + implementerName
+                        : "already handled by " + previous), element, annotationMirror);
+            }
+        }
+    }
+
+    /**
+     * 生成 &lt;实现类&gt;_LazyHandle，和实现类在同一轮生成，originating element 只有实现类本身。
+     *
+     * @return 句柄类名，不能生成句柄时返回 null，注册类直接创建实现类
+     */
+    private ClassName generateLazyHandle(TypeElement providerImplementer, String implementerName, int order,
+                                         Set<DeclaredType> providerInterfaces, ClassName instrumented,
+                                         AnnotationMirror annotationMirror) {
+        if (!mVerifier.isInstantiable(providerImplementer)) {
+            return null;
+        }
+        for (DeclaredType providerInterface : providerInterfaces) {
+            if (providerInterface.asElement().getKind() != ElementKind.INTERFACE) {
+                warning("Lazy loading is ignored for " + providerImplementer.getQualifiedName() + ": "
+                        + providerInterface + " is not an interface", providerImplementer, annotationMirror);
+                return null;
+            }
+        }
+        try {
+            JavaFile handle = LazyHandleGenerator.generate(providerImplementer, implementerName, order,
+                    providerInterfaces, instrumented != null ? instrumented : ClassName.get(providerImplementer),
+                    processingEnv.getElementUtils(), processingEnv.getTypeUtils());
+            handle.writeTo(processingEnv.getFiler());
+            mMetrics.sourceWritten();
+            if (mDebug) {
+                log("Wrote lazy handle: " + handle.packageName + "." + handle.typeSpec.name);
+            }
+            return ClassName.get(handle.packageName, handle.typeSpec.name);
+        } catch (IOException ex) {
+            fatalError("Unable to create lazy handle for " + implementerName + ", " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * 生成 &lt;实现类&gt;_Holder，不能直接创建的实现类不生成。
+     *
+     * @return holder 类名，不能生成时返回 null，注册类直接创建实例
+     */
+    private ClassName generateHolder(TypeElement providerImplementer, String implementerName, Scope scope,
+                                     ClassName created) {
+        if (!mVerifier.isInstantiable(providerImplementer)) {
+            return null;
+        }
+        try {
+            JavaFile holder = HolderGenerator.generate(providerImplementer, scope, created);
+            holder.writeTo(processingEnv.getFiler());
+            mMetrics.sourceWritten();
+            if (mDebug) {
+                log("Wrote " + scope + " holder: " + holder.packageName + "." + holder.typeSpec.name);
+            }
+            return ClassName.get(holder.packageName, holder.typeSpec.name);
+        } catch (IOException ex) {
+            fatalError("Unable to create holder for " + implementerName + ", " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * 生成 &lt;实现类&gt;_Instrumented。运行时库不在 classpath 上时给出一次警告并关闭统计。
+     *
+     * @return 包装类名，不能生成时返回 null，注册类直接创建实现类
+     */
+    private ClassName generateInstrumented(TypeElement providerImplementer, String implementerName,
+                                           Set<DeclaredType> providerInterfaces, AnnotationMirror annotationMirror) {
+        if (!mVerifier.isInstantiable(providerImplementer)) {
+            return null;
+        }
+        if (processingEnv.getElementUtils().getTypeElement(InstrumentedGenerator.PROVIDER_METRICS.canonicalName())
+                == null) {
+            processingEnv.getMessager().printMessage(Kind.WARNING, OPTION_INSTRUMENT + " is ignored: "
+                    + InstrumentedGenerator.PROVIDER_METRICS + " is not on the classpath, add lib-autoservice-runtime.");
+            mInstrument = false;
+            return null;
+        }
+        for (DeclaredType providerInterface : providerInterfaces) {
+            if (providerInterface.asElement().getKind() != ElementKind.INTERFACE) {
+                warning("Instrumentation is ignored for " + providerImplementer.getQualifiedName() + ": "
+                        + providerInterface + " is not an interface", providerImplementer, annotationMirror);
+                return null;
+            }
+        }
+        try {
+            JavaFile wrapper = InstrumentedGenerator.generate(providerImplementer, implementerName,
+                    providerInterfaces, processingEnv.getElementUtils(), processingEnv.getTypeUtils());
+            wrapper.writeTo(processingEnv.getFiler());
+            mMetrics.sourceWritten();
+            if (mDebug) {
+                log("Wrote instrumented wrapper: " + wrapper.packageName + "." + wrapper.typeSpec.name);
             }
+            return ClassName.get(wrapper.packageName, wrapper.typeSpec.name);
+        } catch (IOException ex) {
+            fatalError("Unable to create instrumented wrapper for " + implementerName + ", " + ex);
+            return null;
         }
     }
 
-    private void generateConfigFiles() {
+    /**
+     * @return 每个接口最终的 service 文件内容，key 为接口，value 为实现类和 order
+     */
+    private Map<String, Map<String, Integer>> generateConfigFiles() {
         Filer filer = processingEnv.getFiler();
+        Map<String, Map<String, Integer>> serviceFiles = new HashMap<>();
 
-        for (String providerInterface : mProviders.keySet()) {
+        // 增量编译时实现类可能不再声明某个接口，之前写过的 service 文件也要重新合并；手写的 service 文件不动
+        Map<String, Set<String>> generated = readGeneratedEntries();
+        Map<String, Map<String, Integer>> generatedNow = new HashMap<>();
+        Set<String> providerInterfaces = new TreeSet<>(mProviders.keySet());
+        providerInterfaces.addAll(generated.keySet());
+        for (String providerInterface : providerInterfaces) {
             String resourceFile = "META-INF/services/" + providerInterface;
-            log("Working on resource file: " + resourceFile);
+            if (mDebug) {
+                log("Working on resource file: " + resourceFile);
+            }
             try {
-                SortedSet<String> allServices = Sets.newTreeSet();
+                // key 为实现类，value 为 order
+                Map<String, Integer> oldServices = new HashMap<>();
+                // 旧文件的摘要，null 表示文件不存在
+                byte[] oldHash = null;
+                FileObject existingFile = null;
                 try {
-                    FileObject existingFile = filer.getResource(StandardLocation.CLASS_OUTPUT, "", resourceFile);
-                    log("Looking for existing resource file at " + existingFile.toUri());
-                    Set<String> oldServices = ServicesFiles.readServiceFile(existingFile.openInputStream());
-                    log("Existing service entries: " + oldServices);
-                    allServices.addAll(oldServices);
+                    existingFile = filer.getResource(StandardLocation.CLASS_OUTPUT, "", resourceFile);
+                    if (mDebug) {
+                        log("Looking for existing resource file at " + existingFile.toUri());
+                    }
+                    DigestInputStream input = new DigestInputStream(
+                            mMetrics.countReads(existingFile.openInputStream()), ServicesFiles.newDigest());
+                    oldServices = ServicesFiles.readServiceFileWithOrders(input);
+                    oldHash = input.getMessageDigest().digest();
+                    if (mDebug) {
+                        log("Existing service entries: " + oldServices.keySet());
+                    }
                 } catch (IOException e) {
                     log("Resource file did not already exist.");
                 }
 
-                Set<String> newServices = new HashSet<String>(mProviders.get(providerInterface));
-                if (allServices.containsAll(newServices)) {
-                    log("No new service entries being added.");
-                    return;
+                Set<String> previous = generated.containsKey(providerInterface)
+                        ? generated.get(providerInterface) : Collections.<String>emptySet();
+                Map<String, Integer> allServices = new HashMap<>();
+                Map<String, Integer> ownServices = new HashMap<>();
+                for (Map.Entry<String, Integer> oldService : oldServices.entrySet()) {
+                    boolean own = previous.contains(oldService.getKey());
+                    if (isStale(providerInterface, oldService.getKey(), own)) {
+                        if (mDebug) {
+                            log("Removing stale service entry: " + oldService.getKey());
+                        }
+                    } else {
+                        allServices.put(oldService.getKey(), oldService.getValue());
+                        if (own) {
+                            ownServices.put(oldService.getKey(), oldService.getValue());
+                        }
+                    }
+                }
+                for (String provider : mProviders.get(providerInterface)) {
+                    allServices.put(provider, mProviderInfos.get(provider).order);
+                    ownServices.put(provider, mProviderInfos.get(provider).order);
+                }
+                if (!ownServices.isEmpty()) {
+                    generatedNow.put(providerInterface, ownServices);
+                }
+                if (allServices.isEmpty()) {
+                    // 条目全部过期时删除文件，不留下空的 service 文件
+                    if (oldHash != null) {
+                        deleteResource(existingFile);
+                    }
+                    continue;
                 }
+                serviceFiles.put(providerInterface, allServices);
 
-                allServices.addAll(newServices);
-                log("New service file contents: " + allServices);
-                FileObject fileObject = filer.createResource(StandardLocation.CLASS_OUTPUT, "", resourceFile);
-                OutputStream out = fileObject.openOutputStream();
-                ServicesFiles.writeServiceFile(allServices, out);
-                out.close();
-                log("Wrote to: " + fileObject.toUri());
+                if (mDebug) {
+                    log("New service file contents: " + ServicesFiles.sortByOrder(allServices));
+                }
+                // 只是这个接口不需要重新写时，其它接口还要继续处理
+                writeResource(resourceFile, ServicesFiles.toByteArray(allServices), oldHash,
+                        mOriginatingElements.get(providerInterface).toArray(new Element[0]));
             } catch (IOException e) {
                 fatalError("Unable to create " + resourceFile + ", " + e);
+                return serviceFiles;
+            }
+        }
+        writeGeneratedEntries(generatedNow, !generated.isEmpty());
+        return serviceFiles;
+    }
+
+    /**
+     * @return 上一次编译记录在 {@link ServiceIndexes#GENERATED_FILE} 里的条目，没有记录时返回空 Map
+     */
+    private Map<String, Set<String>> readGeneratedEntries() {
+        try {
+            FileObject file = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", ServiceIndexes.GENERATED_FILE);
+            return ServiceIndexes.readIndex(mMetrics.countReads(file.openInputStream()));
+        } catch (IOException | IllegalArgumentException e) {
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * 记录这次写进 service 文件的条目，下一次增量编译据此区分处理器生成的条目和手写的条目。
+     *
+     * @param existed 上一次编译留下了记录文件
+     */
+    private void writeGeneratedEntries(Map<String, Map<String, Integer>> entries, boolean existed) {
+        String resourceFile = ServiceIndexes.GENERATED_FILE;
+        try {
+            if (entries.isEmpty()) {
+                if (existed) {
+                    deleteResource(processingEnv.getFiler()
+                            .getResource(StandardLocation.CLASS_OUTPUT, "", resourceFile));
+                }
                 return;
             }
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            ServiceIndexes.writeIndex(entries, content);
+            writeResource(resourceFile, content.toByteArray(), hashExistingResource(resourceFile),
+                    mOriginatingElements.values().toArray(new Element[0]));
+        } catch (IOException | IllegalArgumentException e) {
+            fatalError("Unable to create " + resourceFile + ", " + e);
         }
     }
 
-    private boolean checkImplementer(TypeElement providerImplementer, TypeElement providerType) {
-        String verify = processingEnv.getOptions().get("verify");
-        if (verify == null || !Boolean.valueOf(verify)) {
-            return true;
+    /**
+     * Filer 不支持删除 CLASS_OUTPUT 中的文件，本地文件系统上直接删除；删除失败时保留原文件。
+     */
+    private void deleteResource(FileObject file) {
+        try {
+            if ("file".equals(file.toUri().getScheme())) {
+                Files.deleteIfExists(Paths.get(file.toUri()));
+                log("Deleted: " + file.toUri());
+                return;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // 保留原文件
         }
+        log("Unable to delete " + file.toUri());
+    }
 
-        Types types = processingEnv.getTypeUtils();
-        return types.isSubtype(providerImplementer.asType(), providerType.asType());
+    /**
+     * 把本模块的 service 文件和 {@link #OPTION_AGGREGATE} 中所有依赖的 service 文件合并成一个索引，
+     * 运行时读取一次这个资源即可，不需要逐个扫描 classpath 上的 jar。本模块的实现类排在最前面。
+     * 开启 {@link #OPTION_BINARY_INDEX} 时同样的内容再写一份二进制格式，不合并时不生成二进制索引。
+     */
+    private void generateServiceIndex(Map<String, Map<String, Integer>> serviceFiles) {
+        boolean binary = Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_BINARY_INDEX));
+        if (binary && !isAggregating()) {
+            // 不合并依赖的二进制索引运行时用不上，每个模块都生成还会在打包时互相覆盖
+            processingEnv.getMessager().printMessage(Kind.WARNING, OPTION_BINARY_INDEX + " is ignored: set "
+                    + OPTION_AGGREGATE + " in the module that aggregates its dependencies.");
+            return;
+        }
+        if (!isAggregating()) {
+            return;
+        }
+        Map<String, Map<String, Integer>> index = new HashMap<>();
+        for (Map.Entry<String, Map<String, Integer>> serviceFile : serviceFiles.entrySet()) {
+            Map<String, Integer> providers = new LinkedHashMap<>();
+            for (String provider : ServicesFiles.sortByOrder(serviceFile.getValue())) {
+                providers.put(provider, serviceFile.getValue().get(provider));
+            }
+            ServiceIndexes.merge(index, serviceFile.getKey(), providers);
+        }
+        // -Aautoservice.aggregate 不带值时只合并本模块
+        String classpath = Strings.nullToEmpty(processingEnv.getOptions().get(OPTION_AGGREGATE));
+        List<File> entries = new ArrayList<>();
+        for (String path : Splitter.on(File.pathSeparatorChar).omitEmptyStrings().trimResults().split(classpath)) {
+            entries.add(new File(path));
+        }
+        try {
+            ServiceIndexes.readClasspath(entries, index);
+            if (mDebug) {
+                log("Aggregated service index: " + index.keySet());
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            ServiceIndexes.writeIndex(index, content);
+            writeResource(ServiceIndexes.INDEX_FILE, content.toByteArray(),
+                    hashExistingResource(ServiceIndexes.INDEX_FILE),
+                    mOriginatingElements.values().toArray(new Element[0]));
+        } catch (IOException e) {
+            fatalError("Unable to create " + ServiceIndexes.INDEX_FILE + ", " + e);
+            return;
+        }
+        if (binary) {
+            Map<String, Map<String, Integer>> sorted = new HashMap<>();
+            for (Map.Entry<String, Map<String, Integer>> service : index.entrySet()) {
+                sorted.put(service.getKey(), ServiceIndexes.sortByOrder(service.getValue()));
+            }
+            try {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                BinaryIndexWriter.write(sorted, true, content);
+                writeResource(BinaryIndexWriter.INDEX_FILE, content.toByteArray(),
+                        hashExistingResource(BinaryIndexWriter.INDEX_FILE),
+                        mOriginatingElements.values().toArray(new Element[0]));
+            } catch (IOException e) {
+                fatalError("Unable to create " + BinaryIndexWriter.INDEX_FILE + ", " + e);
+            }
+        }
     }
 
     /**
-     * 这个方法会对有些特殊的文件名做一些处理。
-     * 如：com.google.Foo$Bar 会替换成 com.google.Foo.Bar
+     * 按 {@link #OPTION_NATIVE_IMAGE} 生成 native-image 配置，内容和写入的 service 文件一致，
+     * 增量编译时保留下来的旧条目也包括在内。目录按模块名区分，多个模块的配置打进同一个镜像时不会互相覆盖。
      */
-    private String getBinaryName(TypeElement element) {
-        return getBinaryNameImpl(element, element.getSimpleName().toString());
+    private void generateNativeImageConfigs(Map<String, Map<String, Integer>> serviceFiles) {
+        if (!Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_NATIVE_IMAGE))) {
+            return;
+        }
+        String module = processingEnv.getOptions().get(OPTION_MODULE);
+        if (module == null || module.isEmpty()) {
+            processingEnv.getMessager().printMessage(Kind.WARNING, OPTION_NATIVE_IMAGE + " is ignored: set "
+                    + OPTION_MODULE + " to name the META-INF/native-image directory.");
+            return;
+        }
+        List<String> resources = new ArrayList<>();
+        for (String providerInterface : serviceFiles.keySet()) {
+            resources.add(ServiceIndexes.SERVICES_DIR + providerInterface);
+        }
+        if (isAggregating()) {
+            resources.add(ServiceIndexes.INDEX_FILE);
+        }
+        if (isAggregating() && Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_BINARY_INDEX))) {
+            resources.add(BinaryIndexWriter.INDEX_FILE);
+        }
+        String dir = NativeImageConfigs.configDir(module);
+        Element[] originatingElements = mOriginatingElements.values().toArray(new Element[0]);
+        String resourceFile = dir + NativeImageConfigs.REFLECT_CONFIG;
+        try {
+            writeResource(resourceFile, NativeImageConfigs.reflectConfig(serviceFiles),
+                    hashExistingResource(resourceFile), originatingElements);
+            resourceFile = dir + NativeImageConfigs.RESOURCE_CONFIG;
+            writeResource(resourceFile, NativeImageConfigs.resourceConfig(resources),
+                    hashExistingResource(resourceFile), originatingElements);
+        } catch (IOException e) {
+            fatalError("Unable to create " + resourceFile + ", " + e);
+        }
     }
 
-    private String getBinaryNameImpl(TypeElement element, String className) {
-        Element enclosingElement = element.getEnclosingElement();
+    /**
+     * 写入 CLASS_OUTPUT。内容和已有文件的摘要相同时不调用 createResource，文件保持不变，
+     * 下游的 Gradle / dex 任务可以保持 UP-TO-DATE，输出也可以安全地放进远程构建缓存。
+     *
+     * @param oldHash 已有文件的摘要，null 表示文件不存在
+     */
+    private void writeResource(String resourceFile, byte[] content, byte[] oldHash, Element[] originatingElements)
+            throws IOException {
+        if (oldHash != null && MessageDigest.isEqual(oldHash, ServicesFiles.newDigest().digest(content))) {
+            log("Unchanged: " + resourceFile);
+            return;
+        }
+        FileObject fileObject = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                resourceFile, originatingElements);
+        try (OutputStream out = mMetrics.countWrites(fileObject.openOutputStream())) {
+            out.write(content);
+        }
+        if (mDebug) {
+            log("Wrote to: " + fileObject.toUri());
+        }
+    }
 
-        if (enclosingElement instanceof PackageElement) {
-            PackageElement pkg = (PackageElement) enclosingElement;
-            if (pkg.isUnnamed()) {
-                return className;
+    /**
+     * @return CLASS_OUTPUT 中已有文件的摘要，文件不存在时返回 null
+     */
+    private byte[] hashExistingResource(String resourceFile) {
+        try {
+            FileObject existingFile = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", resourceFile);
+            MessageDigest digest = ServicesFiles.newDigest();
+            try (InputStream input = mMetrics.countReads(existingFile.openInputStream())) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            return digest.digest();
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 生成 AutoServiceRegistry_&lt;module&gt;，只有设置了 {@link #OPTION_MODULE} 才会生成，
+     * 避免多个模块生成同名的类。在第一次处理到实现类的那一轮生成，同一模块的源文件可以直接引用。
+     */
+    private void generateRegistry() {
+        Multimap<String, String> providers = registryProviders();
+        String module = processingEnv.getOptions().get(OPTION_MODULE);
+        if (module == null || module.isEmpty()) {
+            if (mRegistryProviderCount < 0) {
+                if (!mKeys.isEmpty()) {
+                    processingEnv.getMessager().printMessage(Kind.WARNING,
+                            "AutoService keys are ignored: set " + OPTION_MODULE + " to generate dispatchers.");
+                }
+                if (!mFactories.isEmpty()) {
+                    processingEnv.getMessager().printMessage(Kind.WARNING, "AutoService factory methods are ignored: "
+                            + "set " + OPTION_MODULE + " to generate the registry, ServiceLoader cannot call them.");
+                }
+                if (!mKeys.isEmpty() || !mFactories.isEmpty()) {
+                    mRegistryProviderCount = providers.size();
+                }
             }
-            return pkg.getQualifiedName() + "." + className;
+            return;
+        }
+        if (mRegistryProviderCount >= 0) {
+            // 同一个类不能生成两次，后面几轮由其它处理器生成的实现类只能写进 service 文件
+            if (providers.size() != mRegistryProviderCount) {
+                processingEnv.getMessager().printMessage(Kind.WARNING, "Providers generated by other annotation "
+                        + "processors after the first round are not included in the registry, "
+                        + "they are only listed in META-INF/services.");
+                mRegistryProviderCount = providers.size();
+            }
+            return;
+        }
+        mRegistryProviderCount = providers.size();
+        String packageName = processingEnv.getOptions().get(OPTION_REGISTRY_PACKAGE);
+        if (packageName == null || packageName.isEmpty()) {
+            packageName = RegistryGenerator.DEFAULT_PACKAGE;
+        }
+        String className = RegistryGenerator.registryClassName(module);
+        for (ProviderInfo info : mProviderInfos.values()) {
+            if (mDebug && !info.instantiable) {
+                log("Skipping " + info.binaryName + " in " + className
+                        + ": not a public class with a public no-arg constructor.");
+            }
+        }
+        try {
+            RegistryGenerator.generate(packageName, className, providers, mProviderInfos, initLayers(providers),
+                    providerServices(providers), new HashSet<>(mOriginatingElements.values()))
+                    .writeTo(processingEnv.getFiler());
+            mMetrics.sourceWritten();
+            log("Wrote registry: " + packageName + "." + className);
+        } catch (IOException e) {
+            fatalError("Unable to create " + packageName + "." + className + ", " + e);
+            return;
+        }
+        generateDispatchers(packageName, module, providers);
+        if (mInvoker) {
+            generateInvokers(packageName, ClassName.get(packageName, className), module, providers);
         }
+    }
 
-        TypeElement typeElement = (TypeElement) enclosingElement;
-        return getBinaryNameImpl(typeElement, typeElement.getSimpleName() + "$" + className);
+    /**
+     * 检查 {@link AutoService#dependsOn()} 有没有环，有环时在环上的第一个实现类上报错；
+     * 依赖的实现类是 THREAD 或 PROTOTYPE 时给出警告，见 {@link #warnUnsharedDependencies}。
+     * 在最后一轮检查，后面几轮生成的实现类也包括在内。
+     */
+    private void checkDependencies() {
+        Map<String, Set<String>> dependencies = InitPlanGenerator.dependencies(registryProviders(), mProviderInfos);
+        List<String> cycle = InitPlanGenerator.findCycle(dependencies,
+                InitPlanGenerator.layers(dependencies, mProviderInfos));
+        if (cycle == null) {
+            warnUnsharedDependencies(dependencies);
+            return;
+        }
+        String message = "AutoService dependsOn contains a cycle: " + String.join(" -> ", cycle);
+        TypeElement type = processingEnv.getElementUtils().getTypeElement(cycle.get(0).replace('$', '.'));
+        if (type != null) {
+            error(message, type, mSymbols.getAutoService(type));
+        } else {
+            processingEnv.getMessager().printMessage(Kind.ERROR, message);
+        }
     }
 
-    private ImmutableSet<DeclaredType> getValueFieldOfClasses(AnnotationMirror annotationMirror) {
-        return AnnotationUtils.getAnnotationValue(annotationMirror, "value")
-                .accept(
-                        new SimpleAnnotationValueVisitor8<ImmutableSet<DeclaredType>, Void>() {
-                            @Override
-                            public ImmutableSet<DeclaredType> visitType(TypeMirror typeMirror, Void v) {
-                                return ImmutableSet.of(AnnotationUtils.asDeclared(typeMirror));
-                            }
+    /**
+     * initPlan() 只有从 holder 取的实例才和 get() 共享：THREAD 的实现类不在计划里，不会提前创建；
+     * PROTOTYPE 的实现类计划里创建的实例只在 Initialized 里，get() 和依赖它的实现类拿到的都是新实例。
+     * 工厂方法的生命周期由方法自己决定，不检查。
+     */
+    private void warnUnsharedDependencies(Map<String, Set<String>> dependencies) {
+        for (String provider : new TreeSet<>(dependencies.keySet())) {
+            ProviderInfo info = mProviderInfos.get(provider);
+            if (info.scope == Scope.THREAD) {
+                continue;
+            }
+            for (String dependency : dependencies.get(provider)) {
+                ProviderInfo required = mProviderInfos.get(dependency);
+                String message;
+                if (required.scope == Scope.THREAD) {
+                    message = "AutoService dependsOn of " + info.binaryName + " includes THREAD provider "
+                            + dependency + ", which initPlan() does not create; each thread creates its own instance"
+                            + " on first use.";
+                } else if (required.scope == Scope.PROTOTYPE && required.factoryMethod == null
+                        && required.instantiable) {
+                    message = "AutoService dependsOn of " + info.binaryName + " includes PROTOTYPE provider "
+                            + dependency + ", whose initPlan() instance is not shared with get(); use scope = SINGLETON"
+                            + " to initialize it ahead of use.";
+                } else {
+                    continue;
+                }
+                TypeElement type = processingEnv.getElementUtils().getTypeElement(info.binaryName.replace('$', '.'));
+                if (type != null) {
+                    warning(message, type, mSymbols.getAutoService(type));
+                } else {
+                    processingEnv.getMessager().printMessage(Kind.WARNING, message);
+                }
+            }
+        }
+    }
 
-                            @Override
-                            public ImmutableSet<DeclaredType> visitArray(List<? extends AnnotationValue> values, Void v) {
-                                return values
-                                        .stream()
-                                        .flatMap(value -> value.accept(this, null).stream())
-                                        .collect(ImmutableSet.toImmutableSet());
-                            }
-                        },
-                        null);
+    /**
+     * 注册类的 initPlan() 依赖运行时库，运行时库不在 classpath 上时不生成，声明了 dependsOn 时给出警告。
+     *
+     * @return 按依赖分层的实现类；不生成 initPlan() 或者依赖有环时返回 null，环在最后一轮报错
+     */
+    private List<List<String>> initLayers(Multimap<String, String> providers) {
+        if (processingEnv.getElementUtils().getTypeElement(InitPlanGenerator.PROVIDER_INITIALIZER.canonicalName())
+                == null) {
+            for (ProviderInfo info : mProviderInfos.values()) {
+                if (!info.dependsOn.isEmpty()) {
+                    processingEnv.getMessager().printMessage(Kind.WARNING, "AutoService dependsOn is ignored: "
+                            + InitPlanGenerator.PROVIDER_INITIALIZER
+                            + " is not on the classpath, add lib-autoservice-runtime.");
+                    break;
+                }
+            }
+            return null;
+        }
+        return InitPlanGenerator.layers(InitPlanGenerator.dependencies(providers, mProviderInfos), mProviderInfos);
     }
 
+    /**
+     * @return key 为实现类的 binary name，value 为它注册的接口，按类名排序
+     */
+    private Multimap<String, ClassName> providerServices(Multimap<String, String> providers) {
+        Multimap<String, ClassName> services = TreeMultimap.create();
+        for (Map.Entry<String, String> entry : providers.entries()) {
+            ClassName service = mServiceNames.get(entry.getKey());
+            if (service != null) {
+                services.put(entry.getValue(), service);
+            }
+        }
+        return services;
+    }
+
+    /**
+     * 为声明了 key 的接口生成 &lt;接口&gt;_Dispatcher_&lt;module&gt;，和注册类放在同一个包里。
+     */
+    private void generateDispatchers(String packageName, String module, Multimap<String, String> providers) {
+        for (String providerInterface : new TreeSet<>(mKeys.keySet())) {
+            List<ProviderInfo> keyed = new ArrayList<>();
+            for (String provider : new TreeSet<>(providers.get(providerInterface))) {
+                ProviderInfo info = mProviderInfos.get(provider);
+                if (info != null && info.instantiable && info.hasKeys()) {
+                    keyed.add(info);
+                }
+            }
+            if (keyed.isEmpty()) {
+                continue;
+            }
+            ClassName service = mServiceNames.get(providerInterface);
+            String className = DispatcherGenerator.dispatcherClassName(service, module);
+            try {
+                DispatcherGenerator.generate(packageName, className, service, keyed,
+                        mOriginatingElements.get(providerInterface))
+                        .writeTo(processingEnv.getFiler());
+                mMetrics.sourceWritten();
+                log("Wrote dispatcher: " + packageName + "." + className);
+            } catch (IOException e) {
+                fatalError("Unable to create " + packageName + "." + className + ", " + e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 为注册类里有实现类的接口生成 &lt;接口&gt;_Invoker_&lt;module&gt;，不支持的接口只在 debug 时输出原因。
+     */
+    private void generateInvokers(String packageName, ClassName registry, String module,
+                                  Multimap<String, String> providers) {
+        for (String providerInterface : new TreeSet<>(providers.keySet())) {
+            boolean instantiable = false;
+            InvokerGenerator.Instances instances = InvokerGenerator.Instances.SHARED;
+            for (String provider : providers.get(providerInterface)) {
+                ProviderInfo info = mProviderInfos.get(provider);
+                if (info != null && info.instantiable) {
+                    instantiable = true;
+                    if (info.factoryMethod != null || info.holder == null) {
+                        // 注册类每次都会调用工厂方法或者 new 一个实例，调用类也不能缓存
+                        instances = InvokerGenerator.Instances.PER_CALL;
+                    } else if (info.scope == Scope.THREAD && instances == InvokerGenerator.Instances.SHARED) {
+                        instances = InvokerGenerator.Instances.PER_THREAD;
+                    }
+                }
+            }
+            ClassName service = mServiceNames.get(providerInterface);
+            if (!instantiable || service == null) {
+                continue;
+            }
+            TypeElement serviceElement = processingEnv.getElementUtils().getTypeElement(service.canonicalName());
+            String problem = serviceElement == null ? "not found" : InvokerGenerator.checkSupported(serviceElement);
+            if (problem != null) {
+                log("Skipping invoker for " + providerInterface + ": " + problem);
+                continue;
+            }
+            String className = InvokerGenerator.invokerClassName(service, module);
+            try {
+                JavaFile invoker = InvokerGenerator.generate(packageName, className, registry, serviceElement,
+                        instances, mOriginatingElements.get(providerInterface), processingEnv.getElementUtils(),
+                        processingEnv.getTypeUtils());
+                if (invoker == null) {
+                    log("Skipping invoker for " + providerInterface + ": no abstract methods to invoke");
+                    continue;
+                }
+                invoker.writeTo(processingEnv.getFiler());
+                mMetrics.sourceWritten();
+                log("Wrote invoker: " + packageName + "." + className);
+            } catch (IOException e) {
+                fatalError("Unable to create " + packageName + "." + className + ", " + e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 判断 CLASS_OUTPUT 中旧 service 文件里的条目是否已经过期，只有两种条目可能过期：
+     * 现在带有 AutoService 的类，以注解为准，不满足条件或者不再声明这个接口时过期；
+     * 处理器之前写入的条目，类已经删除或者去掉了注解时过期。其它条目是手写的
+     * （例如 Maven 在编译前把 resources 复制进 CLASS_OUTPUT），原样保留。
+     * 增量编译时只有部分源文件参与编译，没有参与编译且仍然有效的条目需要保留。
+     *
+     * @param generated 条目是处理器之前写入的
+     */
+    private boolean isStale(String providerInterface, String provider, boolean generated) {
+        if (mProviders.containsEntry(providerInterface, provider)) {
+            return false;
+        }
+        TypeElement type = processingEnv.getElementUtils().getTypeElement(provider.replace('$', '.'));
+        if (type == null) {
+            // 不在 classpath 上时再看 CLASS_OUTPUT 里有没有对应的 class 文件
+            return generated && !classFileExists(provider);
+        }
+        AnnotationMirror annotationMirror = mSymbols.getAutoService(type);
+        if (annotationMirror == null) {
+            return generated;
+        }
+        List<String> conditions = mSymbols.getConditions(annotationMirror);
+        if (!conditions.isEmpty() && !Conditions.matches(conditions, processingEnv.getOptions())) {
+            return true;
+        }
+        for (DeclaredType declaredInterface : mSymbols.getValue(annotationMirror)) {
+            if (getBinaryName(AnnotationUtils.asTypeElement(declaredInterface)).equals(providerInterface)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean classFileExists(String binaryName) {
+        int lastDot = binaryName.lastIndexOf('.');
+        String packageName = lastDot < 0 ? "" : binaryName.substring(0, lastDot);
+        String fileName = binaryName.substring(lastDot + 1) + ".class";
+        try {
+            FileObject classFile = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, packageName, fileName);
+            classFile.openInputStream().close();
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean checkImplementer(TypeElement providerImplementer, TypeElement providerType) {
+        if (!mVerify) {
+            return true;
+        }
+
+        long start = mMetrics.start();
+        boolean implemented = mVerifier.isSubtype(providerImplementer, providerType);
+        mMetrics.endVerification(start);
+        return implemented;
+    }
+
+    /**
+     * 实现类必须是 public 的具体类，嵌套类必须是 static 的，并且要有 public 无参构造方法，
+     * 否则 ServiceLoader 和生成的注册类都无法创建它。
+     */
+    private boolean checkInstantiable(TypeElement providerImplementer, AnnotationMirror annotationMirror) {
+        if (!mVerify) {
+            return true;
+        }
+        long start = mMetrics.start();
+        String problem = mVerifier.checkInstantiable(providerImplementer);
+        mMetrics.endVerification(start);
+        if (problem != null) {
+            error(problem, providerImplementer, annotationMirror);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 写出 {@link #OPTION_METRICS} 的 JSON 报告，写失败只给出警告，不影响编译结果。
+     */
+    private void writeMetrics() {
+        if (!mMetrics.isEnabled()) {
+            return;
+        }
+        String path = Strings.nullToEmpty(processingEnv.getOptions().get(OPTION_METRICS)).trim();
+        try {
+            Path report = path.isEmpty() || "true".equalsIgnoreCase(path) ? defaultMetricsReport() : Paths.get(path);
+            if (report == null) {
+                processingEnv.getMessager().printMessage(Kind.WARNING, "Unable to write autoservice metrics: "
+                        + "CLASS_OUTPUT is not a local directory, set " + OPTION_METRICS + "=<path>.");
+                return;
+            }
+            if (report.getParent() != null) {
+                Files.createDirectories(report.getParent());
+            }
+            try (Writer writer = new OutputStreamWriter(Files.newOutputStream(report), StandardCharsets.UTF_8)) {
+                mMetrics.writeJson(writer);
+            }
+            log("Wrote metrics to: " + report);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Kind.WARNING, "Unable to write autoservice metrics, " + e);
+        }
+    }
+
+    /**
+     * @return CLASS_OUTPUT 上层最近的 build 目录下的 reports/autoservice/{@link #METRICS_FILE}，
+     * 没有 build 目录时为 CLASS_OUTPUT 旁边的 {@link #METRICS_FILE}；CLASS_OUTPUT 不在本地文件系统上时返回 null
+     */
+    private Path defaultMetricsReport() throws IOException {
+        FileObject probe = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", METRICS_FILE);
+        if (!"file".equals(probe.toUri().getScheme())) {
+            return null;
+        }
+        Path classOutput = Paths.get(probe.toUri()).getParent();
+        for (Path dir = classOutput; dir != null; dir = dir.getParent()) {
+            if (dir.getFileName() != null && "build".equals(dir.getFileName().toString())) {
+                return dir.resolve("reports").resolve("autoservice").resolve(METRICS_FILE);
+            }
+        }
+        Path parent = classOutput.getParent();
+        return parent == null ? null : parent.resolve(METRICS_FILE);
+    }
+
+    /**
+     * 这个方法会对有些特殊的文件名做一些处理。
+     * 如：com.google.Foo$Bar 会替换成 com.google.Foo.Bar
+     */
+    private String getBinaryName(TypeElement element) {
+        return mSymbols.getBinaryName(element);
+    }
+
+    /**
+     * 参数需要拼接字符串时，调用方先判断 {@link #mDebug}，关闭 debug 时不产生额外的字符串。
+     */
     private void log(String msg) {
-        if (processingEnv.getOptions().containsKey("debug")) {
+        if (mDebug) {
             processingEnv.getMessager().printMessage(Kind.NOTE, msg);
         }
     }
 
+    private void warning(String msg, Element element, AnnotationMirror annotation) {
+        processingEnv.getMessager().printMessage(Kind.WARNING, msg, element, annotation);
+    }
+
     private void error(String msg, Element element, AnnotationMirror annotation) {
         processingEnv.getMessager().printMessage(Kind.ERROR, msg, element, annotation);
     }
@@ -0,0 +1,140 @@
+package com.service.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 写 META-INF/autoservice/services.idx，格式和运行时的 com.service.runtime.BinaryServiceIndex 对应（big-endian）：
+ * <pre>
+ * int    magic 'ASIX'
+ * short  version
+ * short  flags              FLAG_AGGREGATED：包含了所有依赖，可以代替扫描 classpath
+ * int    stringCount
+ * int    serviceCount
+ * int    providerCount
+ * int[stringCount + 1]      每个字符串在字符串区中的起始偏移，最后一个是字符串区总长度
+ * int[serviceCount * 3]     接口名字符串下标、第一个实现类在 providers 中的下标、实现类个数，按接口名 UTF-8 字节排序
+ * int[providerCount]        实现类名字符串下标，同一接口内已经按 order 排好
+ * int[providerCount]        实现类的 order
+ * byte[]                    字符串区，UTF-8，每个字符串只存一份
+ * </pre>
+ *
+ * @author dengxiaoqiu
+ */
+final class BinaryIndexWriter {
+
+    static final String INDEX_FILE = "META-INF/autoservice/services.idx";
+    static final int MAGIC = 0x41534958;
+    static final short VERSION = 1;
+    static final short FLAG_AGGREGATED = 1;
+
+    private BinaryIndexWriter() {
+    }
+
+    /**
+     * @param index key 为接口，value 为已经排好序的实现类和 order
+     */
+    static void write(Map<String, Map<String, Integer>> index, boolean aggregated, OutputStream output)
+            throws IOException {
+        List<byte[]> services = new ArrayList<>(index.size());
+        Map<byte[], String> serviceNames = new HashMap<>();
+        for (String service : index.keySet()) {
+            byte[] utf8 = service.getBytes(StandardCharsets.UTF_8);
+            services.add(utf8);
+            serviceNames.put(utf8, service);
+        }
+        Collections.sort(services, UNSIGNED_BYTES);
+
+        StringTable strings = new StringTable();
+        int[] serviceTable = new int[services.size() * 3];
+        List<Integer> providerNames = new ArrayList<>();
+        List<Integer> providerOrders = new ArrayList<>();
+        for (int i = 0; i < services.size(); i++) {
+            Map<String, Integer> providers = index.get(serviceNames.get(services.get(i)));
+            serviceTable[i * 3] = strings.intern(services.get(i));
+            serviceTable[i * 3 + 1] = providerNames.size();
+            serviceTable[i * 3 + 2] = providers.size();
+            for (Map.Entry<String, Integer> provider : providers.entrySet()) {
+                providerNames.add(strings.intern(provider.getKey().getBytes(StandardCharsets.UTF_8)));
+                providerOrders.add(provider.getValue());
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(aggregated ? FLAG_AGGREGATED : 0);
+        out.writeInt(strings.size());
+        out.writeInt(services.size());
+        out.writeInt(providerNames.size());
+        for (int offset : strings.offsets()) {
+            out.writeInt(offset);
+        }
+        for (int value : serviceTable) {
+            out.writeInt(value);
+        }
+        for (int name : providerNames) {
+            out.writeInt(name);
+        }
+        for (int order : providerOrders) {
+            out.writeInt(order);
+        }
+        strings.data.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * 和运行时二分查找使用同样的比较方式：按无符号字节比较。
+     */
+    private static final Comparator<byte[]> UNSIGNED_BYTES = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            int length = Math.min(a.length, b.length);
+            for (int i = 0; i < length; i++) {
+                int result = (a[i] & 0xff) - (b[i] & 0xff);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    private static final class StringTable {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final Map<String, Integer> indexes = new HashMap<>();
+        final List<Integer> offsets = new ArrayList<>();
+
+        int intern(byte[] utf8) {
+            String key = new String(utf8, StandardCharsets.UTF_8);
+            Integer existing = indexes.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            int index = offsets.size();
+            offsets.add(data.size());
+            data.write(utf8, 0, utf8.length);
+            indexes.put(key, index);
+            return index;
+        }
+
+        int size() {
+            return offsets.size();
+        }
+
+        List<Integer> offsets() {
+            List<Integer> result = new ArrayList<>(offsets);
+            result.add(data.size());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,697 @@
+package com.service.processor;
+
+import com.service.annotations.AutoService;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 不重新编译，直接从已经编译好的 jar / class 目录生成 META-INF/services。
+ * <p>
+ * {@link AutoService} 的 Retention 是 CLASS，注解会保留在 class 文件的 RuntimeInvisibleAnnotations 里，
+ * 没有使用 AutoServiceProcessor 编译的第三方 jar 也能通过这里得到和处理器一样的 service 文件。
+ * jar 通过内存映射读取，自己解析 zip 目录，只解压 .class 条目；class 文件只解析常量池，
+ * 常量池里没有 AutoService 的类直接跳过，有的才继续解析 RuntimeInvisibleAnnotations。
+ * <p>
+ * 用法：
+ * <pre>
+ * java -cp lib-autoservice.jar com.service.processor.ClassFileIndexer --output &lt;dir&gt;
+ *     [--parallel[=N]] [--index] [--binary-index] [-Akey=value]... &lt;jar|dir&gt;...
+ * </pre>
+ * 输入参数可以是 File.pathSeparator 分隔的 classpath，方便在 Gradle 的 JavaExec 任务里直接传 classpath.asPath。
+ * -A 和 javac 的处理器参数一样，用来求值 {@link AutoService#conditions()}，例如 -Aautoservice.flavor=prod。
+ *
+ * @author dengxiaoqiu
+ */
+public final class ClassFileIndexer {
+
+    private static final byte[] AUTO_SERVICE_DESCRIPTOR =
+            ("L" + AutoService.class.getName().replace('.', '/') + ";").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VALUE = "value".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ORDER = "order".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONDITIONS = "conditions".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INIT = "<init>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NO_ARG_DESCRIPTOR = "()V".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CLASS_SUFFIX = ".class".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] META_INF = "META-INF/".getBytes(StandardCharsets.UTF_8);
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private ClassFileIndexer() {
+    }
+
+    public static void main(String[] args) {
+        File output = null;
+        int threads = 1;
+        boolean textIndex = false;
+        boolean binaryIndex = false;
+        Map<String, String> options = new HashMap<>();
+        List<File> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--output") && i + 1 < args.length) {
+                output = new File(args[++i]);
+            } else if (arg.equals("--parallel")) {
+                threads = Runtime.getRuntime().availableProcessors();
+            } else if (arg.startsWith("--parallel=")) {
+                threads = Math.max(1, Integer.parseInt(arg.substring("--parallel=".length())));
+            } else if (arg.equals("--index")) {
+                textIndex = true;
+            } else if (arg.equals("--binary-index")) {
+                binaryIndex = true;
+            } else if (arg.startsWith("-A") && arg.length() > 2) {
+                int equals = arg.indexOf('=');
+                if (equals < 0) {
+                    options.put(arg.substring(2), null);
+                } else {
+                    options.put(arg.substring(2, equals), arg.substring(equals + 1));
+                }
+            } else if (arg.startsWith("--")) {
+                usage("Unknown option " + arg);
+                return;
+            } else {
+                for (String path : arg.split(File.pathSeparator)) {
+                    if (!path.isEmpty()) {
+                        inputs.add(new File(path));
+                    }
+                }
+            }
+        }
+        if (output == null) {
+            usage("Missing --output");
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            Map<String, Map<String, Integer>> index = index(inputs, threads, options);
+            int providers = write(index, output, textIndex, binaryIndex);
+            System.out.println("Indexed " + inputs.size() + " inputs: " + providers + " providers for "
+                    + index.size() + " interfaces in " + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (IOException e) {
+            System.err.println("ClassFileIndexer failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: ClassFileIndexer --output <dir> [--parallel[=N]] [--index] [--binary-index]"
+                + " [-Akey=value]... <jar|dir>...");
+        System.exit(2);
+    }
+
+    /**
+     * 每个 jar / 目录单独解析，并行时按输入分片到多个线程；合并时按输入顺序进行，结果和线程数无关。
+     *
+     * @param options 求值 {@link AutoService#conditions()} 用的处理器参数
+     * @return key 为接口的 binary name，value 为实现类和 order
+     */
+    static Map<String, Map<String, Integer>> index(List<File> inputs, int threads, Map<String, String> options)
+            throws IOException {
+        List<Map<String, Map<String, Integer>>> results = new ArrayList<>(inputs.size());
+        if (threads <= 1 || inputs.size() <= 1) {
+            for (File input : inputs) {
+                results.add(indexEntry(input, options));
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, inputs.size()));
+            try {
+                List<Future<Map<String, Map<String, Integer>>>> futures = new ArrayList<>(inputs.size());
+                for (final File input : inputs) {
+                    futures.add(executor.submit(() -> indexEntry(input, options)));
+                }
+                for (Future<Map<String, Map<String, Integer>>> future : futures) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        Map<String, Map<String, Integer>> index = new HashMap<>();
+        for (Map<String, Map<String, Integer>> result : results) {
+            for (Map.Entry<String, Map<String, Integer>> service : result.entrySet()) {
+                ServiceIndexes.merge(index, service.getKey(), service.getValue());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 和 AutoServiceProcessor 一样写出 META-INF/services，可选再写合并索引和二进制索引。
+     *
+     * @return 写出的实现类条目数
+     */
+    static int write(Map<String, Map<String, Integer>> index, File output, boolean textIndex, boolean binaryIndex)
+            throws IOException {
+        int providers = 0;
+        for (Map.Entry<String, Map<String, Integer>> service : index.entrySet()) {
+            try (OutputStream out = new FileOutputStream(outputFile(output, ServiceIndexes.SERVICES_DIR
+                    + service.getKey()))) {
+                ServicesFiles.writeServiceFile(service.getValue(), out);
+            }
+            providers += service.getValue().size();
+        }
+        if (textIndex) {
+            try (OutputStream out = new FileOutputStream(outputFile(output, ServiceIndexes.INDEX_FILE))) {
+                ServiceIndexes.writeIndex(index, out);
+            }
+        }
+        if (binaryIndex) {
+            Map<String, Map<String, Integer>> sorted = new HashMap<>();
+            for (Map.Entry<String, Map<String, Integer>> service : index.entrySet()) {
+                sorted.put(service.getKey(), ServiceIndexes.sortByOrder(service.getValue()));
+            }
+            try (OutputStream out = new FileOutputStream(outputFile(output, BinaryIndexWriter.INDEX_FILE))) {
+                BinaryIndexWriter.write(sorted, false, out);
+            }
+        }
+        return providers;
+    }
+
+    private static File outputFile(File output, String path) throws IOException {
+        File file = new File(output, path);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        return file;
+    }
+
+    static Map<String, Map<String, Integer>> indexEntry(File input, Map<String, String> options) throws IOException {
+        Map<String, Map<String, Integer>> index = new LinkedHashMap<>();
+        ClassParser parser = new ClassParser(index, input, options);
+        if (input.isDirectory()) {
+            indexDirectory(input, parser);
+        } else if (input.isFile()) {
+            indexJar(input, parser);
+        }
+        return index;
+    }
+
+    private static void indexDirectory(File directory, ClassParser parser) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // listFiles 的顺序和平台有关，排序后保证结果稳定
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                indexDirectory(file, parser);
+            } else if (file.getName().endsWith(".class")) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    ByteBuffer classFile = ByteBuffer.allocate((int) channel.size());
+                    while (classFile.hasRemaining() && channel.read(classFile) >= 0) {
+                        // 读满为止
+                    }
+                    classFile.flip();
+                    parser.parse(classFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * 整个 jar 映射进内存后直接解析 zip 的中央目录，未压缩的条目直接在映射的内存上解析，
+     * 压缩的条目解压到复用的缓冲区。zip64 或超过 2GB 的 jar 交给 {@link ZipFile}。
+     */
+    private static void indexJar(File jar, ClassParser parser) throws IOException {
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                indexZipFile(jar, parser);
+                return;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            ByteBuffer zip = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int end = findEndOfCentralDirectory(zip);
+            if (end < 0) {
+                // 不是 zip 文件（例如 classpath 里混进来的其它文件），忽略
+                return;
+            }
+            int entries = zip.getShort(end + 10) & 0xffff;
+            long directoryOffset = zip.getInt(end + 16) & 0xffffffffL;
+            if (entries == 0xffff || directoryOffset == 0xffffffffL) {
+                indexZipFile(jar, parser);
+                return;
+            }
+            readEntries(jar, zip, (int) directoryOffset, entries, parser);
+        }
+    }
+
+    private static void readEntries(File jar, ByteBuffer zip, int position, int entries, ClassParser parser)
+            throws IOException {
+        Inflater inflater = new Inflater(true);
+        byte[] compressed = new byte[8192];
+        byte[] inflated = new byte[16384];
+        try {
+            for (int i = 0; i < entries; i++) {
+                if (zip.getInt(position) != CENTRAL_HEADER) {
+                    throw new IOException("Bad central directory entry in " + jar);
+                }
+                int method = zip.getShort(position + 10) & 0xffff;
+                int compressedSize = zip.getInt(position + 20);
+                int size = zip.getInt(position + 24);
+                int nameLength = zip.getShort(position + 28) & 0xffff;
+                int extraLength = zip.getShort(position + 30) & 0xffff;
+                int commentLength = zip.getShort(position + 32) & 0xffff;
+                int localHeader = zip.getInt(position + 42);
+                int name = position + 46;
+                position = name + nameLength + extraLength + commentLength;
+                if (!isClassEntry(zip, name, nameLength) || zip.getInt(localHeader) != LOCAL_HEADER) {
+                    continue;
+                }
+                int data = localHeader + 30 + (zip.getShort(localHeader + 26) & 0xffff)
+                        + (zip.getShort(localHeader + 28) & 0xffff);
+                if (method == ZipEntry.STORED) {
+                    ByteBuffer classFile = zip.duplicate();
+                    classFile.limit(data + size).position(data);
+                    parser.parse(classFile.slice());
+                } else if (method == ZipEntry.DEFLATED) {
+                    if (compressed.length < compressedSize) {
+                        compressed = new byte[Math.max(compressedSize, compressed.length * 2)];
+                    }
+                    if (inflated.length < size) {
+                        inflated = new byte[Math.max(size, inflated.length * 2)];
+                    }
+                    ByteBuffer source = zip.duplicate();
+                    source.position(data);
+                    source.get(compressed, 0, compressedSize);
+                    inflater.reset();
+                    inflater.setInput(compressed, 0, compressedSize);
+                    int length = 0;
+                    while (length < size && !inflater.finished()) {
+                        int read = inflater.inflate(inflated, length, size - length);
+                        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        length += read;
+                    }
+                    parser.parse(ByteBuffer.wrap(inflated, 0, length));
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt entry in " + jar, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void indexZipFile(File jar, ClassParser parser) throws IOException {
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+                if (entry.isDirectory() || !isClassEntry(ByteBuffer.wrap(name), 0, name.length)) {
+                    continue;
+                }
+                try (InputStream input = zip.getInputStream(entry)) {
+                    parser.parse(ByteBuffer.wrap(readFully(input)));
+                }
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        byte[] buffer = new byte[8192];
+        int length = 0;
+        int read;
+        while ((read = input.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer zip) {
+        // 目录结尾记录 22 字节，后面最多跟 65535 字节的注释
+        int min = Math.max(0, zip.limit() - 22 - 0xffff);
+        for (int position = zip.limit() - 22; position >= min; position--) {
+            if (zip.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 只解析 .class 条目，跳过 META-INF 下的多版本 class，避免同一个类被索引两次。
+     */
+    private static boolean isClassEntry(ByteBuffer buffer, int name, int length) {
+        return length > CLASS_SUFFIX.length
+                && equalsAt(buffer, name + length - CLASS_SUFFIX.length, CLASS_SUFFIX)
+                && !(length >= META_INF.length && equalsAt(buffer, name, META_INF));
+    }
+
+    private static boolean equalsAt(ByteBuffer buffer, int position, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(position + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析单个 class 文件。每个输入一个实例，常量池偏移数组在多个 class 之间复用。
+     */
+    private static final class ClassParser {
+
+        private final Map<String, Map<String, Integer>> index;
+        private final File source;
+        private final Map<String, String> options;
+        private int[] offsets = new int[1024];
+        private ByteBuffer classFile;
+
+        ClassParser(Map<String, Map<String, Integer>> index, File source, Map<String, String> options) {
+            this.index = index;
+            this.source = source;
+            this.options = options;
+        }
+
+        void parse(ByteBuffer classFile) {
+            this.classFile = classFile;
+            try {
+                parseClass();
+            } catch (IndexOutOfBoundsException e) {
+                System.err.println("warning: skipping malformed class file in " + source);
+            } finally {
+                this.classFile = null;
+            }
+        }
+
+        private void parseClass() {
+            ByteBuffer b = classFile;
+            if (b.limit() < 10 || b.getInt(0) != 0xCAFEBABE) {
+                return;
+            }
+            int count = b.getShort(8) & 0xffff;
+            if (offsets.length < count) {
+                offsets = new int[Math.max(count, offsets.length * 2)];
+            }
+            int position = 10;
+            boolean annotated = false;
+            for (int i = 1; i < count; i++) {
+                offsets[i] = position;
+                int tag = b.get(position) & 0xff;
+                switch (tag) {
+                    case 1:
+                        int length = b.getShort(position + 1) & 0xffff;
+                        if (!annotated && utf8Equals(position, AUTO_SERVICE_DESCRIPTOR)) {
+                            annotated = true;
+                        }
+                        position += 3 + length;
+                        break;
+                    case 3:
+                    case 4:
+                    case 9:
+                    case 10:
+                    case 11:
+                    case 12:
+                    case 17:
+                    case 18:
+                        position += 5;
+                        break;
+                    case 5:
+                    case 6:
+                        // long 和 double 占两个常量池位置
+                        position += 9;
+                        i++;
+                        break;
+                    case 7:
+                    case 8:
+                    case 16:
+                    case 19:
+                    case 20:
+                        position += 3;
+                        break;
+                    case 15:
+                        position += 4;
+                        break;
+                    default:
+                        return;
+                }
+            }
+            if (!annotated) {
+                return;
+            }
+
+            int access = b.getShort(position) & 0xffff;
+            int thisClass = b.getShort(position + 2) & 0xffff;
+            position += 6;
+            position += 2 + 2 * (b.getShort(position) & 0xffff);
+            position = skipMembers(position, false);
+            int methodsStart = position;
+            position = skipMembers(position, false);
+
+            int attributes = b.getShort(position) & 0xffff;
+            position += 2;
+            for (int i = 0; i < attributes; i++) {
+                int name = b.getShort(position) & 0xffff;
+                int length = b.getInt(position + 2);
+                if (utf8Equals(offsets[name], INVISIBLE_ANNOTATIONS)) {
+                    parseAnnotations(position + 6, access, thisClass, methodsStart);
+                }
+                position += 6 + length;
+            }
+        }
+
+        private void parseAnnotations(int position, int access, int thisClass, int methodsStart) {
+            ByteBuffer b = classFile;
+            int annotations = b.getShort(position) & 0xffff;
+            position += 2;
+            for (int i = 0; i < annotations; i++) {
+                int type = b.getShort(position) & 0xffff;
+                if (!utf8Equals(offsets[type], AUTO_SERVICE_DESCRIPTOR)) {
+                    position = skipAnnotation(position);
+                    continue;
+                }
+                List<String> services = new ArrayList<>();
+                List<String> conditions = new ArrayList<>();
+                int order = 0;
+                int pairs = b.getShort(position + 2) & 0xffff;
+                position += 4;
+                for (int j = 0; j < pairs; j++) {
+                    int name = b.getShort(position) & 0xffff;
+                    position += 2;
+                    if (utf8Equals(offsets[name], VALUE)) {
+                        position = readClassValues(position, services);
+                    } else if (utf8Equals(offsets[name], ORDER) && b.get(position) == 'I') {
+                        order = b.getInt(offsets[b.getShort(position + 1) & 0xffff] + 1);
+                        position += 3;
+                    } else if (utf8Equals(offsets[name], CONDITIONS)) {
+                        position = readStringValues(position, conditions);
+                    } else {
+                        position = skipElementValue(position);
+                    }
+                }
+                if (checkConditions(thisClass, conditions)) {
+                    register(access, thisClass, methodsStart, services, order);
+                }
+            }
+        }
+
+        /**
+         * 和处理器一样，格式错误时给出警告并跳过，不满足时直接跳过。
+         */
+        private boolean checkConditions(int thisClass, List<String> conditions) {
+            if (conditions.isEmpty()) {
+                return true;
+            }
+            for (String condition : conditions) {
+                String problem = Conditions.check(condition);
+                if (problem != null) {
+                    System.err.println("warning: skipping " + className(thisClass) + " in " + source + ": " + problem);
+                    return false;
+                }
+            }
+            return Conditions.matches(conditions, options);
+        }
+
+        private String className(int thisClass) {
+            return utf8(offsets[classFile.getShort(offsets[thisClass] + 1) & 0xffff]).replace('/', '.');
+        }
+
+        private void register(int access, int thisClass, int methodsStart, List<String> services, int order) {
+            String provider = className(thisClass);
+            if ((access & (ACC_INTERFACE | ACC_ABSTRACT)) != 0 || (access & ACC_PUBLIC) == 0
+                    || skipMembers(methodsStart, true) >= 0) {
+                System.err.println("warning: skipping " + provider + " in " + source
+                        + ": not a public concrete class with a public no-arg constructor");
+                return;
+            }
+            for (String service : services) {
+                Map<String, Integer> providers = index.get(service);
+                if (providers == null) {
+                    providers = new LinkedHashMap<>();
+                    index.put(service, providers);
+                }
+                if (!providers.containsKey(provider)) {
+                    providers.put(provider, order);
+                }
+            }
+        }
+
+        /**
+         * value 是 Class 数组，每个元素是类描述符，例如 Lcom/zlj/autoservice/MyServiceImpl;
+         */
+        private int readClassValues(int position, List<String> services) {
+            ByteBuffer b = classFile;
+            int tag = b.get(position);
+            if (tag == 'c') {
+                String descriptor = utf8(offsets[b.getShort(position + 1) & 0xffff]);
+                if (descriptor.startsWith("L") && descriptor.endsWith(";")) {
+                    services.add(descriptor.substring(1, descriptor.length() - 1).replace('/', '.'));
+                }
+                return position + 3;
+            }
+            if (tag == '[') {
+                int values = b.getShort(position + 1) & 0xffff;
+                position += 3;
+                for (int i = 0; i < values; i++) {
+                    position = readClassValues(position, services);
+                }
+                return position;
+            }
+            return skipElementValue(position);
+        }
+
+        /**
+         * conditions 是 String 数组，只有一个元素时也可能直接写成 "..."，编译后都是数组。
+         */
+        private int readStringValues(int position, List<String> values) {
+            ByteBuffer b = classFile;
+            int tag = b.get(position);
+            if (tag == 's') {
+                values.add(utf8(offsets[b.getShort(position + 1) & 0xffff]));
+                return position + 3;
+            }
+            if (tag == '[') {
+                int count = b.getShort(position + 1) & 0xffff;
+                position += 3;
+                for (int i = 0; i < count; i++) {
+                    position = readStringValues(position, values);
+                }
+                return position;
+            }
+            return skipElementValue(position);
+        }
+
+        private int skipAnnotation(int position) {
+            int pairs = classFile.getShort(position + 2) & 0xffff;
+            position += 4;
+            for (int i = 0; i < pairs; i++) {
+                position = skipElementValue(position + 2);
+            }
+            return position;
+        }
+
+        private int skipElementValue(int position) {
+            ByteBuffer b = classFile;
+            switch (b.get(position)) {
+                case 'e':
+                    return position + 5;
+                case '@':
+                    return skipAnnotation(position + 1);
+                case '[':
+                    int values = b.getShort(position + 1) & 0xffff;
+                    position += 3;
+                    for (int i = 0; i < values; i++) {
+                        position = skipElementValue(position);
+                    }
+                    return position;
+                default:
+                    // B C D F I J S Z s c 都是一个常量池下标
+                    return position + 3;
+            }
+        }
+
+        /**
+         * 跳过字段表或方法表。findConstructor 为 true 时遇到 public 无参构造方法返回 -1。
+         *
+         * @return 表结束的位置
+         */
+        private int skipMembers(int position, boolean findConstructor) {
+            ByteBuffer b = classFile;
+            int members = b.getShort(position) & 0xffff;
+            position += 2;
+            for (int i = 0; i < members; i++) {
+                if (findConstructor && (b.getShort(position) & ACC_PUBLIC) != 0
+                        && utf8Equals(offsets[b.getShort(position + 2) & 0xffff], INIT)
+                        && utf8Equals(offsets[b.getShort(position + 4) & 0xffff], NO_ARG_DESCRIPTOR)) {
+                    return -1;
+                }
+                int attributes = b.getShort(position + 6) & 0xffff;
+                position += 8;
+                for (int j = 0; j < attributes; j++) {
+                    position += 6 + b.getInt(position + 2);
+                }
+            }
+            return position;
+        }
+
+        private boolean utf8Equals(int entry, byte[] expected) {
+            ByteBuffer b = classFile;
+            if (b.get(entry) != 1 || (b.getShort(entry + 1) & 0xffff) != expected.length) {
+                return false;
+            }
+            return equalsAt(b, entry + 3, expected);
+        }
+
+        /**
+         * class 文件用的是 modified UTF-8，类名里不会出现 \0 和补充平面字符，按标准 UTF-8 解码即可。
+         */
+        private String utf8(int entry) {
+            ByteBuffer b = classFile;
+            int length = b.getShort(entry + 1) & 0xffff;
+            byte[] bytes = new byte[length];
+            ByteBuffer source = b.duplicate();
+            source.position(entry + 3);
+            source.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
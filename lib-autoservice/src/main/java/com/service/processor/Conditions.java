@@ -0,0 +1,97 @@
+package com.service.processor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link com.service.annotations.AutoService#conditions()} 的解析和求值，处理器和 {@link ClassFileIndexer} 共用。
+ * <p>
+ * 每个条件对应一个处理器参数，条件名不带 . 时自动加上 autoservice. 前缀，例如 flavor 对应 -Aautoservice.flavor：
+ * <ul>
+ * <li>flavor=prod：参数等于 prod，可以用 | 写多个值，例如 flavor=dev|staging；</li>
+ * <li>flavor!=prod：参数没有设置或者不等于任何一个值；</li>
+ * <li>flavor：参数设置了并且不是 false；</li>
+ * <li>!flavor：参数没有设置或者是 false。</li>
+ * </ul>
+ * 多个条件必须全部满足。
+ *
+ * @author dengxiaoqiu
+ */
+final class Conditions {
+
+    static final String OPTION_PREFIX = "autoservice.";
+
+    private Conditions() {
+    }
+
+    /**
+     * @return 条件格式错误的原因，格式正确时返回 null
+     */
+    static String check(String condition) {
+        String key = condition;
+        int operator = condition.indexOf('=');
+        if (operator >= 0) {
+            boolean negated = operator > 0 && condition.charAt(operator - 1) == '!';
+            key = condition.substring(0, negated ? operator - 1 : operator);
+            for (String value : condition.substring(operator + 1).split("\\|", -1)) {
+                if (value.trim().isEmpty()) {
+                    return "Invalid condition \"" + condition + "\": empty value";
+                }
+            }
+        } else if (condition.startsWith("!")) {
+            key = condition.substring(1);
+        }
+        key = key.trim();
+        if (key.isEmpty()) {
+            return "Invalid condition \"" + condition + "\": missing option name";
+        }
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '.' && c != '_' && c != '-') {
+                return "Invalid condition \"" + condition + "\": unexpected '" + c + "' in option name";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 条件必须已经通过 {@link #check(String)}。
+     *
+     * @param options 处理器参数，和 ProcessingEnvironment#getOptions() 一样，不带值的参数 value 为 null
+     */
+    static boolean matches(List<String> conditions, Map<String, String> options) {
+        for (String condition : conditions) {
+            if (!matches(condition, options)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String condition, Map<String, String> options) {
+        int operator = condition.indexOf('=');
+        if (operator < 0) {
+            boolean negated = condition.startsWith("!");
+            String option = optionName(negated ? condition.substring(1) : condition);
+            boolean enabled = options.containsKey(option) && !"false".equalsIgnoreCase(options.get(option));
+            return enabled != negated;
+        }
+        boolean negated = operator > 0 && condition.charAt(operator - 1) == '!';
+        String value = options.get(optionName(condition.substring(0, negated ? operator - 1 : operator)));
+        boolean equal = false;
+        if (value != null) {
+            for (String expected : condition.substring(operator + 1).split("\\|")) {
+                if (expected.trim().equals(value.trim())) {
+                    equal = true;
+                    break;
+                }
+            }
+        }
+        return equal != negated;
+    }
+
+    static String optionName(String key) {
+        key = key.trim();
+        return key.indexOf('.') >= 0 ? key : OPTION_PREFIX + key;
+    }
+}
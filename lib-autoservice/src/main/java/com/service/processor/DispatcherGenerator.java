@@ -0,0 +1,176 @@
+package com.service.processor;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+
+/**
+ * 生成 &lt;接口&gt;_Dispatcher_&lt;module&gt;：按 {@link com.service.annotations.AutoService#keys()} /
+ * {@link com.service.annotations.AutoService#intKeys()} 直接找到处理这个 key 的实现类，不需要遍历所有实现类。
+ * <p>
+ * 查找用 switch 实现：连续的 int key 编译成 tableswitch（按下标跳转），String key 先按 hashCode 跳转再比较一次 equals。
+ * 实例和注册类的 get() 来源相同：PROTOTYPE 的实现类每次分发都创建新实例（工厂方法每次都调用），
+ * 声明了 SINGLETON / THREAD 的实现类按 scope 从 &lt;实现类&gt;_Holder 获取。
+ *
+ * @author dengxiaoqiu
+ */
+final class DispatcherGenerator {
+
+    static final String CLASS_INFIX = "_Dispatcher_";
+
+    /**
+     * 和 {@link RegistryGenerator} 一样限制每个方法里 case 的个数，保证方法不超过 64KB。
+     */
+    private static final int CASES_PER_METHOD = 1000;
+
+    private DispatcherGenerator() {
+    }
+
+    static String dispatcherClassName(ClassName service, String module) {
+        return String.join("_", service.simpleNames()) + CLASS_INFIX + RegistryGenerator.sanitize(module);
+    }
+
+    /**
+     * @param providers 声明了 key 并且可以直接创建的实现类，key 已经检查过没有重复
+     */
+    static JavaFile generate(String packageName, String className, ClassName service, List<ProviderInfo> providers,
+                             Collection<? extends Element> originatingElements) {
+        TypeSpec.Builder dispatcher = TypeSpec.classBuilder(className)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addJavadoc("按 key 分发 {@link $T}，由 AutoServiceProcessor 生成，请勿修改。\n", service)
+                .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
+        for (Element originatingElement : originatingElements) {
+            dispatcher.addOriginatingElement(originatingElement);
+        }
+
+        List<Case> intCases = new ArrayList<>();
+        List<Case> stringCases = new ArrayList<>();
+        for (ProviderInfo info : providers) {
+            CodeBlock instance = info.instance();
+            for (int key : info.intKeys) {
+                intCases.add(new Case(key, CodeBlock.of("$L", key), instance));
+            }
+            for (String key : info.keys) {
+                stringCases.add(new Case(key.hashCode(), CodeBlock.of("$S", key), instance));
+            }
+        }
+
+        NestedMethods lookups = new NestedMethods(ClassName.get(packageName, className), "Lookups");
+        if (!intCases.isEmpty()) {
+            addLookup(dispatcher, lookups, service, TypeName.INT, "key", intCases, CodeBlock.of(""),
+                    CodeBlock.of(""));
+        }
+        if (!stringCases.isEmpty()) {
+            addLookup(dispatcher, lookups, service, ClassName.get(String.class), "hash", stringCases,
+                    CodeBlock.builder()
+                            .beginControlFlow("if (key == null)")
+                            .addStatement("return null")
+                            .endControlFlow()
+                            .build(),
+                    CodeBlock.builder().addStatement("int hash = key.hashCode()").build());
+        }
+        lookups.addTo(dispatcher);
+
+        return JavaFile.builder(packageName, dispatcher.build())
+                .skipJavaLangImports(true)
+                .build();
+    }
+
+    /**
+     * 生成 get(key)。case 很多时按 hash 排序后拆成多个方法，get 里先按 hash 范围选方法；
+     * hash 相同的 key 一定在同一个方法里。拆出来的方法放在嵌套类里，避免常量池超过上限。
+     *
+     * @param routeBy   按哪个 int 变量选择方法，int key 就是 key 本身，String key 是 hashCode
+     * @param routeInit 声明 routeBy 的语句，只在拆成多个方法时生成
+     */
+    private static void addLookup(TypeSpec.Builder dispatcher, NestedMethods lookups, ClassName service,
+                                  TypeName keyType, String routeBy, List<Case> cases, CodeBlock prologue,
+                                  CodeBlock routeInit) {
+        Collections.sort(cases, Case.BY_HASH);
+        MethodSpec.Builder get = MethodSpec.methodBuilder("get")
+                .addJavadoc("返回处理 key 的实现类，没有时返回 null。\n")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(service)
+                .addParameter(keyType, "key")
+                .addCode(prologue);
+        if (cases.size() <= CASES_PER_METHOD) {
+            dispatcher.addMethod(get.addCode(switchOf(cases)).build());
+            return;
+        }
+        get.addCode(routeInit);
+        String prefix = keyType == TypeName.INT ? "getInt" : "getString";
+        int part = 0;
+        int start = 0;
+        while (start < cases.size()) {
+            int end = Math.min(cases.size(), start + CASES_PER_METHOD);
+            while (end < cases.size() && cases.get(end).hash == cases.get(end - 1).hash) {
+                end++;
+            }
+            List<Case> partCases = cases.subList(start, end);
+            ClassName nested = lookups.add(MethodSpec.methodBuilder(prefix + part)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(service)
+                    .addParameter(keyType, "key")
+                    .addCode(switchOf(partCases))
+                    .build(), partCases.size());
+            if (end < cases.size()) {
+                get.beginControlFlow("if ($N <= $L)", routeBy, partCases.get(partCases.size() - 1).hash)
+                        .addStatement("return $T.$N$L(key)", nested, prefix, part)
+                        .endControlFlow();
+            } else {
+                get.addStatement("return $T.$N$L(key)", nested, prefix, part);
+            }
+            part++;
+            start = end;
+        }
+        dispatcher.addMethod(get.build());
+    }
+
+    private static CodeBlock switchOf(List<Case> cases) {
+        CodeBlock.Builder code = CodeBlock.builder().beginControlFlow("switch (key)");
+        for (Case c : cases) {
+            code.add("case $L:\n", c.label)
+                    .indent()
+                    .addStatement("return $L", c.instance)
+                    .unindent();
+        }
+        return code.add("default:\n")
+                .indent()
+                .addStatement("return null")
+                .unindent()
+                .endControlFlow()
+                .build();
+    }
+
+    private static final class Case {
+        static final Comparator<Case> BY_HASH = new Comparator<Case>() {
+            @Override
+            public int compare(Case a, Case b) {
+                int result = Integer.compare(a.hash, b.hash);
+                return result != 0 ? result : a.label.toString().compareTo(b.label.toString());
+            }
+        };
+
+        final int hash;
+        final CodeBlock label;
+        final CodeBlock instance;
+
+        Case(int hash, CodeBlock label, CodeBlock instance) {
+            this.hash = hash;
+            this.label = label;
+            this.instance = instance;
+        }
+    }
+}
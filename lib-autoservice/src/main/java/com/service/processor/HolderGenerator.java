@@ -0,0 +1,95 @@
+package com.service.processor;
+
+import com.service.annotations.Scope;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * 生成 &lt;实现类&gt;_Holder：按 {@link Scope} 保存实现类实例，注册类和分发类通过 get() 获取。
+ * <ul>
+ * <li>SINGLETON：initialization-on-demand holder，第一次调用 get() 时由虚拟机的类初始化保证只创建一次，读取不加锁；</li>
+ * <li>THREAD：ThreadLocal，每个线程第一次调用 get() 时创建。</li>
+ * </ul>
+ * PROTOTYPE 不需要保存实例，注册类直接 new，不生成 holder。
+ *
+ * @author dengxiaoqiu
+ */
+final class HolderGenerator {
+
+    static final String SUFFIX = "_Holder";
+
+    private static final String INSTANCE = "INSTANCE";
+
+    private HolderGenerator() {
+    }
+
+    static ClassName holderClassName(ClassName provider) {
+        return ClassName.get(provider.packageName(), String.join("_", provider.simpleNames()) + SUFFIX);
+    }
+
+    /**
+     * @param created 实际创建的类：延迟加载句柄、统计包装类或者实现类本身
+     */
+    static JavaFile generate(TypeElement provider, Scope scope, ClassName created) {
+        ClassName providerName = ClassName.get(provider);
+        ClassName holderName = holderClassName(providerName);
+        TypeSpec.Builder holder = TypeSpec.classBuilder(holderName)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addOriginatingElement(provider)
+                .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
+        MethodSpec.Builder get = MethodSpec.methodBuilder("get")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(created);
+
+        if (scope == Scope.SINGLETON) {
+            ClassName instance = holderName.nestedClass("Instance");
+            holder.addJavadoc("{@link $T} 的单例，由 AutoServiceProcessor 生成，请勿修改。\n", providerName)
+                    .addType(TypeSpec.classBuilder(instance)
+                            .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                            .addField(FieldSpec.builder(created, INSTANCE, Modifier.STATIC, Modifier.FINAL)
+                                    .initializer("new $T()", created)
+                                    .build())
+                            .build())
+                    .addMethod(get.addJavadoc("第一次调用时创建，之后一直返回同一个实例。\n")
+                            .addStatement("return $T.$N", instance, INSTANCE)
+                            .build());
+        } else if (scope == Scope.THREAD) {
+            TypeName threadLocal = ParameterizedTypeName.get(ClassName.get(ThreadLocal.class), created);
+            holder.addJavadoc("{@link $T} 的线程内实例，由 AutoServiceProcessor 生成，请勿修改。\n", providerName)
+                    .addField(FieldSpec.builder(threadLocal, INSTANCE, Modifier.PRIVATE, Modifier.STATIC,
+                                    Modifier.FINAL)
+                            .initializer("$L", TypeSpec.anonymousClassBuilder("")
+                                    .superclass(threadLocal)
+                                    .addMethod(MethodSpec.methodBuilder("initialValue")
+                                            .addAnnotation(Override.class)
+                                            .addModifiers(Modifier.PROTECTED)
+                                            .returns(created)
+                                            .addStatement("return new $T()", created)
+                                            .build())
+                                    .build())
+                            .build())
+                    .addMethod(get.addJavadoc("返回当前线程的实例，每个线程第一次调用时创建。\n")
+                            .addStatement("return $N.get()", INSTANCE)
+                            .build())
+                    .addMethod(MethodSpec.methodBuilder("remove")
+                            .addJavadoc("丢弃当前线程的实例，例如线程池里的任务结束时调用，下次 get() 会重新创建。\n")
+                            .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                            .addStatement("$N.remove()", INSTANCE)
+                            .build());
+        } else {
+            throw new IllegalArgumentException("No holder for scope " + scope);
+        }
+
+        return JavaFile.builder(providerName.packageName(), holder.build())
+                .skipJavaLangImports(true)
+                .build();
+    }
+}
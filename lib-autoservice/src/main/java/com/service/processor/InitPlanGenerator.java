@@ -0,0 +1,330 @@
+package com.service.processor;
+
+import com.google.common.collect.Multimap;
+import com.service.annotations.Scope;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * 按 {@link com.service.annotations.AutoService#dependsOn()} 生成注册类的 initPlan()：
+ * 实现类 A 依赖接口 S 时，本模块里 S 的所有实现类都排在 A 之前的层。每一层按最长依赖链计算，
+ * 同一层的实现类互不依赖，由运行时库的 com.service.runtime.ProviderInitializer 并行创建。
+ * <p>
+ * 计划里的实例和注册类 get() 用同一个表达式创建（句柄、包装类或者 holder），但只有从 holder 取的 SINGLETON
+ * 实例才和 get() 共享；PROTOTYPE 的实现类每次都是新实例，提前创建只对 Initialized 里的实例有效。
+ * THREAD 的实现类每个线程各一个实例，在线程池里提前创建没有意义，不放进计划。
+ *
+ * @author dengxiaoqiu
+ */
+final class InitPlanGenerator {
+
+    static final ClassName PROVIDER_INITIALIZER = ClassName.get("com.service.runtime", "ProviderInitializer");
+    private static final ClassName PLAN = PROVIDER_INITIALIZER.nestedClass("Plan");
+    private static final ClassName STEP = PROVIDER_INITIALIZER.nestedClass("Step");
+    private static final ClassName LIST = ClassName.get(List.class);
+    private static final ClassName ARRAY_LIST = ClassName.get(ArrayList.class);
+
+    /**
+     * 和 {@link RegistryGenerator} 一样限制每个方法里的语句数，保证方法不超过 64KB。
+     */
+    private static final int STEPS_PER_METHOD = 1000;
+
+    private InitPlanGenerator() {
+    }
+
+    /**
+     * @return key 为实现类，value 为必须先创建的实现类；依赖自己实现的接口时不算依赖自己
+     */
+    static Map<String, Set<String>> dependencies(Multimap<String, String> providers, Map<String, ProviderInfo> infos) {
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        for (ProviderInfo info : infos.values()) {
+            Set<String> required = new LinkedHashSet<>();
+            for (String service : info.dependsOn) {
+                for (String provider : new TreeSet<>(providers.get(service))) {
+                    if (!provider.equals(info.binaryName) && infos.containsKey(provider)) {
+                        required.add(provider);
+                    }
+                }
+            }
+            dependencies.put(info.binaryName, required);
+        }
+        return dependencies;
+    }
+
+    /**
+     * 按层拓扑排序：第 0 层没有依赖，第 n 层的实现类依赖的都在前 n - 1 层。
+     *
+     * @return 每一层按 order、类名排序；有环时返回 null
+     */
+    static List<List<String>> layers(Map<String, Set<String>> dependencies, Map<String, ProviderInfo> infos) {
+        Map<String, Integer> remaining = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        List<String> current = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+            remaining.put(entry.getKey(), entry.getValue().size());
+            if (entry.getValue().isEmpty()) {
+                current.add(entry.getKey());
+            }
+            for (String dependency : entry.getValue()) {
+                List<String> list = dependents.get(dependency);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    dependents.put(dependency, list);
+                }
+                list.add(entry.getKey());
+            }
+        }
+        List<List<String>> layers = new ArrayList<>();
+        int layered = 0;
+        while (!current.isEmpty()) {
+            sort(current, infos);
+            layers.add(current);
+            layered += current.size();
+            List<String> next = new ArrayList<>();
+            for (String provider : current) {
+                List<String> list = dependents.get(provider);
+                if (list == null) {
+                    continue;
+                }
+                for (String dependent : list) {
+                    int count = remaining.get(dependent) - 1;
+                    remaining.put(dependent, count);
+                    if (count == 0) {
+                        next.add(dependent);
+                    }
+                }
+            }
+            current = next;
+        }
+        return layered == dependencies.size() ? layers : null;
+    }
+
+    /**
+     * 在不能分层的实现类里找一个环。
+     *
+     * @return 环上的实现类，第一个和最后一个相同；没有环时返回 null
+     */
+    static List<String> findCycle(Map<String, Set<String>> dependencies, List<List<String>> layers) {
+        Set<String> layered = new HashSet<>();
+        if (layers != null) {
+            for (List<String> layer : layers) {
+                layered.addAll(layer);
+            }
+        }
+        for (String start : new TreeSet<>(dependencies.keySet())) {
+            if (layered.contains(start)) {
+                continue;
+            }
+            // 不能分层的实现类至少依赖一个同样不能分层的实现类，一直走下去一定会回到走过的点
+            List<String> path = new ArrayList<>();
+            Map<String, Integer> visited = new HashMap<>();
+            String provider = start;
+            while (provider != null && !visited.containsKey(provider)) {
+                visited.put(provider, path.size());
+                path.add(provider);
+                String next = null;
+                for (String dependency : dependencies.get(provider)) {
+                    if (!layered.contains(dependency)) {
+                        next = dependency;
+                        break;
+                    }
+                }
+                provider = next;
+            }
+            if (provider != null) {
+                List<String> cycle = new ArrayList<>(path.subList(visited.get(provider), path.size()));
+                cycle.add(provider);
+                return cycle;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 给注册类加上 initPlan()。每个实现类的 rank 是它在整个计划里按 order、类名排序的下标，
+     * 同一个接口的实例按 rank 排序后和 get() 的顺序一致。
+     *
+     * 创建实例和添加步骤的方法和工厂方法一样放在嵌套类里，见 {@link NestedMethods}。
+     *
+     * @param services key 为实现类，value 为它注册的接口
+     */
+    static void addInitPlan(TypeSpec.Builder registry, ClassName registryName, List<List<String>> layers,
+                            Map<String, ProviderInfo> infos, Multimap<String, ClassName> services) {
+        List<List<ProviderInfo>> planned = new ArrayList<>();
+        List<ProviderInfo> ranked = new ArrayList<>();
+        for (List<String> layer : layers) {
+            List<ProviderInfo> steps = new ArrayList<>();
+            for (String provider : layer) {
+                ProviderInfo info = infos.get(provider);
+                if (info.instantiable && info.scope != Scope.THREAD && services.containsKey(provider)) {
+                    steps.add(info);
+                    ranked.add(info);
+                }
+            }
+            if (!steps.isEmpty()) {
+                planned.add(steps);
+            }
+        }
+        Collections.sort(ranked, RegistryGenerator.BY_ORDER);
+        Map<String, Integer> ranks = new HashMap<>();
+        for (int rank = 0; rank < ranked.size(); rank++) {
+            ranks.put(ranked.get(rank).binaryName, rank);
+        }
+
+        ClassName initStep = registryName.nestedClass("InitStep");
+        NestedMethods nested = new NestedMethods(registryName, "InitSteps");
+        TypeName classArray = ArrayTypeName.of(ParameterizedTypeName.get(ClassName.get(Class.class),
+                WildcardTypeName.subtypeOf(Object.class)));
+        registry.addType(TypeSpec.classBuilder(initStep.simpleName())
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .superclass(STEP)
+                .addField(TypeName.INT, "rank", Modifier.PRIVATE, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addParameter(TypeName.INT, "rank")
+                        .addParameter(String.class, "provider")
+                        .addParameter(classArray, "services")
+                        .varargs()
+                        .addStatement("super(rank, provider, services)")
+                        .addStatement("this.rank = rank")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("create")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PROTECTED)
+                        .returns(TypeName.OBJECT)
+                        .addStatement("return initCreate(rank)")
+                        .build())
+                .build());
+        addCreate(registry, nested, ranked);
+
+        TypeName listOfSteps = ParameterizedTypeName.get(LIST, STEP);
+        MethodSpec.Builder initPlan = MethodSpec.methodBuilder("initPlan")
+                .addJavadoc("按 dependsOn 分层的初始化计划，交给 {@link $T#initialize} 逐层并行创建，\n"
+                        + "同一层的实现类互不依赖。\n"
+                        + "<p>\n"
+                        + "THREAD 的实现类每个线程各一个实例，不在计划里，由使用它的线程第一次获取时创建；\n"
+                        + "dependsOn 依赖 THREAD 实现类时，计划不会提前创建它。\n"
+                        + "只有 SINGLETON 的实例和 get() 共享，PROTOTYPE 的实例只在返回的 Initialized 里。\n",
+                        PROVIDER_INITIALIZER)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(PLAN)
+                .addStatement("$T layers = new $T<>($L)", ParameterizedTypeName.get(LIST, listOfSteps), ARRAY_LIST,
+                        planned.size());
+        for (int index = 0; index < planned.size(); index++) {
+            List<ProviderInfo> steps = planned.get(index);
+            String name = "initLayer" + index;
+            MethodSpec.Builder layer = MethodSpec.methodBuilder(name)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(listOfSteps)
+                    .addStatement("$T steps = new $T<>($L)", listOfSteps, ARRAY_LIST, steps.size());
+            if (steps.size() <= STEPS_PER_METHOD) {
+                addSteps(layer, steps, initStep, ranks, services);
+                ClassName owner = nested.add(layer.addStatement("return steps").build(), steps.size());
+                initPlan.addStatement("layers.add($T.$N())", owner, name);
+                continue;
+            }
+            for (int part = 0; part * STEPS_PER_METHOD < steps.size(); part++) {
+                int end = Math.min(steps.size(), (part + 1) * STEPS_PER_METHOD);
+                MethodSpec.Builder partMethod = MethodSpec.methodBuilder(name + "Part" + part)
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                        .addParameter(listOfSteps, "steps");
+                List<ProviderInfo> partSteps = steps.subList(part * STEPS_PER_METHOD, end);
+                addSteps(partMethod, partSteps, initStep, ranks, services);
+                ClassName owner = nested.add(partMethod.build(), partSteps.size());
+                layer.addStatement("$T.$NPart$L(steps)", owner, name, part);
+            }
+            registry.addMethod(layer.addStatement("return steps").build());
+            initPlan.addStatement("layers.add($N())", name);
+        }
+        nested.addTo(registry);
+        registry.addMethod(initPlan.addStatement("return new $T(layers)", PLAN).build());
+    }
+
+    private static void addSteps(MethodSpec.Builder method, List<ProviderInfo> steps, ClassName initStep,
+                                 Map<String, Integer> ranks, Multimap<String, ClassName> services) {
+        for (ProviderInfo info : steps) {
+            CodeBlock.Builder classes = CodeBlock.builder();
+            for (ClassName service : services.get(info.binaryName)) {
+                classes.add(", $T.class", service);
+            }
+            method.addStatement("steps.add(new $T($L, $S$L))", initStep, ranks.get(info.binaryName), info.binaryName,
+                    classes.build());
+        }
+    }
+
+    /**
+     * initCreate(rank) 按 rank / 1000 选出创建实例的方法，再按 rank switch 到创建实例的表达式。
+     * 它由嵌套类 InitStep 调用，所以不是 private。
+     */
+    private static void addCreate(TypeSpec.Builder registry, NestedMethods nested, List<ProviderInfo> ranked) {
+        MethodSpec.Builder create = MethodSpec.methodBuilder("initCreate")
+                .addModifiers(Modifier.STATIC)
+                .returns(TypeName.OBJECT)
+                .addParameter(TypeName.INT, "rank")
+                .beginControlFlow("switch (rank / $L)", STEPS_PER_METHOD);
+        for (int part = 0; part * STEPS_PER_METHOD < ranked.size(); part++) {
+            int start = part * STEPS_PER_METHOD;
+            List<ProviderInfo> partRanked = ranked.subList(start, Math.min(ranked.size(), start + STEPS_PER_METHOD));
+            ClassName owner = nested.add(MethodSpec.methodBuilder("initCreate" + part)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(TypeName.OBJECT)
+                    .addParameter(TypeName.INT, "rank")
+                    .addCode(switchOf(partRanked, start))
+                    .build(), partRanked.size());
+            create.addCode("case $L:\n", part)
+                    .addCode(CodeBlock.builder().indent().addStatement("return $T.initCreate$L(rank)", owner, part)
+                            .unindent().build());
+        }
+        registry.addMethod(create.addCode("default:\n")
+                .addCode(CodeBlock.builder().indent()
+                        .addStatement("throw new $T(\"Unknown rank \" + rank)", IllegalArgumentException.class)
+                        .unindent().build())
+                .endControlFlow()
+                .build());
+    }
+
+    private static CodeBlock switchOf(List<ProviderInfo> providers, int firstRank) {
+        CodeBlock.Builder code = CodeBlock.builder().beginControlFlow("switch (rank)");
+        for (int i = 0; i < providers.size(); i++) {
+            code.add("case $L:\n", firstRank + i)
+                    .indent()
+                    .addStatement("return $L", providers.get(i).instance())
+                    .unindent();
+        }
+        return code.add("default:\n")
+                .indent()
+                .addStatement("throw new $T(\"Unknown rank \" + rank)", IllegalArgumentException.class)
+                .unindent()
+                .endControlFlow()
+                .build();
+    }
+
+    private static void sort(List<String> providers, final Map<String, ProviderInfo> infos) {
+        List<ProviderInfo> sorted = new ArrayList<>(providers.size());
+        for (String provider : providers) {
+            sorted.add(infos.get(provider));
+        }
+        Collections.sort(sorted, RegistryGenerator.BY_ORDER);
+        providers.clear();
+        for (ProviderInfo info : sorted) {
+            providers.add(info.binaryName);
+        }
+    }
+}
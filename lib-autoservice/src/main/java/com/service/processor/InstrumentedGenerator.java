@@ -0,0 +1,173 @@
+package com.service.processor;
+
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * 生成 &lt;实现类&gt;_Instrumented：和实现类在同一个包里，实现同样的接口，构造时创建实现类并记录耗时，
+ * 每个方法转发给实现类并记录调用次数、异常次数和耗时，数据写入运行时库的 com.service.runtime.ProviderMetrics。
+ * <p>
+ * 只在开启 autoservice.instrument 时生成，不开启时注册类直接创建实现类，没有任何额外开销。
+ *
+ * @author dengxiaoqiu
+ */
+final class InstrumentedGenerator {
+
+    static final String SUFFIX = "_Instrumented";
+
+    static final ClassName PROVIDER_METRICS = ClassName.get("com.service.runtime", "ProviderMetrics");
+    private static final ClassName PROVIDER_STATS = ClassName.get("com.service.runtime", "ProviderStats");
+    private static final ClassName METHOD_STATS = PROVIDER_STATS.nestedClass("MethodStats");
+
+    private static final String STATS = "STATS";
+    private static final String DELEGATE = "delegate";
+
+    private InstrumentedGenerator() {
+    }
+
+    static ClassName instrumentedClassName(ClassName provider) {
+        return ClassName.get(provider.packageName(), String.join("_", provider.simpleNames()) + SUFFIX);
+    }
+
+    /**
+     * @param services 实现类声明的接口，必须都是 interface
+     */
+    static JavaFile generate(TypeElement provider, String binaryName, Set<DeclaredType> services,
+                             Elements elements, Types types) {
+        ClassName providerName = ClassName.get(provider);
+        TypeSpec.Builder wrapper = TypeSpec.classBuilder(instrumentedClassName(providerName))
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addJavadoc("{@link $T} 的统计包装类，由 AutoServiceProcessor 生成，请勿修改。\n", providerName)
+                .addOriginatingElement(provider)
+                .addField(FieldSpec.builder(providerName, DELEGATE, Modifier.PRIVATE, Modifier.FINAL).build())
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PUBLIC)
+                        .addStatement("long start = $T.nanoTime()", System.class)
+                        .addStatement("$N = new $T()", DELEGATE, providerName)
+                        .addStatement("$N.instantiated($T.nanoTime() - start)", STATS, System.class)
+                        .build());
+
+        boolean unchecked = false;
+        Set<String> signatures = new HashSet<>();
+        List<String> methodNames = new ArrayList<>();
+        List<FieldSpec> methodFields = new ArrayList<>();
+        for (DeclaredType declared : services) {
+            DeclaredType service = LazyHandleGenerator.findSupertype(types, provider.asType(),
+                    (TypeElement) declared.asElement());
+            if (service == null) {
+                service = declared;
+            }
+            unchecked |= !service.getTypeArguments().isEmpty();
+            wrapper.addSuperinterface(TypeName.get(service));
+            TypeElement serviceElement = (TypeElement) service.asElement();
+            for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(serviceElement))) {
+                if (!LazyHandleGenerator.isDelegated(method)) {
+                    continue;
+                }
+                ExecutableType type = (ExecutableType) types.asMemberOf(service, method);
+                if (!signatures.add(LazyHandleGenerator.signature(method, type, types))) {
+                    continue;
+                }
+                String field = "METHOD_" + methodNames.size();
+                methodNames.add(statsName(method, type, types));
+                methodFields.add(FieldSpec.builder(METHOD_STATS, field, Modifier.PRIVATE, Modifier.STATIC,
+                                Modifier.FINAL)
+                        .initializer("$N.method($L)", STATS, methodNames.size() - 1)
+                        .build());
+                wrapper.addMethod(instrument(method, service, field, types));
+            }
+        }
+        if (unchecked) {
+            wrapper.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                    .addMember("value", "$S", "unchecked")
+                    .build());
+        }
+
+        CodeBlock.Builder register = CodeBlock.builder()
+                .add("$T.register($S$>$>", PROVIDER_METRICS, binaryName);
+        for (String methodName : methodNames) {
+            register.add(",\n$S", methodName);
+        }
+        // STATS 必须在 METHOD_n 之前初始化，JavaPoet 按添加顺序输出字段
+        wrapper.addField(FieldSpec.builder(PROVIDER_STATS, STATS, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer(register.add("$<$<)").build())
+                        .build())
+                .addFields(methodFields);
+
+        return JavaFile.builder(providerName.packageName(), wrapper.build())
+                .skipJavaLangImports(true)
+                .build();
+    }
+
+    /**
+     * 方法签名里的参数用擦除后的类型，例如 execute(java.lang.String,int)。
+     */
+    private static String statsName(ExecutableElement method, ExecutableType type, Types types) {
+        StringBuilder name = new StringBuilder(method.getSimpleName()).append('(');
+        String separator = "";
+        for (TypeMirror parameter : type.getParameterTypes()) {
+            name.append(separator).append(types.erasure(parameter));
+            separator = ",";
+        }
+        return name.append(')').toString();
+    }
+
+    private static MethodSpec instrument(ExecutableElement method, DeclaredType service, String field, Types types) {
+        MethodSpec.Builder builder = MethodSpec.overriding(method, service, types);
+        builder.modifiers.remove(Modifier.DEFAULT);
+        Set<String> names = new HashSet<>();
+        CodeBlock.Builder arguments = CodeBlock.builder();
+        String separator = "";
+        for (ParameterSpec parameter : builder.parameters) {
+            names.add(parameter.name);
+            arguments.add("$L$N", separator, parameter);
+            separator = ", ";
+        }
+        // 局部变量和字段不能被接口方法的参数名遮住
+        String start = unique("start", names);
+        String failure = unique("t", names);
+        String delegate = names.contains(DELEGATE) ? "this." + DELEGATE : DELEGATE;
+        String call = method.getReturnType().getKind() == TypeKind.VOID ? "" : "return ";
+        return builder
+                .addStatement("long $N = $T.nanoTime()", start, System.class)
+                .beginControlFlow("try")
+                .addStatement("$L$L.$N($L)", call, delegate, method.getSimpleName().toString(), arguments.build())
+                .nextControlFlow("catch ($T $N)", Throwable.class, failure)
+                .addStatement("$N.failed()", field)
+                .addStatement("throw $N", failure)
+                .nextControlFlow("finally")
+                .addStatement("$N.record($T.nanoTime() - $N)", field, System.class, start)
+                .endControlFlow()
+                .build();
+    }
+
+    private static String unique(String name, Set<String> taken) {
+        while (taken.contains(name)) {
+            name += "_";
+        }
+        return name;
+    }
+}
@@ -0,0 +1,551 @@
+package com.service.processor;
+
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * 生成 &lt;接口&gt;_Invoker_&lt;module&gt;：对接口的每个抽象方法生成一组静态方法，一次调用所有实现类。
+ * <ul>
+ * <li>m(...)：按 order 依次调用，返回每个实现类的结果；</li>
+ * <li>mUntilTrue(...)：只对返回 boolean 的方法生成，某个实现类返回 true 后不再调用后面的实现类；</li>
+ * <li>mParallel(executor, ...)：每个实现类提交到 executor 执行，返回按 order 排列结果的 CompletableFuture；</li>
+ * <li>mBatch(calls)：N 组参数一次传给所有实现类，外层按实现类、内层按参数循环。</li>
+ * </ul>
+ * 实现类实例从注册类获取，和注册类的 get() 一样遵守 scope：都是 SINGLETON 时取一次后保存在数组里，
+ * 有 THREAD 时每个线程保存一份，有 PROTOTYPE 的实现类或者工厂方法时每次调用都重新获取，见 {@link Instances}。
+ * 调用都是直接的接口调用，不经过反射。接口方法和调用类自己的 providers()、providerCount() 重名时，
+ * 生成的方法名后面加下划线。
+ *
+ * @author dengxiaoqiu
+ */
+final class InvokerGenerator {
+
+    static final String CLASS_INFIX = "_Invoker_";
+
+    private static final String PROVIDERS = "PROVIDERS";
+
+    /**
+     * 生成代码里用到的参数和局部变量名，接口方法的参数和它们重名时在后面加下划线。
+     */
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+            "executor", "calls", "inputs", "provider", "providers", "futures", "future", "results", "row", "batch",
+            "i", "j", "ignored", "e"));
+
+    /**
+     * 调用类自己的成员名，接口方法和它们重名时生成的方法名后面加下划线，例如 providers() 生成 providers_()。
+     */
+    private static final Set<String> RESERVED_MEMBERS = new HashSet<>(Arrays.asList(
+            "providers", "providerCount", PROVIDERS));
+
+    private static final ClassName LIST = ClassName.get(List.class);
+    private static final ClassName ARRAY_LIST = ClassName.get(ArrayList.class);
+    private static final ClassName ARRAYS = ClassName.get(Arrays.class);
+    private static final ClassName COMPLETABLE_FUTURE = ClassName.get(CompletableFuture.class);
+
+    /**
+     * 调用类怎样持有实现类实例，由接口下所有实现类的 scope 决定。
+     */
+    enum Instances {
+        /**
+         * 都是 SINGLETON：第一次使用调用类时从注册类取一次，之后一直复用。
+         */
+        SHARED,
+        /**
+         * 有 THREAD、没有 PROTOTYPE：实例数组放在 ThreadLocal 里，每个线程从注册类取一次。
+         */
+        PER_THREAD,
+        /**
+         * 有 PROTOTYPE 的实现类或者工厂方法：每次调用都从注册类重新获取，PROTOTYPE 的实现类每次都是新实例。
+         */
+        PER_CALL
+    }
+
+    private InvokerGenerator() {
+    }
+
+    static String invokerClassName(ClassName service, String module) {
+        return String.join("_", service.simpleNames()) + CLASS_INFIX + RegistryGenerator.sanitize(module);
+    }
+
+    /**
+     * 只支持没有类型参数的 public 接口，生成的类在注册类的包里，需要能访问接口和方法签名里的类型。
+     *
+     * @return 不能生成时返回原因，可以生成时返回 null
+     */
+    static String checkSupported(TypeElement service) {
+        if (service.getKind() != ElementKind.INTERFACE) {
+            return "not an interface";
+        }
+        if (!service.getTypeParameters().isEmpty()) {
+            return "generic interfaces are not supported";
+        }
+        if (!isAccessible(service)) {
+            return "not public";
+        }
+        return null;
+    }
+
+    /**
+     * @param instances 实现类实例的持有方式
+     * @return 没有可以生成的方法时返回 null
+     */
+    static JavaFile generate(String packageName, String className, ClassName registry, TypeElement service,
+                             Instances instances, Collection<? extends Element> originatingElements,
+                             Elements elements, Types types) {
+        ClassName serviceName = ClassName.get(service);
+        DeclaredType serviceType = (DeclaredType) service.asType();
+        TypeSpec.Builder invoker = TypeSpec.classBuilder(className)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addJavadoc("一次调用 {@link $T} 的所有实现类，由 AutoServiceProcessor 生成，请勿修改。\n<p>\n",
+                        serviceName)
+                .addJavadoc(instancesJavadoc(instances), registry)
+                .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
+        for (Element originatingElement : originatingElements) {
+            invoker.addOriginatingElement(originatingElement);
+        }
+
+        Map<String, Integer> overloads = new HashMap<>();
+        Set<String> signatures = new HashSet<>();
+        int methods = 0;
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(service))) {
+            if (!isInvoked(method)) {
+                continue;
+            }
+            ExecutableType type = (ExecutableType) types.asMemberOf(serviceType, method);
+            if (!isAccessible(type) || !signatures.add(signature(method, type, types))) {
+                continue;
+            }
+            String name = method.getSimpleName().toString();
+            Integer count = overloads.get(name);
+            overloads.put(name, count == null ? 1 : count + 1);
+            // 重载的方法 batch 参数擦除后都是 List，从第二个开始加上序号
+            String suffix = count == null ? "" : String.valueOf(count + 1);
+            new MethodWriter(invoker, packageName, className, serviceName, method, type, suffix, instances)
+                    .write();
+            methods++;
+        }
+        if (methods == 0) {
+            return null;
+        }
+
+        TypeName providers = ParameterizedTypeName.get(LIST, serviceName);
+        ArrayTypeName providerArray = ArrayTypeName.of(serviceName);
+        if (instances == Instances.PER_THREAD) {
+            TypeName threadLocal = ParameterizedTypeName.get(ClassName.get(ThreadLocal.class), providerArray);
+            invoker.addField(FieldSpec.builder(threadLocal, PROVIDERS, Modifier.PRIVATE, Modifier.STATIC,
+                            Modifier.FINAL)
+                    .initializer("$L", TypeSpec.anonymousClassBuilder("")
+                            .superclass(threadLocal)
+                            .addMethod(MethodSpec.methodBuilder("initialValue")
+                                    .addAnnotation(Override.class)
+                                    .addModifiers(Modifier.PROTECTED)
+                                    .returns(providerArray)
+                                    .addStatement("return providers()")
+                                    .build())
+                            .build())
+                    .build());
+        } else if (instances == Instances.SHARED) {
+            invoker.addField(FieldSpec.builder(providerArray, PROVIDERS, Modifier.PRIVATE, Modifier.STATIC,
+                            Modifier.FINAL)
+                    .initializer("providers()")
+                    .build());
+        }
+        invoker.addMethod(MethodSpec.methodBuilder("providers")
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                        .returns(providerArray)
+                        .addStatement("$T list = $T.get($T.class)", providers, registry, serviceName)
+                        .addStatement("return list.toArray(new $T[list.size()])", serviceName)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("providerCount")
+                        .addJavadoc("参与调用的实现类个数。\n")
+                        .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                        .returns(int.class)
+                        .addStatement("return $L.length", providersExpression(instances))
+                        .build());
+
+        return JavaFile.builder(packageName, invoker.build())
+                .skipJavaLangImports(true)
+                .build();
+    }
+
+    private static String instancesJavadoc(Instances instances) {
+        switch (instances) {
+            case PER_THREAD:
+                return "实现类实例在每个线程第一次使用这个类时从 {@link $T} 获取，之后在这个线程里一直复用。\n";
+            case PER_CALL:
+                return "每次调用都从 {@link $T} 获取实现类实例，PROTOTYPE 的实现类每次都是新实例。\n";
+            default:
+                return "实现类实例在第一次使用这个类时从 {@link $T} 获取，之后一直复用。\n";
+        }
+    }
+
+    /**
+     * @return 获取当前可以使用的实现类数组的表达式
+     */
+    private static String providersExpression(Instances instances) {
+        switch (instances) {
+            case PER_THREAD:
+                return PROVIDERS + ".get()";
+            case PER_CALL:
+                return "providers()";
+            default:
+                return PROVIDERS;
+        }
+    }
+
+    /**
+     * 接口里的抽象方法，跳过 default、static 方法和带类型参数的方法。
+     */
+    private static boolean isInvoked(ExecutableElement method) {
+        Set<Modifier> modifiers = method.getModifiers();
+        return method.getEnclosingElement().getKind() == ElementKind.INTERFACE
+                && modifiers.contains(Modifier.ABSTRACT)
+                && method.getTypeParameters().isEmpty();
+    }
+
+    private static String signature(ExecutableElement method, ExecutableType type, Types types) {
+        StringBuilder signature = new StringBuilder(method.getSimpleName()).append('(');
+        for (TypeMirror parameter : type.getParameterTypes()) {
+            signature.append(types.erasure(parameter)).append(',');
+        }
+        return signature.append(')').toString();
+    }
+
+    private static boolean isAccessible(ExecutableType type) {
+        for (TypeMirror parameter : type.getParameterTypes()) {
+            if (!isAccessible(parameter)) {
+                return false;
+            }
+        }
+        for (TypeMirror thrown : type.getThrownTypes()) {
+            if (!isAccessible(thrown)) {
+                return false;
+            }
+        }
+        return isAccessible(type.getReturnType());
+    }
+
+    private static boolean isAccessible(TypeMirror type) {
+        switch (type.getKind()) {
+            case DECLARED:
+                if (!isAccessible((TypeElement) ((DeclaredType) type).asElement())) {
+                    return false;
+                }
+                for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+                    if (!isAccessible(argument)) {
+                        return false;
+                    }
+                }
+                return true;
+            case ARRAY:
+                return isAccessible(((ArrayType) type).getComponentType());
+            case WILDCARD:
+                WildcardType wildcard = (WildcardType) type;
+                return (wildcard.getExtendsBound() == null || isAccessible(wildcard.getExtendsBound()))
+                        && (wildcard.getSuperBound() == null || isAccessible(wildcard.getSuperBound()));
+            case TYPEVAR:
+            case ERROR:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static boolean isAccessible(TypeElement type) {
+        Element element = type;
+        while (element.getKind().isClass() || element.getKind().isInterface()) {
+            if (!element.getModifiers().contains(Modifier.PUBLIC)) {
+                return false;
+            }
+            element = element.getEnclosingElement();
+        }
+        return true;
+    }
+
+    /**
+     * 为接口的一个方法生成 m、mUntilTrue、mParallel 和 mBatch。
+     */
+    private static final class MethodWriter {
+
+        private final TypeSpec.Builder invoker;
+        private final String packageName;
+        private final String className;
+        private final ClassName serviceName;
+        private final String name;
+        /**
+         * 生成的方法名的前缀，和调用类自己的成员重名时与 name 不同，见 {@link #RESERVED_MEMBERS}。
+         */
+        private final String invokerName;
+        private final String suffix;
+        private final List<TypeName> parameterTypes = new ArrayList<>();
+        private final List<String> parameterNames = new ArrayList<>();
+        private final List<TypeName> exceptions = new ArrayList<>();
+        private final TypeName returnType;
+        private final boolean isVoid;
+        private final CodeBlock arguments;
+        /**
+         * 方法里引用实现类数组的变量名，不是所有调用共用一个数组时先读到局部变量里。
+         */
+        private final String providers;
+        private final Instances instances;
+
+        MethodWriter(TypeSpec.Builder invoker, String packageName, String className, ClassName serviceName,
+                     ExecutableElement method, ExecutableType type, String suffix, Instances instances) {
+            this.invoker = invoker;
+            this.packageName = packageName;
+            this.className = className;
+            this.serviceName = serviceName;
+            this.name = method.getSimpleName().toString();
+            String invokerName = name;
+            while (RESERVED_MEMBERS.contains(invokerName)) {
+                invokerName += "_";
+            }
+            this.invokerName = invokerName;
+            this.suffix = suffix;
+            this.instances = instances;
+            this.providers = instances == Instances.SHARED ? PROVIDERS : "providers";
+            CodeBlock.Builder arguments = CodeBlock.builder();
+            for (int i = 0; i < type.getParameterTypes().size(); i++) {
+                String parameterName = method.getParameters().get(i).getSimpleName().toString();
+                while (RESERVED.contains(parameterName)) {
+                    parameterName += "_";
+                }
+                parameterTypes.add(TypeName.get(type.getParameterTypes().get(i)));
+                parameterNames.add(parameterName);
+                arguments.add("$L$N", i == 0 ? "" : ", ", parameterName);
+            }
+            for (TypeMirror thrown : type.getThrownTypes()) {
+                exceptions.add(TypeName.get(thrown));
+            }
+            this.arguments = arguments.build();
+            this.returnType = TypeName.get(type.getReturnType());
+            this.isVoid = type.getReturnType().getKind() == TypeKind.VOID;
+        }
+
+        void write() {
+            writeSequential();
+            if (returnType == TypeName.BOOLEAN) {
+                writeUntilTrue();
+            }
+            writeParallel();
+            if (!parameterTypes.isEmpty()) {
+                writeBatch();
+            }
+        }
+
+        private MethodSpec.Builder method(String methodName) {
+            MethodSpec.Builder builder = MethodSpec.methodBuilder(methodName)
+                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC);
+            if (instances != Instances.SHARED) {
+                builder.addStatement("$T[] $N = $L", serviceName, providers, providersExpression(instances));
+            }
+            return builder;
+        }
+
+        private MethodSpec.Builder addParameters(MethodSpec.Builder builder) {
+            for (int i = 0; i < parameterTypes.size(); i++) {
+                builder.addParameter(parameterTypes.get(i), parameterNames.get(i));
+            }
+            return builder;
+        }
+
+        private TypeName results() {
+            return ParameterizedTypeName.get(LIST, returnType.box());
+        }
+
+        private void writeSequential() {
+            MethodSpec.Builder sequential = addParameters(method(invokerName))
+                    .addExceptions(exceptions);
+            if (isVoid) {
+                sequential.addJavadoc("按 order 依次调用所有实现类的 {@link $T#$N}。\n", serviceName, name)
+                        .beginControlFlow("for ($T provider : $N)", serviceName, providers)
+                        .addStatement("provider.$N($L)", name, arguments)
+                        .endControlFlow();
+            } else {
+                sequential.addJavadoc("按 order 依次调用所有实现类的 {@link $T#$N}，返回每个实现类的结果。\n",
+                                serviceName, name)
+                        .returns(results())
+                        .addStatement("$T results = new $T<>($N.length)", results(), ARRAY_LIST, providers)
+                        .beginControlFlow("for ($T provider : $N)", serviceName, providers)
+                        .addStatement("results.add(provider.$N($L))", name, arguments)
+                        .endControlFlow()
+                        .addStatement("return results");
+            }
+            invoker.addMethod(sequential.build());
+        }
+
+        private void writeUntilTrue() {
+            invoker.addMethod(addParameters(method(invokerName + "UntilTrue"))
+                    .addJavadoc("按 order 依次调用 {@link $T#$N}，某个实现类返回 true 后不再调用后面的实现类。\n\n"
+                            + "@return 有实现类返回 true 时返回 true\n", serviceName, name)
+                    .addExceptions(exceptions)
+                    .returns(boolean.class)
+                    .beginControlFlow("for ($T provider : $N)", serviceName, providers)
+                    .beginControlFlow("if (provider.$N($L))", name, arguments)
+                    .addStatement("return true")
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("return false")
+                    .build());
+        }
+
+        private void writeParallel() {
+            TypeName futureType = ParameterizedTypeName.get(COMPLETABLE_FUTURE,
+                    isVoid ? ClassName.get(Void.class) : returnType.box());
+            MethodSpec.Builder parallel = method(invokerName + "Parallel")
+                    .addJavadoc("每个实现类的 {@link $T#$N} 作为一个任务提交到 executor，\n"
+                            + "传入虚拟线程的 executor 时每个实现类在各自的虚拟线程里执行。\n"
+                            + "任一实现类抛出异常时返回的 future 以这个异常结束。\n", serviceName, name)
+                    .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                            .addMember("value", "$S", "unchecked")
+                            .build())
+                    .addParameter(Executor.class, "executor");
+            addParameters(parallel)
+                    .returns(isVoid ? ParameterizedTypeName.get(COMPLETABLE_FUTURE, ClassName.get(Void.class))
+                            : ParameterizedTypeName.get(COMPLETABLE_FUTURE, results()))
+                    .addStatement("$T[] futures = ($T[]) new $T<?>[$N.length]", futureType, futureType, COMPLETABLE_FUTURE,
+                            providers)
+                    .beginControlFlow("for (int i = 0; i < $N.length; i++)", providers)
+                    .addStatement("$T provider = $N[i]", serviceName, providers);
+            String factory = isVoid ? "runAsync" : "supplyAsync";
+            if (exceptions.isEmpty()) {
+                parallel.addStatement("futures[i] = $T.$N(() -> provider.$N($L), executor)",
+                        COMPLETABLE_FUTURE, factory, name, arguments);
+            } else {
+                // 受检异常不能从 lambda 里直接抛出，包装成 CompletionException
+                parallel.addCode("futures[i] = $T.$N(() -> {\n", COMPLETABLE_FUTURE, factory)
+                        .addCode("$>")
+                        .beginControlFlow("try")
+                        .addStatement(isVoid ? "provider.$N($L)" : "return provider.$N($L)", name, arguments)
+                        .nextControlFlow("catch ($T e)", Exception.class)
+                        .addStatement("throw new $T(e)", CompletionException.class)
+                        .endControlFlow()
+                        .addCode("$<}, executor);\n");
+            }
+            parallel.endControlFlow();
+            if (isVoid) {
+                parallel.addStatement("return $T.allOf(futures)", COMPLETABLE_FUTURE);
+            } else {
+                parallel.addCode("return $T.allOf(futures).thenApply(ignored -> {\n", COMPLETABLE_FUTURE)
+                        .addCode("$>")
+                        .addStatement("$T results = new $T<>(futures.length)", results(), ARRAY_LIST)
+                        .beginControlFlow("for ($T future : futures)", futureType)
+                        .addStatement("results.add(future.join())")
+                        .endControlFlow()
+                        .addStatement("return results")
+                        .addCode("$<});\n");
+            }
+            invoker.addMethod(parallel.build());
+        }
+
+        /**
+         * 一个参数的方法直接传参数列表，多个参数时生成保存一组参数的 &lt;M&gt;Call 类。
+         */
+        private void writeBatch() {
+            TypeName input;
+            CodeBlock toArray;
+            CodeBlock callArguments;
+            if (parameterTypes.size() == 1) {
+                // 参数类型可能带类型参数，不能创建对应的数组，用 Object[] 再强转
+                input = parameterTypes.get(0).box();
+                toArray = CodeBlock.of("$T[] inputs = calls.toArray()", Object.class);
+                callArguments = CodeBlock.of("($T) inputs[j]", input);
+            } else {
+                ClassName call = writeCallClass();
+                input = call;
+                toArray = CodeBlock.of("$T[] inputs = calls.toArray(new $T[calls.size()])", call, call);
+                CodeBlock.Builder fields = CodeBlock.builder();
+                for (int i = 0; i < parameterNames.size(); i++) {
+                    fields.add("$Linputs[j].$N", i == 0 ? "" : ", ", parameterNames.get(i));
+                }
+                callArguments = fields.build();
+            }
+            TypeName batchResults = ParameterizedTypeName.get(LIST, results());
+            MethodSpec.Builder batch = method(invokerName + "Batch" + suffix)
+                    .addJavadoc("把每组参数依次传给所有实现类的 {@link $T#$N}，外层按实现类循环，"
+                            + "同一个实现类连续处理所有参数。\n", serviceName, name)
+                    .addParameter(ParameterizedTypeName.get(LIST, WildcardTypeName.subtypeOf(input)), "calls")
+                    .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                            .addMember("value", "$S", "unchecked")
+                            .build())
+                    .addExceptions(exceptions)
+                    .addStatement(toArray);
+            if (isVoid) {
+                batch.beginControlFlow("for ($T provider : $N)", serviceName, providers)
+                        .beginControlFlow("for (int j = 0; j < inputs.length; j++)")
+                        .addStatement("provider.$N($L)", name, callArguments)
+                        .endControlFlow()
+                        .endControlFlow();
+            } else {
+                batch.addJavadoc("\n@return 第 j 个元素是第 j 组参数在各个实现类上的结果，按 order 排列\n")
+                        .returns(batchResults)
+                        .addStatement("$T[][] results = new $T[inputs.length][$N.length]",
+                                Object.class, Object.class, providers)
+                        .beginControlFlow("for (int i = 0; i < $N.length; i++)", providers)
+                        .addStatement("$T provider = $N[i]", serviceName, providers)
+                        .beginControlFlow("for (int j = 0; j < inputs.length; j++)")
+                        .addStatement("results[j][i] = provider.$N($L)", name, callArguments)
+                        .endControlFlow()
+                        .endControlFlow()
+                        .addStatement("$T batch = new $T<>(results.length)", batchResults, ARRAY_LIST)
+                        .beginControlFlow("for ($T[] row : results)", Object.class)
+                        .addStatement("batch.add(($T) ($T<?>) $T.asList(row))", results(), LIST, ARRAYS)
+                        .endControlFlow()
+                        .addStatement("return batch");
+            }
+            invoker.addMethod(batch.build());
+        }
+
+        private ClassName writeCallClass() {
+            ClassName call = ClassName.get(packageName, className,
+                    Character.toUpperCase(invokerName.charAt(0)) + invokerName.substring(1) + suffix + "Call");
+            TypeSpec.Builder type = TypeSpec.classBuilder(call)
+                    .addJavadoc("{@link #$NBatch$L} 的一组参数。\n", invokerName, suffix)
+                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+            MethodSpec.Builder constructor = MethodSpec.constructorBuilder().addModifiers(Modifier.PUBLIC);
+            for (int i = 0; i < parameterTypes.size(); i++) {
+                type.addField(parameterTypes.get(i), parameterNames.get(i), Modifier.PUBLIC, Modifier.FINAL);
+                constructor.addParameter(parameterTypes.get(i), parameterNames.get(i))
+                        .addStatement("this.$N = $N", parameterNames.get(i), parameterNames.get(i));
+            }
+            invoker.addType(type.addMethod(constructor.build()).build());
+            return call;
+        }
+    }
+}
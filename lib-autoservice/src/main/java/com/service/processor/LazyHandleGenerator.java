@@ -0,0 +1,194 @@
+package com.service.processor;
+
+import com.service.annotations.LazyHandle;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * 生成 &lt;实现类&gt;_LazyHandle：和实现类在同一个包里，实现同样的接口，每个方法第一次调用时才创建实现类再转发。
+ * <p>
+ * 句柄里实现类的实例用 Object 保存，调用时强转成接口，只有真正执行 new 的时候虚拟机才会加载和初始化实现类。
+ *
+ * @author dengxiaoqiu
+ */
+final class LazyHandleGenerator {
+
+    static final String SUFFIX = "_LazyHandle";
+
+    private static final String INSTANCE = "instance";
+
+    private LazyHandleGenerator() {
+    }
+
+    /**
+     * 嵌套类的外部类名也拼进类名，例如 Outer.Inner 对应 Outer_Inner_LazyHandle。
+     */
+    static ClassName handleClassName(ClassName provider) {
+        return ClassName.get(provider.packageName(), String.join("_", provider.simpleNames()) + SUFFIX);
+    }
+
+    /**
+     * @param services 实现类声明的接口，必须都是 interface
+     * @param created  第一次调用时创建的类，开启统计时是统计包装类，否则是实现类本身
+     */
+    static JavaFile generate(TypeElement provider, String binaryName, int order, Set<DeclaredType> services,
+                             ClassName created, Elements elements, Types types) {
+        ClassName providerName = ClassName.get(provider);
+        TypeSpec.Builder handle = TypeSpec.classBuilder(handleClassName(providerName))
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addJavadoc("{@link $T} 的延迟加载句柄，由 AutoServiceProcessor 生成，请勿修改。\n", providerName)
+                .addOriginatingElement(provider)
+                .addField(FieldSpec.builder(Object.class, INSTANCE, Modifier.PRIVATE, Modifier.VOLATILE).build());
+
+        boolean unchecked = false;
+        Set<String> signatures = new HashSet<>();
+        for (DeclaredType declared : services) {
+            // 按实现类看到的类型参数生成方法签名，例如实现 Supplier<String> 时 get() 返回 String
+            DeclaredType service = findSupertype(types, provider.asType(), (TypeElement) declared.asElement());
+            if (service == null) {
+                service = declared;
+            }
+            TypeName serviceName = TypeName.get(service);
+            unchecked |= !service.getTypeArguments().isEmpty();
+            handle.addSuperinterface(serviceName);
+            TypeElement serviceElement = (TypeElement) service.asElement();
+            for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(serviceElement))) {
+                if (!isDelegated(method)
+                        || !signatures.add(signature(method, (ExecutableType) types.asMemberOf(service, method), types))) {
+                    continue;
+                }
+                handle.addMethod(delegate(method, service, serviceName, types));
+            }
+        }
+        if (unchecked) {
+            handle.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                    .addMember("value", "$S", "unchecked")
+                    .build());
+        }
+
+        handle.addSuperinterface(LazyHandle.class)
+                .addMethod(MethodSpec.methodBuilder("providerName")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(String.class)
+                        .addStatement("return $S", binaryName)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("providerOrder")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(int.class)
+                        .addStatement("return $L", order)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("isProviderLoaded")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(boolean.class)
+                        .addStatement("return $N != null", INSTANCE)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("provider")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(Object.class)
+                        .addStatement("$T result = $N", Object.class, INSTANCE)
+                        .beginControlFlow("if (result == null)")
+                        .beginControlFlow("synchronized (this)")
+                        .addStatement("result = $N", INSTANCE)
+                        .beginControlFlow("if (result == null)")
+                        .addStatement("result = new $T()", created)
+                        .addStatement("$N = result", INSTANCE)
+                        .endControlFlow()
+                        .endControlFlow()
+                        .endControlFlow()
+                        .addStatement("return result")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("toString")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(String.class)
+                        .addStatement("return $S", "LazyHandle(" + binaryName + ")")
+                        .build());
+
+        return JavaFile.builder(providerName.packageName(), handle.build())
+                .skipJavaLangImports(true)
+                .build();
+    }
+
+    /**
+     * 转发接口里所有可以覆盖的方法，包括 default 方法，实现类覆盖了 default 方法时同样生效。
+     */
+    static boolean isDelegated(ExecutableElement method) {
+        Element enclosing = method.getEnclosingElement();
+        Set<Modifier> modifiers = method.getModifiers();
+        return enclosing.getKind() == ElementKind.INTERFACE
+                && !modifiers.contains(Modifier.STATIC)
+                && !modifiers.contains(Modifier.PRIVATE);
+    }
+
+    private static MethodSpec delegate(ExecutableElement method, DeclaredType service, TypeName serviceName,
+                                       Types types) {
+        MethodSpec.Builder builder = MethodSpec.overriding(method, service, types);
+        builder.modifiers.remove(Modifier.DEFAULT);
+        CodeBlock.Builder arguments = CodeBlock.builder();
+        String separator = "";
+        for (ParameterSpec parameter : builder.parameters) {
+            arguments.add("$L$N", separator, parameter);
+            separator = ", ";
+        }
+        String call = method.getReturnType().getKind() == TypeKind.VOID ? "" : "return ";
+        return builder
+                .addStatement("$L(($T) provider()).$N($L)", call, serviceName, method.getSimpleName().toString(),
+                        arguments.build())
+                .build();
+    }
+
+    static String signature(ExecutableElement method, ExecutableType type, Types types) {
+        StringBuilder signature = new StringBuilder(method.getSimpleName()).append('(');
+        for (TypeMirror parameter : type.getParameterTypes()) {
+            signature.append(types.erasure(parameter)).append(',');
+        }
+        return signature.append(')').toString();
+    }
+
+    /**
+     * @return type 的父类型中元素为 target 的那个，带着实际的类型参数；找不到时返回 null
+     */
+    static DeclaredType findSupertype(Types types, TypeMirror type, TypeElement target) {
+        List<? extends TypeMirror> supertypes = types.directSupertypes(type);
+        for (TypeMirror supertype : supertypes) {
+            if (supertype.getKind() == TypeKind.DECLARED && ((DeclaredType) supertype).asElement().equals(target)) {
+                return (DeclaredType) supertype;
+            }
+        }
+        for (TypeMirror supertype : supertypes) {
+            DeclaredType found = findSupertype(types, supertype, target);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,68 @@
+package com.service.processor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 生成 GraalVM native-image 的 reflect-config.json 和 resource-config.json，
+ * 放在 META-INF/native-image/autoservice/&lt;module&gt;/ 下，native-image 构建时会自动读取。
+ * <p>
+ * 只登记 ServiceLoader 真正需要的内容：每个实现类的 public 无参构造方法，以及 service 文件和索引文件本身，
+ * 不使用 allDeclaredMethods 这类宽泛的配置，避免镜像变大。生成的注册类直接 new 实现类，不需要这些配置。
+ *
+ * @author dengxiaoqiu
+ */
+final class NativeImageConfigs {
+
+    static final String CONFIG_DIR = "META-INF/native-image/autoservice/";
+    static final String REFLECT_CONFIG = "reflect-config.json";
+    static final String RESOURCE_CONFIG = "resource-config.json";
+
+    private NativeImageConfigs() {
+    }
+
+    /**
+     * @return META-INF/native-image/autoservice/&lt;module&gt;/，模块名中不能用作目录名的字符替换成 _
+     */
+    static String configDir(String module) {
+        return CONFIG_DIR + RegistryGenerator.sanitize(module) + "/";
+    }
+
+    /**
+     * @param serviceFiles key 为接口，value 为写入 service 文件的实现类
+     */
+    static byte[] reflectConfig(Map<String, Map<String, Integer>> serviceFiles) {
+        TreeSet<String> providers = new TreeSet<>();
+        for (Map<String, Integer> serviceFile : serviceFiles.values()) {
+            providers.addAll(serviceFile.keySet());
+        }
+        StringBuilder json = new StringBuilder("[");
+        String separator = "\n";
+        for (String provider : providers) {
+            json.append(separator)
+                    .append("  {\"name\": \"").append(provider).append("\", ")
+                    .append("\"methods\": [{\"name\": \"<init>\", \"parameterTypes\": []}]}");
+            separator = ",\n";
+        }
+        json.append(providers.isEmpty() ? "]\n" : "\n]\n");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param resources 资源的完整路径，按字面匹配
+     */
+    static byte[] resourceConfig(Collection<String> resources) {
+        StringBuilder json = new StringBuilder("{\n  \"resources\": {\n    \"includes\": [");
+        String separator = "\n";
+        for (String resource : new TreeSet<>(resources)) {
+            // native-image 的 pattern 是正则，\Q...\E 之间按字面匹配，JSON 里反斜杠要转义
+            json.append(separator).append("      {\"pattern\": \"\\\\Q").append(resource).append("\\\\E\"}");
+            separator = ",\n";
+        }
+        json.append(resources.isEmpty() ? "]\n" : "\n    ]\n");
+        json.append("  },\n  \"bundles\": []\n}\n");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
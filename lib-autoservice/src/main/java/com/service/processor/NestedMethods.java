@@ -0,0 +1,63 @@
+package com.service.processor;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * 把生成的静态方法分到多个嵌套类里。
+ * <p>
+ * 拆方法只能解决 64KB 的方法大小限制，一个类的常量池还有 65535 项的上限：每创建一个实现类大约占用 6 项
+ * （Class、Methodref、NameAndType 和它们的 Utf8），几万个实现类全部放在同一个类里时 javac 会报 too many constants。
+ * 每个嵌套类有自己的常量池，外部类只引用嵌套类里的方法。
+ *
+ * @author dengxiaoqiu
+ */
+final class NestedMethods {
+
+    /**
+     * 每个嵌套类最多放多少条创建实例的语句，按每条 6 项估算，留出一半余量。
+     */
+    static final int STATEMENTS_PER_CLASS = 5000;
+
+    private final ClassName outer;
+    private final String prefix;
+    private final List<TypeSpec.Builder> classes = new ArrayList<>();
+    private int statements = STATEMENTS_PER_CLASS;
+
+    NestedMethods(ClassName outer, String prefix) {
+        this.outer = outer;
+        this.prefix = prefix;
+    }
+
+    /**
+     * 方法会被改成包内可见，外部类调用时不需要 javac 生成访问方法。
+     *
+     * @param statementCount 方法里创建实例的语句数
+     * @return 方法所在的嵌套类
+     */
+    ClassName add(MethodSpec method, int statementCount) {
+        if (statements + statementCount > STATEMENTS_PER_CLASS) {
+            classes.add(TypeSpec.classBuilder(prefix + classes.size())
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build()));
+            statements = 0;
+        }
+        statements += statementCount;
+        MethodSpec.Builder builder = method.toBuilder();
+        builder.modifiers.remove(Modifier.PRIVATE);
+        classes.get(classes.size() - 1).addMethod(builder.build());
+        return outer.nestedClass(prefix + (classes.size() - 1));
+    }
+
+    void addTo(TypeSpec.Builder outerType) {
+        for (TypeSpec.Builder nested : classes) {
+            outerType.addType(nested.build());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.service.processor;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 处理器自身的耗时统计，开启 autoservice.metrics 时才记录，关闭时所有方法直接返回。
+ * 结果以 JSON 写出，方便 CI 按时间跟踪编译耗时的变化。时间单位都是纳秒。
+ *
+ * @author dengxiaoqiu
+ */
+final class ProcessorMetrics {
+
+    private final boolean enabled;
+    private final List<Round> rounds = new ArrayList<>();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Set<String> interfaces = new HashSet<>();
+
+    private Round current;
+    private long elements;
+    private long providers;
+    private long verificationNanos;
+    private long filesWritten;
+    private long sourcesWritten;
+    private final List<CountingInputStream> reads = new ArrayList<>();
+    private final List<CountingOutputStream> writes = new ArrayList<>();
+
+    ProcessorMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void beginRound(boolean processingOver) {
+        if (!enabled) {
+            return;
+        }
+        current = new Round(rounds.size() + 1, processingOver, System.nanoTime());
+        rounds.add(current);
+    }
+
+    void endRound() {
+        if (!enabled || current == null) {
+            return;
+        }
+        current.nanos = System.nanoTime() - current.start;
+        current = null;
+    }
+
+    void elementProcessed() {
+        if (!enabled) {
+            return;
+        }
+        elements++;
+        if (current != null) {
+            current.elements++;
+        }
+    }
+
+    void providerRegistered(String providerInterface) {
+        if (!enabled) {
+            return;
+        }
+        providers++;
+        interfaces.add(providerInterface);
+        if (current != null) {
+            current.interfaces.add(providerInterface);
+        }
+    }
+
+    /**
+     * @return 开始时间，传给 {@link #endPhase(String, long)} 或 {@link #endVerification(long)}
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    void endPhase(String phase, long start) {
+        if (!enabled) {
+            return;
+        }
+        Long previous = phases.get(phase);
+        phases.put(phase, (previous == null ? 0L : previous) + System.nanoTime() - start);
+    }
+
+    void endVerification(long start) {
+        if (enabled) {
+            verificationNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * 统计从 CLASS_OUTPUT 读取的字节数。
+     */
+    InputStream countReads(InputStream input) {
+        if (!enabled) {
+            return input;
+        }
+        CountingInputStream counting = new CountingInputStream(input);
+        reads.add(counting);
+        return counting;
+    }
+
+    /**
+     * 统计写入 CLASS_OUTPUT 的字节数。
+     */
+    OutputStream countWrites(OutputStream output) {
+        if (!enabled) {
+            return output;
+        }
+        filesWritten++;
+        CountingOutputStream counting = new CountingOutputStream(output);
+        writes.add(counting);
+        return counting;
+    }
+
+    void sourceWritten() {
+        if (enabled) {
+            sourcesWritten++;
+        }
+    }
+
+    void writeJson(Writer writer) throws IOException {
+        long bytesRead = 0;
+        for (CountingInputStream read : reads) {
+            bytesRead += read.getCount();
+        }
+        long bytesWritten = 0;
+        for (CountingOutputStream write : writes) {
+            bytesWritten += write.getCount();
+        }
+        long totalNanos = 0;
+        for (Round round : rounds) {
+            totalNanos += round.nanos;
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"processor\": \"").append(AutoServiceProcessor.class.getName()).append("\",\n");
+        json.append("  \"totalNanos\": ").append(totalNanos).append(",\n");
+        json.append("  \"elements\": ").append(elements).append(",\n");
+        json.append("  \"providers\": ").append(providers).append(",\n");
+        json.append("  \"interfaces\": ").append(interfaces.size()).append(",\n");
+        json.append("  \"verificationNanos\": ").append(verificationNanos).append(",\n");
+        json.append("  \"classOutputBytesRead\": ").append(bytesRead).append(",\n");
+        json.append("  \"classOutputBytesWritten\": ").append(bytesWritten).append(",\n");
+        json.append("  \"classOutputFilesWritten\": ").append(filesWritten).append(",\n");
+        json.append("  \"sourceFilesWritten\": ").append(sourcesWritten).append(",\n");
+        json.append("  \"phases\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            json.append(separator).append("    \"").append(phase.getKey()).append("Nanos\": ").append(phase.getValue());
+            separator = ",\n";
+        }
+        json.append(phases.isEmpty() ? "},\n" : "\n  },\n");
+        json.append("  \"rounds\": [");
+        separator = "\n";
+        for (Round round : rounds) {
+            json.append(separator)
+                    .append("    {\"round\": ").append(round.index)
+                    .append(", \"processingOver\": ").append(round.processingOver)
+                    .append(", \"nanos\": ").append(round.nanos)
+                    .append(", \"elements\": ").append(round.elements)
+                    .append(", \"interfaces\": ").append(round.interfaces.size())
+                    .append('}');
+            separator = ",\n";
+        }
+        json.append(rounds.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        writer.write(json.toString());
+        writer.flush();
+    }
+
+    private static final class Round {
+        final int index;
+        final boolean processingOver;
+        final long start;
+        final Set<String> interfaces = new HashSet<>();
+        long nanos;
+        long elements;
+
+        Round(int index, boolean processingOver, long start) {
+            this.index = index;
+            this.processingOver = processingOver;
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.service.processor;
+
+import com.service.annotations.Scope;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+
+import java.util.List;
+
+/**
+ * 生成代码时需要的实现类信息。
+ * 只保存名字这类不可变的数据，不持有 Element，避免跨轮次引用到失效的符号。
+ *
+ * @author dengxiaoqiu
+ */
+final class ProviderInfo {
+
+    /**
+     * 实现类的 binary name；工厂方法是 &lt;声明它的类&gt;#&lt;方法名&gt;，例如 com.google.Foo$Bar#create。
+     */
+    final String binaryName;
+    final ClassName className;
+    /**
+     * 标注在工厂方法上时为方法名，className 是声明它的类；标注在类上时为 null。
+     */
+    final String factoryMethod;
+    /**
+     * 是否能在生成的代码里直接 new：public、非抽象、外部类也是 public，并且有 public 无参构造方法。
+     * 工厂方法通过检查后总是为 true。
+     */
+    final boolean instantiable;
+    /**
+     * AutoService#order() 的值。
+     */
+    final int order;
+    /**
+     * 延迟加载时注册类创建的句柄类，不延迟加载时为 null。
+     */
+    final ClassName lazyHandle;
+    /**
+     * 开启 autoservice.instrument 时的统计包装类，没有开启时为 null。
+     */
+    final ClassName instrumented;
+    /**
+     * AutoService#scope() 的值；非 PROTOTYPE 时 holder 是生成的 &lt;实现类&gt;_Holder，实例都从它获取。
+     */
+    final Scope scope;
+    final ClassName holder;
+    /**
+     * AutoService#keys() 和 AutoService#intKeys() 的值，生成分发类时使用。
+     */
+    final List<String> keys;
+    final List<Integer> intKeys;
+    /**
+     * AutoService#dependsOn() 中接口的 binary name，生成初始化计划时使用。
+     */
+    final List<String> dependsOn;
+
+    ProviderInfo(String binaryName, ClassName className, String factoryMethod, boolean instantiable, int order,
+                 ClassName lazyHandle, ClassName instrumented, Scope scope, ClassName holder, List<String> keys,
+                 List<Integer> intKeys, List<String> dependsOn) {
+        this.binaryName = binaryName;
+        this.className = className;
+        this.factoryMethod = factoryMethod;
+        this.instantiable = instantiable;
+        this.order = order;
+        this.lazyHandle = lazyHandle;
+        this.instrumented = instrumented;
+        this.scope = scope;
+        this.holder = holder;
+        this.keys = keys;
+        this.intKeys = intKeys;
+        this.dependsOn = dependsOn;
+    }
+
+    /**
+     * 注册类和分发类里 new 的类：延迟加载句柄优先，其次是统计包装类，都没有时是实现类本身。
+     */
+    ClassName createdClass() {
+        if (lazyHandle != null) {
+            return lazyHandle;
+        }
+        return instrumented != null ? instrumented : className;
+    }
+
+    /**
+     * 生成代码里获取一个实例的表达式：工厂方法直接调用，有 holder 时从 holder 取，否则直接 new。
+     */
+    CodeBlock instance() {
+        if (factoryMethod != null) {
+            return CodeBlock.of("$T.$N()", className, factoryMethod);
+        }
+        return holder != null ? CodeBlock.of("$T.get()", holder) : CodeBlock.of("new $T()", createdClass());
+    }
+
+    boolean hasKeys() {
+        return !keys.isEmpty() || !intKeys.isEmpty();
+    }
+}
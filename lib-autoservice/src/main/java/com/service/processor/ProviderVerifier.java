@@ -0,0 +1,161 @@
+package com.service.processor;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+
+/**
+ * 检查实现类能否被 ServiceLoader 加载：实现了声明的接口、是具体类、可以访问、有 public 无参构造方法。
+ * <p>
+ * 每个类型的全部父类型（按擦除后的 TypeElement）只计算一次，同一继承体系下的实现类共用父类的结果，
+ * 检查结果也按实现类缓存，所以默认开启也几乎没有开销。javac 每一轮可能重新创建符号，每轮开始时调用 {@link #reset()}。
+ *
+ * @author dengxiaoqiu
+ */
+final class ProviderVerifier {
+
+    private final Types types;
+    private final Map<TypeElement, Set<TypeElement>> supertypes = new HashMap<>();
+    /**
+     * value 为错误信息，可以实例化时为空字符串。
+     */
+    private final Map<TypeElement, String> problems = new HashMap<>();
+
+    ProviderVerifier(Types types) {
+        this.types = types;
+    }
+
+    void reset() {
+        supertypes.clear();
+        problems.clear();
+    }
+
+    /**
+     * 按擦除后的类型判断，实现泛型接口时不需要关心类型参数。
+     */
+    boolean isSubtype(TypeElement type, TypeElement superType) {
+        return supertypes(type).contains(superType);
+    }
+
+    /**
+     * @return type 本身以及所有父类、接口
+     */
+    private Set<TypeElement> supertypes(TypeElement type) {
+        Set<TypeElement> closure = supertypes.get(type);
+        if (closure != null) {
+            return closure;
+        }
+        closure = new HashSet<>();
+        closure.add(type);
+        for (TypeMirror supertype : types.directSupertypes(type.asType())) {
+            if (supertype.getKind() == TypeKind.DECLARED) {
+                closure.addAll(supertypes((TypeElement) ((DeclaredType) supertype).asElement()));
+            }
+        }
+        supertypes.put(type, closure);
+        return closure;
+    }
+
+    boolean isInstantiable(TypeElement provider) {
+        return checkInstantiable(provider) == null;
+    }
+
+    /**
+     * 这些问题如果留到运行时，会在遍历 ServiceLoader 时以反射异常的形式出现。
+     *
+     * @return 错误信息，可以实例化时返回 null
+     */
+    String checkInstantiable(TypeElement provider) {
+        String problem = problems.get(provider);
+        if (problem == null) {
+            problem = findProblem(provider);
+            if (problem == null) {
+                problem = "";
+            }
+            problems.put(provider, problem);
+        }
+        return problem.isEmpty() ? null : problem;
+    }
+
+    private static String findProblem(TypeElement provider) {
+        if (provider.getKind() != ElementKind.CLASS || provider.getModifiers().contains(Modifier.ABSTRACT)) {
+            return "ServiceProviders must be concrete classes. " + provider.getQualifiedName()
+                    + " is abstract or not a class";
+        }
+        for (Element e = provider; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            Set<Modifier> modifiers = e.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC)) {
+                return "ServiceProviders must be public. " + ((TypeElement) e).getQualifiedName() + " is not public";
+            }
+            if (e.getEnclosingElement() instanceof TypeElement && !modifiers.contains(Modifier.STATIC)) {
+                return "Nested ServiceProviders must be static. " + ((TypeElement) e).getQualifiedName()
+                        + " is an inner class";
+            }
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(provider.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return null;
+            }
+        }
+        return "ServiceProviders must have a public no-arg constructor. " + provider.getQualifiedName()
+                + " does not have one";
+    }
+
+    /**
+     * 工厂方法由生成的注册类直接调用：必须是可以访问的 public static 无参方法，返回类或接口，不能抛出受检异常。
+     * 返回类型是否实现了声明的接口由调用方用 {@link #isSubtype} 检查。
+     *
+     * @return 错误信息，可以调用时返回 null
+     */
+    String checkFactory(ExecutableElement factory) {
+        TypeElement owner = (TypeElement) factory.getEnclosingElement();
+        String name = owner.getQualifiedName() + "." + factory.getSimpleName() + "()";
+        Set<Modifier> modifiers = factory.getModifiers();
+        if (!modifiers.contains(Modifier.PUBLIC) || !modifiers.contains(Modifier.STATIC)) {
+            return "AutoService factory methods must be public static. " + name + " is not";
+        }
+        if (!factory.getParameters().isEmpty() || !factory.getTypeParameters().isEmpty()) {
+            return "AutoService factory methods must not have parameters or type parameters. " + name + " has";
+        }
+        if (factory.getReturnType().getKind() != TypeKind.DECLARED) {
+            return "AutoService factory methods must return a class or interface. " + name + " returns "
+                    + factory.getReturnType();
+        }
+        for (Element e = owner; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            Set<Modifier> ownerModifiers = e.getModifiers();
+            if (!ownerModifiers.contains(Modifier.PUBLIC)
+                    || e.getEnclosingElement() instanceof TypeElement && !ownerModifiers.contains(Modifier.STATIC)) {
+                return "AutoService factory methods must be declared in public static classes. "
+                        + ((TypeElement) e).getQualifiedName() + " is not";
+            }
+        }
+        for (TypeMirror thrown : factory.getThrownTypes()) {
+            if (thrown.getKind() == TypeKind.DECLARED && isChecked((TypeElement) ((DeclaredType) thrown).asElement())) {
+                return "AutoService factory methods must not throw checked exceptions. " + name + " throws " + thrown;
+            }
+        }
+        return null;
+    }
+
+    private boolean isChecked(TypeElement exception) {
+        for (TypeElement supertype : supertypes(exception)) {
+            String name = supertype.getQualifiedName().toString();
+            if (name.equals(RuntimeException.class.getName()) || name.equals(Error.class.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,217 @@
+package com.service.processor;
+
+import com.google.common.collect.Multimap;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+
+/**
+ * 生成 AutoServiceRegistry_&lt;module&gt;：每个接口对应一个直接 new 实现类的工厂方法，
+ * 运行时按接口名 switch 即可拿到实例，不需要读取 META-INF/services，也不经过反射。
+ *
+ * @author dengxiaoqiu
+ */
+final class RegistryGenerator {
+
+    static final String DEFAULT_PACKAGE = "com.service.registry";
+    static final String CLASS_PREFIX = "AutoServiceRegistry_";
+
+    private static final ClassName LIST = ClassName.get(List.class);
+    private static final ClassName ARRAY_LIST = ClassName.get(ArrayList.class);
+    private static final ClassName COLLECTIONS = ClassName.get(Collections.class);
+    private static final ClassName CLASS = ClassName.get(Class.class);
+
+    static final Comparator<ProviderInfo> BY_ORDER = new Comparator<ProviderInfo>() {
+        @Override
+        public int compare(ProviderInfo a, ProviderInfo b) {
+            int result = Integer.compare(a.order, b.order);
+            return result != 0 ? result : a.binaryName.compareTo(b.binaryName);
+        }
+    };
+
+    /**
+     * 每个 lookup 方法里 switch 的 case 数和每个工厂方法里 new 的个数上限，保证方法不超过 64KB。
+     */
+    private static final int CASES_PER_METHOD = 1000;
+    private static final int PROVIDERS_PER_METHOD = 1000;
+
+    private RegistryGenerator() {
+    }
+
+    /**
+     * 把模块名转换成合法的类名后缀，例如 lib-foo 转换成 lib_foo。
+     */
+    static String registryClassName(String module) {
+        return CLASS_PREFIX + sanitize(module);
+    }
+
+    static String sanitize(String module) {
+        StringBuilder name = new StringBuilder(module.length());
+        for (int i = 0; i < module.length(); i++) {
+            char c = module.charAt(i);
+            name.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return name.toString();
+    }
+
+    /**
+     * @param initLayers       按 dependsOn 分层的实现类，为 null 时不生成 initPlan()
+     * @param providerServices key 为实现类，value 为它注册的接口，生成 initPlan() 时使用
+     */
+    static JavaFile generate(String packageName, String className,
+                             Multimap<String, String> providers, Map<String, ProviderInfo> infos,
+                             List<List<String>> initLayers, Multimap<String, ClassName> providerServices,
+                             Collection<? extends Element> originatingElements) {
+        TypeVariableName t = TypeVariableName.get("T");
+        ParameterizedTypeName listOfT = ParameterizedTypeName.get(LIST, t);
+        ParameterizedTypeName listOfObject = ParameterizedTypeName.get(LIST, TypeName.OBJECT);
+
+        TypeSpec.Builder registry = TypeSpec.classBuilder(className)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addJavadoc("由 AutoServiceProcessor 生成，请勿修改。\n")
+                .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
+        for (Element originatingElement : originatingElements) {
+            registry.addOriginatingElement(originatingElement);
+        }
+
+        // 接口按名字排序、实现类按 order 排序，保证相同输入生成的源码完全一致。
+        List<String> services = new ArrayList<>();
+        List<List<ProviderInfo>> serviceProviders = new ArrayList<>();
+        for (String providerInterface : new TreeSet<>(providers.keySet())) {
+            List<ProviderInfo> instantiable = instantiableProviders(providers.get(providerInterface), infos);
+            if (!instantiable.isEmpty()) {
+                services.add(providerInterface);
+                serviceProviders.add(instantiable);
+            }
+        }
+
+        // 单个方法的字节码不能超过 64KB，接口或实现类很多时拆成多个方法；创建实例的方法放在嵌套类里，
+        // 避免注册类的常量池超过上限
+        NestedMethods factories = new NestedMethods(ClassName.get(packageName, className), "Factories");
+        int lookupCount = Math.max(1, (services.size() + CASES_PER_METHOD - 1) / CASES_PER_METHOD);
+        for (int lookupIndex = 0; lookupIndex < lookupCount; lookupIndex++) {
+            CodeBlock.Builder lookup = CodeBlock.builder().beginControlFlow("switch (name)");
+            int end = Math.min(services.size(), (lookupIndex + 1) * CASES_PER_METHOD);
+            for (int index = lookupIndex * CASES_PER_METHOD; index < end; index++) {
+                lookup.add("case $S:\n", services.get(index))
+                        .indent()
+                        .addStatement("return $L", addFactory(registry, factories, "create" + index,
+                                serviceProviders.get(index)))
+                        .unindent();
+            }
+            lookup.add("default:\n")
+                    .indent()
+                    .addStatement("return null")
+                    .unindent()
+                    .endControlFlow();
+            registry.addMethod(MethodSpec.methodBuilder("lookup" + lookupIndex)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(listOfObject)
+                    .addParameter(String.class, "name")
+                    .addCode(lookup.build())
+                    .build());
+        }
+
+        factories.addTo(registry);
+
+        MethodSpec.Builder get = MethodSpec.methodBuilder("get")
+                .addJavadoc("返回 service 所有实现类的实例，没有注册实现类时返回空列表。\n"
+                        + "PROTOTYPE 的实现类每次都是新实例，SINGLETON 和 THREAD 的实现类按 scope 复用。\n")
+                .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                        .addMember("value", "$S", "unchecked")
+                        .build())
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addTypeVariable(t)
+                .returns(listOfT)
+                .addParameter(ParameterizedTypeName.get(CLASS, t), "service")
+                .addStatement("$T name = service.getName()", String.class)
+                .addStatement("$T providers = lookup0(name)", listOfObject);
+        for (int lookupIndex = 1; lookupIndex < lookupCount; lookupIndex++) {
+            get.beginControlFlow("if (providers == null)")
+                    .addStatement("providers = lookup$L(name)", lookupIndex)
+                    .endControlFlow();
+        }
+        registry.addMethod(get
+                .addStatement("return providers != null ? ($T) ($T<?>) providers : $T.<T>emptyList()",
+                        listOfT, LIST, COLLECTIONS)
+                .build());
+
+        if (initLayers != null) {
+            InitPlanGenerator.addInitPlan(registry, ClassName.get(packageName, className), initLayers, infos,
+                    providerServices);
+        }
+
+        return JavaFile.builder(packageName, registry.build())
+                .skipJavaLangImports(true)
+                .build();
+    }
+
+    /**
+     * @return 调用工厂方法的表达式
+     */
+    private static CodeBlock addFactory(TypeSpec.Builder registry, NestedMethods factories, String name,
+                                        List<ProviderInfo> providers) {
+        ParameterizedTypeName listOfObject = ParameterizedTypeName.get(LIST, TypeName.OBJECT);
+        MethodSpec.Builder factory = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(listOfObject)
+                .addStatement("$T providers = new $T<>($L)", listOfObject, ARRAY_LIST, providers.size());
+        if (providers.size() <= PROVIDERS_PER_METHOD) {
+            addProviders(factory, providers);
+            ClassName nested = factories.add(factory.addStatement("return providers").build(), providers.size());
+            return CodeBlock.of("$T.$N()", nested, name);
+        }
+        for (int part = 0; part * PROVIDERS_PER_METHOD < providers.size(); part++) {
+            int end = Math.min(providers.size(), (part + 1) * PROVIDERS_PER_METHOD);
+            MethodSpec.Builder partFactory = MethodSpec.methodBuilder(name + "Part" + part)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .addParameter(listOfObject, "providers");
+            List<ProviderInfo> partProviders = providers.subList(part * PROVIDERS_PER_METHOD, end);
+            addProviders(partFactory, partProviders);
+            ClassName nested = factories.add(partFactory.build(), partProviders.size());
+            factory.addStatement("$T.$NPart$L(providers)", nested, name, part);
+        }
+        registry.addMethod(factory.addStatement("return providers").build());
+        return CodeBlock.of("$N()", name);
+    }
+
+    private static void addProviders(MethodSpec.Builder factory, List<ProviderInfo> providers) {
+        for (ProviderInfo info : providers) {
+            // 延迟加载的实现类只创建句柄，第一次调用接口方法时才加载实现类；声明了 scope 的从 holder 获取
+            factory.addStatement("providers.add($L)", info.instance());
+        }
+    }
+
+    /**
+     * 和 service 文件一样按 order、类名排序。
+     */
+    private static List<ProviderInfo> instantiableProviders(Collection<String> binaryNames,
+                                                            Map<String, ProviderInfo> infos) {
+        List<ProviderInfo> result = new ArrayList<>(binaryNames.size());
+        for (String binaryName : binaryNames) {
+            ProviderInfo info = infos.get(binaryName);
+            if (info != null && info.instantiable) {
+                result.add(info);
+            }
+        }
+        Collections.sort(result, BY_ORDER);
+        return result;
+    }
+}
@@ -0,0 +1,187 @@
+package com.service.processor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 把多个 jar / 目录中的 META-INF/services 合并成一个索引文件，运行时只需要读一次资源。
+ * <p>
+ * 索引格式沿用 service 文件的写法，只是多了 [接口名] 分组：
+ * <pre>
+ * [com.zlj.autoservice.MyServiceImpl]
+ * com.zlj.autoservice.MyServiceImplOne
+ * com.zlj.autoservice.MyServiceImplTwo # order=1
+ * </pre>
+ *
+ * @author dengxiaoqiu
+ */
+final class ServiceIndexes {
+
+    static final String INDEX_FILE = "META-INF/autoservice/services.index";
+    static final String SERVICES_DIR = "META-INF/services/";
+
+    /**
+     * 处理器自己写进 service 文件的条目，格式和 {@link #INDEX_FILE} 相同。
+     * 增量编译时只重新合并这里记录的 service 文件，手写的 service 文件和条目保持原样。
+     */
+    static final String GENERATED_FILE = "META-INF/autoservice/generated.index";
+
+    private ServiceIndexes() {
+    }
+
+    /**
+     * 按 classpath 顺序读取每个 jar 或目录中的 service 文件并合并进 index，已经存在的实现类不会被覆盖。
+     */
+    static void readClasspath(Iterable<File> entries, Map<String, Map<String, Integer>> index) throws IOException {
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                readDirectory(entry, index);
+            } else if (entry.isFile()) {
+                readJar(entry, index);
+            }
+        }
+    }
+
+    static void merge(Map<String, Map<String, Integer>> index, String service, Map<String, Integer> providers) {
+        Map<String, Integer> merged = index.get(service);
+        if (merged == null) {
+            merged = new LinkedHashMap<>();
+            index.put(service, merged);
+        }
+        for (Map.Entry<String, Integer> provider : providers.entrySet()) {
+            if (!merged.containsKey(provider.getKey())) {
+                merged.put(provider.getKey(), provider.getValue());
+            }
+        }
+    }
+
+    /**
+     * 接口按名字排序；同一接口下按 order 稳定排序，order 相同时保持 classpath 顺序，和运行时合并多个 jar 的结果一致。
+     * 换行固定为 \n，保证输出和平台无关。
+     */
+    static void writeIndex(Map<String, Map<String, Integer>> index, OutputStream output) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        for (Map.Entry<String, Map<String, Integer>> service : new TreeMap<>(index).entrySet()) {
+            Map<String, Integer> providers = sortByOrder(service.getValue());
+            if (providers.isEmpty()) {
+                continue;
+            }
+            writer.write('[');
+            writer.write(service.getKey());
+            writer.write(']');
+            writer.write('\n');
+            for (String provider : providers.keySet()) {
+                writer.write(provider);
+                int order = providers.get(provider);
+                if (order != 0) {
+                    writer.write(' ');
+                    writer.write(ServicesFiles.ORDER_COMMENT);
+                    writer.write(Integer.toString(order));
+                }
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * 读取 {@link #writeIndex} 写出的索引，key 为接口，value 为实现类，忽略 order 注释。
+     */
+    static Map<String, Set<String>> readIndex(InputStream input) throws IOException {
+        Map<String, Set<String>> index = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            Set<String> providers = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                line = (comment < 0 ? line : line.substring(0, comment)).trim();
+                if (line.startsWith("[") && line.endsWith("]")) {
+                    providers = new LinkedHashSet<>();
+                    index.put(line.substring(1, line.length() - 1).trim(), providers);
+                } else if (!line.isEmpty() && providers != null) {
+                    providers.add(line);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 按 order 稳定排序，order 相同时保持原来的顺序。
+     */
+    static Map<String, Integer> sortByOrder(final Map<String, Integer> providers) {
+        List<String> sorted = new ArrayList<>(providers.keySet());
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Integer.compare(providers.get(a), providers.get(b));
+            }
+        });
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (String provider : sorted) {
+            result.put(provider, providers.get(provider));
+        }
+        return result;
+    }
+
+    private static void readDirectory(File root, Map<String, Map<String, Integer>> index) throws IOException {
+        File[] files = new File(root, SERVICES_DIR).listFiles();
+        if (files == null) {
+            return;
+        }
+        // listFiles 的顺序和平台有关，排序后保证结果稳定
+        List<File> sorted = new ArrayList<>();
+        Collections.addAll(sorted, files);
+        Collections.sort(sorted);
+        for (File file : sorted) {
+            if (file.isFile()) {
+                merge(index, file.getName(), ServicesFiles.readServiceFileWithOrders(new FileInputStream(file)));
+            }
+        }
+    }
+
+    private static void readJar(File jar, Map<String, Map<String, Integer>> index) throws IOException {
+        ZipFile zip;
+        try {
+            zip = new ZipFile(jar);
+        } catch (IOException e) {
+            // 不是 zip 文件（例如 classpath 里混进来的其它文件），忽略
+            return;
+        }
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.startsWith(SERVICES_DIR)
+                        || name.indexOf('/', SERVICES_DIR.length()) >= 0) {
+                    continue;
+                }
+                InputStream input = zip.getInputStream(entry);
+                merge(index, name.substring(SERVICES_DIR.length()), ServicesFiles.readServiceFileWithOrders(input));
+            }
+        } finally {
+            zip.close();
+        }
+    }
+}
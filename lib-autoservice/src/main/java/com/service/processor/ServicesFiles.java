@@ -1,15 +1,23 @@
 package com.service.processor;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -17,41 +25,179 @@ import java.util.Set;
  */
 final class ServicesFiles {
 
+    /**
+     * order 不为 0 时写在行尾的注释，ServiceLoader 解析时会忽略 # 之后的内容。
+     * 增量编译合并旧文件时靠它恢复排序。
+     */
+    static final String ORDER_COMMENT = "# order=";
+
+    private static final byte[] ORDER_COMMENT_BYTES = ORDER_COMMENT.getBytes(StandardCharsets.UTF_8);
+
     private ServicesFiles() {
     }
 
     static Set<String> readServiceFile(InputStream input) throws IOException {
-        HashSet<String> serviceClasses = new HashSet<String>();
-        BufferedReader r = null;
+        return readServiceFileWithOrders(input).keySet();
+    }
+
+    /**
+     * 按文件中的顺序读取实现类，value 为行尾 order 注释的值，没有注释时为 0。
+     * <p>
+     * 直接按字节解析并复用行缓冲区，每一行只为类名创建一个 String，几万行的文件也不会产生额外的临时对象。
+     * 会一直读到流结束，调用方可以用 {@link java.security.DigestInputStream} 顺便计算整个文件的摘要。
+     */
+    static Map<String, Integer> readServiceFileWithOrders(InputStream input) throws IOException {
+        Map<String, Integer> serviceClasses = new LinkedHashMap<String, Integer>();
         try {
-            r = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
-            String line;
-            while ((line = r.readLine()) != null) {
-                int commentStart = line.indexOf('#');
-                if (commentStart >= 0) {
-                    line = line.substring(0, commentStart);
-                }
-                line = line.trim();
-                if (!line.isEmpty()) {
-                    serviceClasses.add(line);
+            byte[] buffer = new byte[8192];
+            byte[] line = new byte[256];
+            int length = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n' || b == '\r') {
+                        parseLine(line, length, serviceClasses);
+                        length = 0;
+                    } else {
+                        if (length == line.length) {
+                            line = Arrays.copyOf(line, length * 2);
+                        }
+                        line[length++] = b;
+                    }
                 }
             }
+            parseLine(line, length, serviceClasses);
             return serviceClasses;
-        } catch (IOException e) {
-            throw e;
         } finally {
-            if (r != null) {
-                r.close();
+            input.close();
+        }
+    }
+
+    private static void parseLine(byte[] line, int length, Map<String, Integer> serviceClasses) {
+        int commentStart = indexOf(line, 0, length, (byte) '#');
+        int start = skipWhitespace(line, 0, commentStart);
+        int end = commentStart;
+        while (end > start && isWhitespace(line[end - 1])) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        String service = new String(line, start, end - start, StandardCharsets.UTF_8);
+        if (!serviceClasses.containsKey(service)) {
+            serviceClasses.put(service, commentStart < length ? parseOrder(line, commentStart, length) : 0);
+        }
+    }
+
+    /**
+     * 解析 "# order=N"，格式不对时返回 0。
+     */
+    private static int parseOrder(byte[] line, int commentStart, int length) {
+        int pos = commentStart;
+        for (int i = 0; i < ORDER_COMMENT_BYTES.length; i++, pos++) {
+            if (pos >= length || line[pos] != ORDER_COMMENT_BYTES[i]) {
+                return 0;
+            }
+        }
+        pos = skipWhitespace(line, pos, length);
+        boolean negative = pos < length && line[pos] == '-';
+        if (negative || pos < length && line[pos] == '+') {
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        for (; pos < length && line[pos] >= '0' && line[pos] <= '9'; pos++, digits++) {
+            value = value * 10 + (line[pos] - '0');
+            if (value > Integer.MAX_VALUE + 1L) {
+                return 0;
+            }
+        }
+        if (digits == 0 || skipWhitespace(line, pos, length) != length) {
+            return 0;
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? 0 : (int) value;
+    }
+
+    private static int indexOf(byte[] line, int from, int length, byte target) {
+        for (int i = from; i < length; i++) {
+            if (line[i] == target) {
+                return i;
             }
         }
+        return length;
+    }
+
+    private static int skipWhitespace(byte[] line, int from, int length) {
+        while (from < length && isWhitespace(line[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * 和 String.trim() 一致，把 0x20 及以下的字符都当作空白。
+     */
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && b <= ' ';
     }
 
     static void writeServiceFile(Collection<String> services, OutputStream output) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
         for (String service : services) {
             writer.write(service);
-            writer.newLine();
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * 按 order、类名排序后写入，order 不为 0 的实现类在行尾带上 order 注释。
+     * 换行固定为 \n，同样的内容在任何平台上都得到同样的字节，可以用摘要判断文件是否需要重写。
+     */
+    static void writeServiceFile(Map<String, Integer> services, OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        for (String service : sortByOrder(services)) {
+            writer.write(service);
+            int order = services.get(service);
+            if (order != 0) {
+                writer.write(' ');
+                writer.write(ORDER_COMMENT);
+                writer.write(Integer.toString(order));
+            }
+            writer.write('\n');
         }
         writer.flush();
     }
-}
\ No newline at end of file
+
+    static byte[] toByteArray(Map<String, Integer> services) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeServiceFile(services, output);
+        return output.toByteArray();
+    }
+
+    /**
+     * 比较生成内容和已有文件时使用的摘要算法。
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // 每个 Java 平台都必须支持 SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static List<String> sortByOrder(final Map<String, Integer> services) {
+        List<String> sorted = new ArrayList<String>(services.keySet());
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int result = Integer.compare(services.get(a), services.get(b));
+                return result != 0 ? result : a.compareTo(b);
+            }
+        });
+        return sorted;
+    }
+}
@@ -0,0 +1,208 @@
+package com.service.processor;
+
+import com.service.annotations.AutoService;
+import com.service.annotations.Scope;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+
+/**
+ * 每一轮处理用到的符号缓存：解析一次 AutoService 的 TypeElement，直接比较注解类型，
+ * 缓存 binary name，并且不经过 {@link AnnotationUtils#getAnnotationValuesWithDefaults} 直接读取 value / order，
+ * 模块里有几万个实现类时避免每个元素都创建一批临时对象。
+ * javac 每一轮都可能重新创建符号，所以每轮开始时调用 {@link #reset()}。
+ *
+ * @author dengxiaoqiu
+ */
+final class SymbolCache {
+
+    private final Elements elements;
+    private final Map<Element, String> binaryNames = new HashMap<>();
+    /**
+     * key 为 AutoService 的属性名，value 为默认值。
+     */
+    private final Map<String, AnnotationValue> defaults = new HashMap<>();
+    private TypeElement autoService;
+    private boolean resolved;
+
+    SymbolCache(Elements elements) {
+        this.elements = elements;
+    }
+
+    void reset() {
+        binaryNames.clear();
+        autoService = null;
+        resolved = false;
+    }
+
+    private TypeElement autoService() {
+        if (!resolved) {
+            resolved = true;
+            autoService = elements.getTypeElement(AutoService.class.getCanonicalName());
+            defaults.clear();
+            if (autoService != null) {
+                for (ExecutableElement method : ElementFilter.methodsIn(autoService.getEnclosedElements())) {
+                    if (method.getDefaultValue() != null) {
+                        defaults.put(method.getSimpleName().toString(), method.getDefaultValue());
+                    }
+                }
+            }
+        }
+        return autoService;
+    }
+
+    /**
+     * @return element 上的 @AutoService，没有时返回 null
+     */
+    AnnotationMirror getAutoService(Element element) {
+        TypeElement annotationType = autoService();
+        if (annotationType == null) {
+            return null;
+        }
+        for (AnnotationMirror annotationMirror : element.getAnnotationMirrors()) {
+            if (annotationMirror.getAnnotationType().asElement().equals(annotationType)) {
+                return annotationMirror;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return value 中声明的接口，顺序和注解中一致
+     */
+    Set<DeclaredType> getValue(AnnotationMirror annotationMirror) {
+        return getClasses(annotationMirror, "value");
+    }
+
+    /**
+     * @return dependsOn 中声明的接口，顺序和注解中一致
+     */
+    Set<DeclaredType> getDependsOn(AnnotationMirror annotationMirror) {
+        return getClasses(annotationMirror, "dependsOn");
+    }
+
+    private Set<DeclaredType> getClasses(AnnotationMirror annotationMirror, String name) {
+        AnnotationValue value = findValue(annotationMirror, name);
+        Set<DeclaredType> interfaces = new LinkedHashSet<>();
+        if (value == null) {
+            return interfaces;
+        }
+        Object raw = value.getValue();
+        if (raw instanceof List) {
+            for (Object element : (List<?>) raw) {
+                addDeclared(interfaces, ((AnnotationValue) element).getValue());
+            }
+        } else {
+            addDeclared(interfaces, raw);
+        }
+        return interfaces;
+    }
+
+    int getOrder(AnnotationMirror annotationMirror) {
+        return (Integer) getValueOrDefault(annotationMirror, "order").getValue();
+    }
+
+    boolean getLazy(AnnotationMirror annotationMirror) {
+        return (Boolean) getValueOrDefault(annotationMirror, "lazy").getValue();
+    }
+
+    Scope getScope(AnnotationMirror annotationMirror) {
+        // 枚举值在注解里是枚举常量的 VariableElement
+        VariableElement constant = (VariableElement) getValueOrDefault(annotationMirror, "scope").getValue();
+        return Scope.valueOf(constant.getSimpleName().toString());
+    }
+
+    List<String> getKeys(AnnotationMirror annotationMirror) {
+        List<String> keys = new ArrayList<>();
+        for (Object value : (List<?>) getValueOrDefault(annotationMirror, "keys").getValue()) {
+            keys.add((String) ((AnnotationValue) value).getValue());
+        }
+        return keys;
+    }
+
+    List<String> getConditions(AnnotationMirror annotationMirror) {
+        List<String> conditions = new ArrayList<>();
+        for (Object value : (List<?>) getValueOrDefault(annotationMirror, "conditions").getValue()) {
+            conditions.add((String) ((AnnotationValue) value).getValue());
+        }
+        return conditions;
+    }
+
+    List<Integer> getIntKeys(AnnotationMirror annotationMirror) {
+        List<Integer> keys = new ArrayList<>();
+        for (Object value : (List<?>) getValueOrDefault(annotationMirror, "intKeys").getValue()) {
+            keys.add((Integer) ((AnnotationValue) value).getValue());
+        }
+        return keys;
+    }
+
+    private AnnotationValue getValueOrDefault(AnnotationMirror annotationMirror, String name) {
+        AnnotationValue value = findValue(annotationMirror, name);
+        if (value == null) {
+            autoService();
+            value = defaults.get(name);
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("@AutoService does not define an element " + name + "()");
+        }
+        return value;
+    }
+
+    /**
+     * 只查显式声明的值，没有声明时返回 null，由调用方使用默认值。
+     */
+    private static AnnotationValue findValue(AnnotationMirror annotationMirror, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : annotationMirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void addDeclared(Set<DeclaredType> interfaces, Object value) {
+        // 无法解析的类型 javac 会给出字符串 "<error>"，这里直接忽略
+        if (value instanceof TypeMirror && ((TypeMirror) value).getKind() == TypeKind.DECLARED) {
+            interfaces.add((DeclaredType) value);
+        }
+    }
+
+    /**
+     * 和 Class.getName() 一致，嵌套类用 $ 分隔，例如 com.google.Foo$Bar。
+     */
+    String getBinaryName(TypeElement element) {
+        String binaryName = binaryNames.get(element);
+        if (binaryName != null) {
+            return binaryName;
+        }
+        Element enclosingElement = element.getEnclosingElement();
+        if (enclosingElement instanceof PackageElement) {
+            PackageElement pkg = (PackageElement) enclosingElement;
+            binaryName = pkg.isUnnamed()
+                    ? element.getSimpleName().toString()
+                    : pkg.getQualifiedName() + "." + element.getSimpleName();
+        } else {
+            binaryName = getBinaryName((TypeElement) enclosingElement) + "$" + element.getSimpleName();
+        }
+        binaryNames.put(element, binaryName);
+        return binaryName;
+    }
+}
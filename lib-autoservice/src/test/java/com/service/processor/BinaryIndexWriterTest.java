@@ -0,0 +1,135 @@
+package com.service.processor;
+
+import com.service.runtime.BinaryServiceIndex;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用运行时的 {@link BinaryServiceIndex} 读回处理器写出的二进制索引。
+ *
+ * @author dengxiaoqiu
+ */
+public class BinaryIndexWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        Map<String, Map<String, Integer>> index = new HashMap<>();
+        Map<String, Integer> providers = new LinkedHashMap<>();
+        providers.put("a.Early", -2);
+        providers.put("a.Shared", 0);
+        providers.put("a.Late", 7);
+        index.put("s.Service", providers);
+        // 非 ASCII 的接口名按 UTF-8 无符号字节排在后面
+        index.put("s.服务", Collections.singletonMap("a.Shared", 0));
+        index.put("s.Empty", Collections.<String, Integer>emptyMap());
+
+        BinaryServiceIndex binary = read(index, false);
+
+        assertFalse(binary.isAggregated());
+        assertEquals(3, binary.serviceCount());
+        assertEquals(Arrays.asList("a.Early", "a.Shared", "a.Late"), binary.providers("s.Service"));
+        assertEquals(-2, binary.order("s.Service", 0));
+        assertEquals(7, binary.order("s.Service", 2));
+        assertEquals(Collections.singletonList("a.Shared"), binary.providers("s.服务"));
+        assertEquals(Collections.<String>emptyList(), binary.providers("s.Empty"));
+        assertNull(binary.providers("s.Missing"));
+        assertNull(binary.providers("s.Servic"));
+    }
+
+    @Test
+    public void processorWritesSameContentAsTextIndex() throws IOException {
+        File dependency = temporaryFolder.newFile("dep.jar");
+        try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(dependency))) {
+            output.putNextEntry(new ZipEntry("META-INF/services/t.Service"));
+            output.write("dep.Impl # order=-5\nt.Impl\n".getBytes(StandardCharsets.UTF_8));
+            output.putNextEntry(new ZipEntry("META-INF/services/dep.Other"));
+            output.write("dep.OtherImpl\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        TestCompiler.Result result = compiler()
+                .option("-Aautoservice.aggregate=" + dependency.getPath())
+                .option("-Aautoservice.binaryIndex=true")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        BinaryServiceIndex binary = BinaryServiceIndex.open(result.resourcePath(BinaryIndexWriter.INDEX_FILE).toFile());
+        assertTrue(binary.isAggregated());
+        Map<String, List<String>> text = parseTextIndex(result.resource(ServiceIndexes.INDEX_FILE));
+        assertEquals(text.size(), binary.serviceCount());
+        for (Map.Entry<String, List<String>> service : text.entrySet()) {
+            assertEquals(service.getValue(), binary.providers(service.getKey()));
+        }
+        assertEquals(Arrays.asList("dep.Impl", "t.Impl", "t.Second"), binary.providers("t.Service"));
+    }
+
+    @Test
+    public void ignoredWithoutAggregate() throws IOException {
+        TestCompiler.Result result = compiler()
+                .option("-Aautoservice.binaryIndex=true")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertNull(result.resource(BinaryIndexWriter.INDEX_FILE));
+        assertEquals(Collections.singletonList("autoservice.binaryIndex is ignored: set autoservice.aggregate"
+                + " in the module that aggregates its dependencies."), result.warnings());
+    }
+
+    private TestCompiler compiler() throws IOException {
+        return new TestCompiler(temporaryFolder.newFolder("app").toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Impl implements Service {}")
+                .source("t.Second", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, order = 1)",
+                        "public class Second implements Service {}");
+    }
+
+    private static BinaryServiceIndex read(Map<String, Map<String, Integer>> index, boolean aggregated)
+            throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinaryIndexWriter.write(index, aggregated, output);
+        return BinaryServiceIndex.read(new ByteArrayInputStream(output.toByteArray()));
+    }
+
+    private static Map<String, List<String>> parseTextIndex(String text) {
+        Map<String, List<String>> index = new LinkedHashMap<>();
+        List<String> providers = null;
+        for (String line : text.split("\n")) {
+            if (line.startsWith("[")) {
+                providers = new ArrayList<>();
+                index.put(line.substring(1, line.length() - 1), providers);
+            } else {
+                int comment = line.indexOf('#');
+                providers.add((comment < 0 ? line : line.substring(0, comment)).trim());
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,172 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用处理器编译同一批类，{@link ClassFileIndexer} 从 class 文件得到的结果要和处理器写出的 service 文件一致。
+ *
+ * @author dengxiaoqiu
+ */
+public class ClassFileIndexerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void matchesProcessorOutput() throws IOException {
+        TestCompiler.Result result = compile();
+        Map<String, Map<String, Integer>> index = ClassFileIndexer.index(
+                Collections.singletonList(result.classes.toFile()), 1, Collections.<String, String>emptyMap());
+
+        assertEquals(Arrays.asList("t.First", "t.Second"), sorted(index.keySet()));
+        for (String service : index.keySet()) {
+            assertEquals(result.resource("META-INF/services/" + service), serviceFile(index.get(service)));
+        }
+        assertEquals("t.Outer$Nested # order=-3\nt.Plain\nt.Both # order=2\n", serviceFile(index.get("t.First")));
+    }
+
+    @Test
+    public void readsStoredAndDeflatedJars() throws IOException {
+        TestCompiler.Result result = compile();
+        File deflated = jar(result.classes, "deflated.jar", ZipEntry.DEFLATED);
+        File stored = jar(result.classes, "stored.jar", ZipEntry.STORED);
+        Map<String, Map<String, Integer>> expected = ClassFileIndexer.index(
+                Collections.singletonList(result.classes.toFile()), 1, Collections.<String, String>emptyMap());
+
+        assertEquals(expected, ClassFileIndexer.indexEntry(deflated, Collections.<String, String>emptyMap()));
+        assertEquals(expected, ClassFileIndexer.indexEntry(stored, Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void evaluatesConditions() throws IOException {
+        TestCompiler.Result result = compile();
+        Map<String, String> options = new HashMap<>();
+        options.put("autoservice.flavor", "prod");
+
+        Map<String, Map<String, Integer>> index = ClassFileIndexer.index(
+                Collections.singletonList(result.classes.toFile()), 1, options);
+
+        assertTrue(index.get("t.Second").containsKey("t.ProdOnly"));
+    }
+
+    @Test
+    public void parallelResultMatchesSerial() throws IOException {
+        TestCompiler.Result result = compile();
+        List<File> inputs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            inputs.add(jar(result.classes, "copy" + i + ".jar", ZipEntry.DEFLATED));
+        }
+        inputs.add(result.classes.toFile());
+
+        assertEquals(ClassFileIndexer.index(inputs, 1, Collections.<String, String>emptyMap()),
+                ClassFileIndexer.index(inputs, 4, Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void writesServiceFilesAndIndexes() throws IOException {
+        TestCompiler.Result result = compile();
+        Map<String, Map<String, Integer>> index = ClassFileIndexer.index(
+                Collections.singletonList(result.classes.toFile()), 1, Collections.<String, String>emptyMap());
+        File output = temporaryFolder.newFolder("output");
+
+        int providers = ClassFileIndexer.write(index, output, true, true);
+
+        assertEquals(4, providers);
+        assertEquals(result.resource("META-INF/services/t.Second"),
+                read(output.toPath().resolve("META-INF/services/t.Second")));
+        assertTrue(Files.exists(output.toPath().resolve(ServiceIndexes.INDEX_FILE)));
+        assertTrue(Files.exists(output.toPath().resolve(BinaryIndexWriter.INDEX_FILE)));
+    }
+
+    private TestCompiler.Result compile() throws IOException {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.newFolder().toPath())
+                .source("t.First", "package t;", "public interface First {}")
+                .source("t.Second", "package t;", "public interface Second {}")
+                .source("t.Plain", "package t;",
+                        "@com.service.annotations.AutoService(First.class)",
+                        "public class Plain implements First {}")
+                .source("t.Both", "package t;",
+                        "@com.service.annotations.AutoService(value = {First.class, Second.class}, order = 2)",
+                        "public class Both implements First, Second {}")
+                .source("t.Outer", "package t;",
+                        "public class Outer {",
+                        "  @com.service.annotations.AutoService(value = First.class, order = -3)",
+                        "  public static class Nested implements First {}",
+                        "}")
+                .source("t.ProdOnly", "package t;",
+                        "@com.service.annotations.AutoService(value = Second.class, conditions = \"flavor=prod\")",
+                        "public class ProdOnly implements Second {}")
+                .compile();
+        assertTrue(result.describe(), result.success);
+        return result;
+    }
+
+    private File jar(Path classes, String name, int method) throws IOException {
+        File jar = new File(temporaryFolder.getRoot(), name);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(classes)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar))) {
+            output.setMethod(method);
+            for (Path file : files) {
+                byte[] content = Files.readAllBytes(file);
+                ZipEntry entry = new ZipEntry(classes.relativize(file).toString().replace(File.separatorChar, '/'));
+                if (method == ZipEntry.STORED) {
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setSize(content.length);
+                    entry.setCompressedSize(content.length);
+                    entry.setCrc(crc.getValue());
+                }
+                output.putNextEntry(entry);
+                output.write(content);
+                output.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static String serviceFile(Map<String, Integer> providers) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ServicesFiles.writeServiceFile(providers, output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> sorted(Iterable<String> names) {
+        List<String> sorted = new ArrayList<>();
+        for (String name : names) {
+            sorted.add(name);
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,120 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class ConditionsTest {
+
+    private static final String SERVICE_FILE = "META-INF/services/t.Service";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void checkRejectsMalformedConditions() {
+        assertNull(Conditions.check("flavor=prod|dev"));
+        assertNull(Conditions.check("flavor!=prod"));
+        assertNull(Conditions.check("!debug"));
+        assertNull(Conditions.check("my.option"));
+        assertEquals("Invalid condition \"flavor=\": empty value", Conditions.check("flavor="));
+        assertEquals("Invalid condition \"flavor=a||b\": empty value", Conditions.check("flavor=a||b"));
+        assertEquals("Invalid condition \"=prod\": missing option name", Conditions.check("=prod"));
+        assertEquals("Invalid condition \"!\": missing option name", Conditions.check("!"));
+        assertEquals("Invalid condition \"fla vor\": unexpected ' ' in option name", Conditions.check("fla vor"));
+    }
+
+    @Test
+    public void matchesAgainstOptions() {
+        Map<String, String> options = new HashMap<>();
+        options.put("autoservice.flavor", "prod");
+        options.put("autoservice.debug", "false");
+        options.put("autoservice.tracing", null);
+        options.put("my.option", "on");
+
+        assertTrue(Conditions.matches(Collections.singletonList("flavor=prod"), options));
+        assertTrue(Conditions.matches(Collections.singletonList("flavor=dev| prod"), options));
+        assertFalse(Conditions.matches(Collections.singletonList("flavor=dev"), options));
+        assertFalse(Conditions.matches(Collections.singletonList("flavor!=prod"), options));
+        assertTrue(Conditions.matches(Collections.singletonList("buildType!=release"), options));
+        assertFalse(Conditions.matches(Collections.singletonList("buildType=release"), options));
+        assertTrue(Conditions.matches(Collections.singletonList("tracing"), options));
+        assertFalse(Conditions.matches(Collections.singletonList("debug"), options));
+        assertTrue(Conditions.matches(Collections.singletonList("!debug"), options));
+        assertTrue(Conditions.matches(Collections.singletonList("my.option=on"), options));
+        assertFalse(Conditions.matches(Arrays.asList("flavor=prod", "debug"), options));
+    }
+
+    @Test
+    public void prunesProvidersWhoseConditionsFail() throws IOException {
+        TestCompiler.Result result = compiler()
+                .option("-Aautoservice.flavor=prod")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.Always\nt.Prod\n", result.resource(SERVICE_FILE));
+        String registry = result.generatedSource("com.service.registry.AutoServiceRegistry_test");
+        assertTrue(registry, registry.contains("Prod"));
+        assertFalse(registry, registry.contains("DebugOnly"));
+        // 被跳过的实现类照常编译
+        assertTrue(result.resourcePath("t/DebugOnly.class").toFile().isFile());
+    }
+
+    @Test
+    public void changingOptionsDropsStaleEntries() throws IOException {
+        TestCompiler compiler = compiler();
+        TestCompiler.Result debug = compiler.option("-Aautoservice.debug").compile();
+        assertTrue(debug.describe(), debug.success);
+        assertEquals("t.Always\nt.DebugOnly\n", debug.resource(SERVICE_FILE));
+
+        TestCompiler.Result release = compiler()
+                .option("-Aautoservice.flavor=prod")
+                .compile("t.Always", "t.Prod");
+
+        assertTrue(release.describe(), release.success);
+        assertEquals("t.Always\nt.Prod\n", release.resource(SERVICE_FILE));
+    }
+
+    @Test
+    public void malformedConditionIsAnError() throws IOException {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Broken", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, conditions = \"flavor=\")",
+                        "public class Broken implements Service {}")
+                .compile();
+
+        assertFalse(result.success);
+        assertEquals(Collections.singletonList("Invalid condition \"flavor=\": empty value"), result.errors());
+    }
+
+    private TestCompiler compiler() {
+        return new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Always", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Always implements Service {}")
+                .source("t.Prod", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, conditions = \"flavor=prod\")",
+                        "public class Prod implements Service {}")
+                .source("t.DebugOnly", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class,",
+                        "    conditions = {\"debug\", \"flavor!=prod\"})",
+                        "public class DebugOnly implements Service {}")
+                .option("-Aautoservice.module=test");
+    }
+}
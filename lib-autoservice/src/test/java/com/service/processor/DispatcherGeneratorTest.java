@@ -0,0 +1,129 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class DispatcherGeneratorTest {
+
+    private static final String DISPATCHER = "com.service.registry.Service_Dispatcher_test";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void dispatchesByKey() throws Exception {
+        TestCompiler.Result result = compiler()
+                .source("t.Open", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, keys = {\"open\", \"o\"},"
+                                + " intKeys = {1, 2})",
+                        "public class Open implements Service {}")
+                .source("t.Close", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, keys = \"close\", intKeys = 3)",
+                        "public class Close implements Service {}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Method byString = loader.loadClass(DISPATCHER).getMethod("get", String.class);
+            Method byInt = loader.loadClass(DISPATCHER).getMethod("get", int.class);
+            assertEquals("t.Open", byString.invoke(null, "o").getClass().getName());
+            assertEquals("t.Close", byString.invoke(null, "close").getClass().getName());
+            assertNull(byString.invoke(null, "missing"));
+            assertNull(byString.invoke(null, (Object) null));
+            assertEquals("t.Open", byInt.invoke(null, 2).getClass().getName());
+            assertEquals("t.Close", byInt.invoke(null, 3).getClass().getName());
+            assertNull(byInt.invoke(null, 4));
+        }
+        assertFalse(result.generatedSource(DISPATCHER).contains("int hash"));
+    }
+
+    @Test
+    public void instancesFollowScope() throws Exception {
+        TestCompiler.Result result = compiler()
+                .source("t.Prototype", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, keys = \"prototype\")",
+                        "public class Prototype implements Service {}")
+                .source("t.Singleton", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, keys = \"singleton\",",
+                        "    scope = com.service.annotations.Scope.SINGLETON)",
+                        "public class Singleton implements Service {}")
+                .source("t.Factory", "package t;",
+                        "public class Factory {",
+                        "  @com.service.annotations.AutoService(value = Service.class, keys = \"factory\")",
+                        "  public static Service create() { return new Service() {}; }",
+                        "}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Method get = loader.loadClass(DISPATCHER).getMethod("get", String.class);
+            assertNotSame(get.invoke(null, "prototype"), get.invoke(null, "prototype"));
+            assertNotSame(get.invoke(null, "factory"), get.invoke(null, "factory"));
+            assertSame(get.invoke(null, "singleton"), get.invoke(null, "singleton"));
+        }
+    }
+
+    @Test
+    public void routesLargeKeySetsByHash() throws Exception {
+        StringBuilder keys = new StringBuilder();
+        for (int i = 0; i < 2500; i++) {
+            keys.append(i == 0 ? "" : ", ").append("\"key").append(i).append('"');
+        }
+        TestCompiler.Result result = compiler()
+                .source("t.Many", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, keys = {" + keys + "})",
+                        "public class Many implements Service {}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        String source = result.generatedSource(DISPATCHER);
+        assertTrue(source, source.contains("int hash = key.hashCode();"));
+        assertTrue(source, source.contains("class Lookups"));
+        try (URLClassLoader loader = result.classLoader()) {
+            Method get = loader.loadClass(DISPATCHER).getMethod("get", String.class);
+            for (int i = 0; i < 2500; i += 7) {
+                assertEquals("t.Many", get.invoke(null, "key" + i).getClass().getName());
+            }
+            assertNull(get.invoke(null, "key2500"));
+            assertNull(get.invoke(null, (Object) null));
+        }
+    }
+
+    @Test
+    public void rejectsDuplicateKeys() throws IOException {
+        TestCompiler.Result result = compiler()
+                .source("t.A", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, keys = \"same\")",
+                        "public class A implements Service {}")
+                .source("t.B", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, keys = \"same\")",
+                        "public class B implements Service {}")
+                .compile();
+
+        assertFalse(result.success);
+        assertEquals(Collections.singletonList("Duplicate key \"same\" for t.Service: already handled by t.A"),
+                result.errors());
+    }
+
+    private TestCompiler compiler() {
+        return new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .option("-Aautoservice.module=test");
+    }
+}
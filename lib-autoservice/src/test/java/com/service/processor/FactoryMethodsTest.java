@@ -0,0 +1,127 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class FactoryMethodsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void registryCallsTheFactory() throws Exception {
+        TestCompiler.Result result = compiler(
+                "  public static final Service POOLED = new Service() {};",
+                "  @com.service.annotations.AutoService(value = Service.class, order = -1)",
+                "  public static Service pooled() { return POOLED; }")
+                .source("t.Plain", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Plain implements Service {}")
+                .option("-Aautoservice.module=test")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        // ServiceLoader 不能调用工厂方法，service 文件里只有实现类
+        assertEquals("t.Plain\n", result.resource("META-INF/services/t.Service"));
+        assertTrue(result.generatedSource("com.service.registry.AutoServiceRegistry_test")
+                .contains("Factory.pooled()"));
+        try (URLClassLoader loader = result.classLoader()) {
+            Class<?> registry = loader.loadClass("com.service.registry.AutoServiceRegistry_test");
+            List<?> providers = (List<?>) registry.getMethod("get", Class.class)
+                    .invoke(null, loader.loadClass("t.Service"));
+            assertEquals(2, providers.size());
+            assertSame(loader.loadClass("t.Factory").getField("POOLED").get(null), providers.get(0));
+            assertEquals("t.Plain", providers.get(1).getClass().getName());
+        }
+    }
+
+    @Test
+    public void factoriesAreIgnoredWithoutAModule() throws IOException {
+        TestCompiler.Result result = compiler(
+                "  @com.service.annotations.AutoService(Service.class)",
+                "  public static Service create() { return null; }")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals(Collections.singletonList("AutoService factory methods are ignored: set autoservice.module "
+                + "to generate the registry, ServiceLoader cannot call them."), result.warnings());
+        assertNull(result.resource("META-INF/services/t.Service"));
+    }
+
+    @Test
+    public void rejectsInstanceMethods() throws IOException {
+        assertError("AutoService factory methods must be public static. t.Factory.create() is not",
+                "  @com.service.annotations.AutoService(Service.class)",
+                "  public Service create() { return null; }");
+    }
+
+    @Test
+    public void rejectsParameters() throws IOException {
+        assertError("AutoService factory methods must not have parameters or type parameters. "
+                        + "t.Factory.create() has",
+                "  @com.service.annotations.AutoService(Service.class)",
+                "  public static Service create(int size) { return null; }");
+    }
+
+    @Test
+    public void rejectsIncompatibleReturnTypes() throws IOException {
+        assertError("AutoService factory methods must return a subtype of their service provider interface. "
+                        + "t.Factory.create() returns java.lang.String, which does not implement t.Service",
+                "  @com.service.annotations.AutoService(Service.class)",
+                "  public static String create() { return null; }");
+    }
+
+    @Test
+    public void rejectsCheckedExceptions() throws IOException {
+        assertError("AutoService factory methods must not throw checked exceptions. "
+                        + "t.Factory.create() throws java.io.IOException",
+                "  @com.service.annotations.AutoService(Service.class)",
+                "  public static Service create() throws java.io.IOException { return null; }");
+    }
+
+    @Test
+    public void rejectsLazyAndScope() throws IOException {
+        assertError("AutoService factory methods cannot be lazy, the factory decides when instances are created",
+                "  @com.service.annotations.AutoService(value = Service.class, lazy = true)",
+                "  public static Service create() { return null; }");
+        temporaryFolder.delete();
+        temporaryFolder.create();
+        assertError("AutoService factory methods cannot declare a scope, the factory decides which instance to return",
+                "  @com.service.annotations.AutoService(value = Service.class,",
+                "      scope = com.service.annotations.Scope.SINGLETON)",
+                "  public static Service create() { return null; }");
+    }
+
+    private void assertError(String error, String... factory) throws IOException {
+        TestCompiler.Result result = compiler(factory).option("-Aautoservice.module=test").compile();
+
+        assertFalse(result.success);
+        assertEquals(Collections.singletonList(error), result.errors());
+    }
+
+    private TestCompiler compiler(String... factory) {
+        String[] lines = new String[factory.length + 3];
+        lines[0] = "package t;";
+        lines[1] = "public class Factory {";
+        System.arraycopy(factory, 0, lines, 2, factory.length);
+        lines[lines.length - 1] = "}";
+        return new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Factory", lines);
+    }
+}
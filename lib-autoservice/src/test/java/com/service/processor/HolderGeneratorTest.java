@@ -0,0 +1,118 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class HolderGeneratorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void prototypeCreatesAnInstanceForEachGet() throws Exception {
+        TestCompiler.Result result = compiler("").compile();
+
+        assertTrue(result.describe(), result.success);
+        assertNull(result.generatedSource("t.Impl_Holder"));
+        try (URLClassLoader loader = result.classLoader()) {
+            assertNotSame(registry(loader).get(0), registry(loader).get(0));
+            assertEquals(2, created(loader));
+        }
+    }
+
+    @Test
+    public void singletonIsCreatedOnceOnFirstGet() throws Exception {
+        TestCompiler.Result result = compiler(", scope = com.service.annotations.Scope.SINGLETON").compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Method get = Class.forName("t.Impl_Holder", true, loader).getMethod("get");
+            assertEquals(0, created(loader));
+            Object instance = get.invoke(null);
+            assertEquals(1, created(loader));
+            assertSame(instance, get.invoke(null));
+            assertSame(instance, registry(loader).get(0));
+            assertEquals(1, created(loader));
+        }
+    }
+
+    @Test
+    public void threadKeepsAnInstancePerThread() throws Exception {
+        TestCompiler.Result result = compiler(", scope = com.service.annotations.Scope.THREAD").compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Class<?> holder = loader.loadClass("t.Impl_Holder");
+            final Method get = holder.getMethod("get");
+            Object instance = get.invoke(null);
+            assertSame(instance, registry(loader).get(0));
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Object> other = executor.submit(() -> get.invoke(null));
+                assertNotSame(instance, other.get());
+            } finally {
+                executor.shutdown();
+            }
+
+            holder.getMethod("remove").invoke(null);
+            Object recreated = get.invoke(null);
+            assertNotSame(instance, recreated);
+            assertSame(recreated, get.invoke(null));
+            assertEquals(3, created(loader));
+        }
+    }
+
+    @Test
+    public void holderKeepsTheLazyHandle() throws Exception {
+        TestCompiler.Result result = compiler(", scope = com.service.annotations.Scope.SINGLETON, lazy = true")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Object handle = registry(loader).get(0);
+            assertEquals("t.Impl" + LazyHandleGenerator.SUFFIX, handle.getClass().getName());
+            assertSame(handle, registry(loader).get(0));
+            assertEquals(0, created(loader));
+        }
+    }
+
+    private TestCompiler compiler(String attributes) {
+        return new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service { String name(); }")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class" + attributes + ")",
+                        "public class Impl implements Service {",
+                        "  public static int created;",
+                        "  public Impl() { created++; }",
+                        "  public String name() { return \"impl\"; }",
+                        "}")
+                .option("-Aautoservice.module=test");
+    }
+
+    private static List<?> registry(ClassLoader loader) throws ReflectiveOperationException {
+        Class<?> registry = loader.loadClass("com.service.registry.AutoServiceRegistry_test");
+        return (List<?>) registry.getMethod("get", Class.class).invoke(null, loader.loadClass("t.Service"));
+    }
+
+    private static int created(ClassLoader loader) throws ReflectiveOperationException {
+        return loader.loadClass("t.Impl").getField("created").getInt(null);
+    }
+}
@@ -0,0 +1,155 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在同一个输出目录上再次编译部分源文件，模拟 Gradle 的增量编译。
+ *
+ * @author dengxiaoqiu
+ */
+public class IncrementalProcessingTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void declaresAggregatingProcessor() throws IOException {
+        Path file = Paths.get(getClass().getClassLoader()
+                .getResource("META-INF/gradle/incremental.annotation.processors").getPath());
+        String declaration = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertEquals(AutoServiceProcessor.class.getName() + ",aggregating", declaration.trim());
+    }
+
+    @Test
+    public void multiInterfaceProviderIsListedInEveryServiceFile() throws IOException {
+        TestCompiler.Result result = compiler()
+                .source("t.Both", "package t;",
+                        "@com.service.annotations.AutoService({First.class, Second.class})",
+                        "public class Both implements First, Second {}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.Both\n", result.resource("META-INF/services/t.First"));
+        assertEquals("t.Both\n", result.resource("META-INF/services/t.Second"));
+    }
+
+    @Test
+    public void keepsEntriesOfProvidersThatWereNotRecompiled() throws IOException {
+        TestCompiler compiler = compiler()
+                .source("t.A", "package t;",
+                        "@com.service.annotations.AutoService(First.class)",
+                        "public class A implements First {}")
+                .source("t.B", "package t;",
+                        "@com.service.annotations.AutoService(First.class)",
+                        "public class B implements First {}");
+        assertTrue(compiler.compile().success);
+
+        TestCompiler.Result result = compiler.compile("t.B");
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.A\nt.B\n", result.resource("META-INF/services/t.First"));
+    }
+
+    @Test
+    public void removesProvidersThatNoLongerDeclareTheService() throws IOException {
+        TestCompiler compiler = compiler()
+                .source("t.A", "package t;",
+                        "@com.service.annotations.AutoService({First.class, Second.class})",
+                        "public class A implements First, Second {}")
+                .source("t.B", "package t;",
+                        "@com.service.annotations.AutoService({First.class, Second.class})",
+                        "public class B implements First, Second {}");
+        assertTrue(compiler.compile().success);
+
+        compiler.source("t.B", "package t;",
+                "@com.service.annotations.AutoService(First.class)",
+                "public class B implements First {}");
+        TestCompiler.Result result = compiler.compile("t.B");
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.A\nt.B\n", result.resource("META-INF/services/t.First"));
+        assertEquals("t.A\n", result.resource("META-INF/services/t.Second"));
+    }
+
+    @Test
+    public void removesDeletedProviders() throws IOException {
+        TestCompiler compiler = compiler()
+                .source("t.A", "package t;",
+                        "@com.service.annotations.AutoService(First.class)",
+                        "public class A implements First {}")
+                .source("t.B", "package t;",
+                        "@com.service.annotations.AutoService(First.class)",
+                        "public class B implements First {}");
+        TestCompiler.Result first = compiler.compile();
+        assertTrue(first.success);
+        Files.delete(first.classes.resolve("t/A.class"));
+
+        TestCompiler.Result result = compiler.compile("t.B");
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.B\n", result.resource("META-INF/services/t.First"));
+    }
+
+    @Test
+    public void keepsHandWrittenEntries() throws IOException {
+        // Maven 在编译前把 src/main/resources 复制进 CLASS_OUTPUT
+        Path services = Files.createDirectories(temporaryFolder.getRoot().toPath().resolve("classes/META-INF/services"));
+        Files.write(services.resolve("t.First"), "t.Hand\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(services.resolve("t.Second"), "t.Hand\n".getBytes(StandardCharsets.UTF_8));
+        TestCompiler compiler = compiler()
+                .source("t.Hand", "package t;",
+                        "public class Hand implements First, Second {}")
+                .source("t.Gen", "package t;",
+                        "@com.service.annotations.AutoService(First.class)",
+                        "public class Gen implements First {}");
+
+        TestCompiler.Result result = compiler.compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.Gen\nt.Hand\n", result.resource("META-INF/services/t.First"));
+        assertEquals("t.Hand\n", result.resource("META-INF/services/t.Second"));
+
+        result = compiler.compile("t.Hand", "t.Gen");
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.Gen\nt.Hand\n", result.resource("META-INF/services/t.First"));
+        assertEquals("t.Hand\n", result.resource("META-INF/services/t.Second"));
+    }
+
+    @Test
+    public void deletesServiceFilesWithoutEntries() throws IOException {
+        TestCompiler compiler = compiler()
+                .source("t.A", "package t;",
+                        "@com.service.annotations.AutoService({First.class, Second.class})",
+                        "public class A implements First, Second {}");
+        assertTrue(compiler.compile().success);
+
+        compiler.source("t.A", "package t;",
+                "@com.service.annotations.AutoService(First.class)",
+                "public class A implements First {}");
+        TestCompiler.Result result = compiler.compile("t.A");
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.A\n", result.resource("META-INF/services/t.First"));
+        assertFalse(Files.exists(result.resourcePath("META-INF/services/t.Second")));
+    }
+
+    private TestCompiler compiler() {
+        Path root = temporaryFolder.getRoot().toPath();
+        return new TestCompiler(root)
+                .source("t.First", "package t;", "public interface First {}")
+                .source("t.Second", "package t;", "public interface Second {}");
+    }
+}
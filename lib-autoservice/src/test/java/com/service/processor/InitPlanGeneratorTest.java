@@ -0,0 +1,176 @@
+package com.service.processor;
+
+import com.service.runtime.ProviderInitializer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class InitPlanGeneratorTest {
+
+    private static final String REGISTRY = "com.service.registry.AutoServiceRegistry_test";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void layersFollowDependsOn() throws Exception {
+        TestCompiler.Result result = compiler()
+                .source("t.Storage", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, dependsOn = Config.class)",
+                        "public class Storage implements Service {}")
+                .source("t.App", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, order = -1,",
+                        "    dependsOn = {Config.class, Service.class})",
+                        "public class App implements Service {}")
+                .source("t.Defaults", "package t;",
+                        "@com.service.annotations.AutoService(value = Config.class, order = 1)",
+                        "public class Defaults implements Config {}")
+                .source("t.Overrides", "package t;",
+                        "@com.service.annotations.AutoService(Config.class)",
+                        "public class Overrides implements Config {}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            ProviderInitializer.Plan plan = (ProviderInitializer.Plan) loader.loadClass(REGISTRY)
+                    .getMethod("initPlan").invoke(null);
+            assertEquals(Arrays.asList(Arrays.asList("t.Overrides", "t.Defaults"),
+                    Collections.singletonList("t.Storage"), Collections.singletonList("t.App")), names(plan));
+
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                ProviderInitializer.Initialized initialized = ProviderInitializer.initialize(plan, executor).join();
+                // 和 get() 一样按 order 排序，而不是按层
+                assertEquals(Arrays.asList("t.App", "t.Storage"),
+                        classNames(initialized.get(loader.loadClass("t.Service"))));
+                assertEquals(Arrays.asList("t.Overrides", "t.Defaults"),
+                        classNames(initialized.get(loader.loadClass("t.Config"))));
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void cycleIsAnError() throws IOException {
+        TestCompiler.Result result = compiler()
+                .source("t.A", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, dependsOn = Config.class)",
+                        "public class A implements Service {}")
+                .source("t.B", "package t;",
+                        "@com.service.annotations.AutoService(value = Config.class, dependsOn = Service.class)",
+                        "public class B implements Config {}")
+                .compile();
+
+        assertFalse(result.success);
+        assertEquals(Collections.singletonList("AutoService dependsOn contains a cycle: t.A -> t.B -> t.A"),
+                result.errors());
+    }
+
+    @Test
+    public void threadProvidersAreLeftOutWithAWarning() throws Exception {
+        TestCompiler.Result result = compiler()
+                .source("t.PerThread", "package t;",
+                        "@com.service.annotations.AutoService(value = Config.class,",
+                        "    scope = com.service.annotations.Scope.THREAD)",
+                        "public class PerThread implements Config {}")
+                .source("t.User", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, dependsOn = Config.class)",
+                        "public class User implements Service {}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals(Collections.singletonList("AutoService dependsOn of t.User includes THREAD provider "
+                + "t.PerThread, which initPlan() does not create; each thread creates its own instance on first use."),
+                result.warnings());
+        assertTrue(result.generatedSource(REGISTRY).contains("THREAD 的实现类每个线程各一个实例，不在计划里"));
+        try (URLClassLoader loader = result.classLoader()) {
+            ProviderInitializer.Plan plan = (ProviderInitializer.Plan) loader.loadClass(REGISTRY)
+                    .getMethod("initPlan").invoke(null);
+            assertEquals(Collections.singletonList(Collections.singletonList("t.User")), names(plan));
+        }
+    }
+
+    @Test
+    public void onlySingletonDependenciesAreShared() throws Exception {
+        TestCompiler.Result result = compiler()
+                .source("t.Shared", "package t;",
+                        "@com.service.annotations.AutoService(value = Config.class,",
+                        "    scope = com.service.annotations.Scope.SINGLETON)",
+                        "public class Shared implements Config {}")
+                .source("t.Fresh", "package t;",
+                        "@com.service.annotations.AutoService(value = Config.class, order = 1)",
+                        "public class Fresh implements Config {}")
+                .source("t.User", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, dependsOn = Config.class)",
+                        "public class User implements Service {}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals(Collections.singletonList("AutoService dependsOn of t.User includes PROTOTYPE provider "
+                + "t.Fresh, whose initPlan() instance is not shared with get(); use scope = SINGLETON to initialize"
+                + " it ahead of use."), result.warnings());
+        try (URLClassLoader loader = result.classLoader()) {
+            Class<?> registry = loader.loadClass(REGISTRY);
+            ProviderInitializer.Plan plan = (ProviderInitializer.Plan) registry.getMethod("initPlan").invoke(null);
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                List<?> initialized = ProviderInitializer.initialize(plan, executor).join()
+                        .get(loader.loadClass("t.Config"));
+                List<?> fromGet = (List<?>) registry.getMethod("get", Class.class)
+                        .invoke(null, loader.loadClass("t.Config"));
+                assertEquals(Arrays.asList("t.Shared", "t.Fresh"), classNames(initialized));
+                assertSame(fromGet.get(0), initialized.get(0));
+                assertNotSame(fromGet.get(1), initialized.get(1));
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private TestCompiler compiler() {
+        return new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Config", "package t;", "public interface Config {}")
+                .option("-Aautoservice.module=test");
+    }
+
+    private static List<List<String>> names(ProviderInitializer.Plan plan) {
+        List<List<String>> layers = new ArrayList<>();
+        for (List<ProviderInitializer.Step> layer : plan.layers()) {
+            List<String> names = new ArrayList<>();
+            for (ProviderInitializer.Step step : layer) {
+                names.add(step.provider());
+            }
+            layers.add(names);
+        }
+        return layers;
+    }
+
+    private static List<String> classNames(List<?> instances) {
+        List<String> names = new ArrayList<>();
+        for (Object instance : instances) {
+            names.add(instance.getClass().getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,116 @@
+package com.service.processor;
+
+import com.service.runtime.MetricsSnapshot;
+import com.service.runtime.ProviderMetrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class InstrumentedGeneratorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void recordsInstancesCallsAndFailures() throws Exception {
+        TestCompiler.Result result = compiler("t.Recorded", "-Aautoservice.instrument=true").compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Object provider = registry(loader).get(0);
+            assertEquals("t.Recorded_Instrumented", provider.getClass().getName());
+            Method run = loader.loadClass("t.Service").getMethod("run", String.class, int.class);
+            assertEquals("ok:1", run.invoke(provider, "ok", 1));
+            assertEquals("ok:2", run.invoke(provider, "ok", 2));
+            try {
+                run.invoke(provider, null, 3);
+                fail();
+            } catch (InvocationTargetException expected) {
+                assertTrue(expected.getCause() instanceof NullPointerException);
+            }
+        }
+
+        MetricsSnapshot.Provider stats = find("t.Recorded");
+        assertEquals(1, stats.instances());
+        assertEquals(2, stats.methods().size());
+        MetricsSnapshot.Method run = stats.methods().get(0);
+        assertEquals("run(java.lang.String,int)", run.name());
+        assertEquals(3, run.calls());
+        assertEquals(1, run.failures());
+        assertEquals("delegate(java.lang.Object)", stats.methods().get(1).name());
+        assertEquals(0, stats.methods().get(1).calls());
+    }
+
+    @Test
+    public void parametersDoNotShadowTheWrapper() throws Exception {
+        TestCompiler.Result result = compiler("t.Shadowed", "-Aautoservice.instrument=true").compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Object provider = registry(loader).get(0);
+            Method delegate = loader.loadClass("t.Service").getMethod("delegate", Object.class);
+            assertEquals("start", delegate.invoke(provider, "start"));
+        }
+        assertEquals(1, find("t.Shadowed").methods().get(1).calls());
+    }
+
+    @Test
+    public void disabledByDefault() throws Exception {
+        TestCompiler.Result result = compiler("t.Plain").compile();
+
+        assertTrue(result.describe(), result.success);
+        assertNull(result.generatedSource("t.Plain_Instrumented"));
+        assertFalse(result.generatedSource("com.service.registry.AutoServiceRegistry_test")
+                .contains("Instrumented"));
+    }
+
+    private TestCompiler compiler(String provider, String... options) {
+        int dot = provider.lastIndexOf('.');
+        TestCompiler compiler = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;",
+                        "public interface Service {",
+                        "  String run(String text, int number);",
+                        "  Object delegate(Object start);",
+                        "}")
+                .source(provider, "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class " + provider.substring(dot + 1) + " implements Service {",
+                        "  public String run(String text, int number) { return text.toString() + \":\" + number; }",
+                        "  public Object delegate(Object start) { return start; }",
+                        "}")
+                .option("-Aautoservice.module=test");
+        for (String option : options) {
+            compiler.option(option);
+        }
+        return compiler;
+    }
+
+    private static List<?> registry(ClassLoader loader) throws ReflectiveOperationException {
+        Class<?> registry = loader.loadClass("com.service.registry.AutoServiceRegistry_test");
+        return (List<?>) registry.getMethod("get", Class.class).invoke(null, loader.loadClass("t.Service"));
+    }
+
+    private static MetricsSnapshot.Provider find(String name) {
+        for (MetricsSnapshot.Provider provider : ProviderMetrics.snapshot().providers()) {
+            if (provider.name().equals(name)) {
+                return provider;
+            }
+        }
+        throw new AssertionError(name + " not in " + ProviderMetrics.snapshot().providers());
+    }
+}
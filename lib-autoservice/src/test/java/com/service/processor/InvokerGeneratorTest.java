@@ -0,0 +1,229 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class InvokerGeneratorTest {
+
+    private static final String INVOKER = "com.service.registry.Service_Invoker_test";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void invokesProvidersInOrder() throws Exception {
+        TestCompiler.Result result = compiler(
+                provider("Second", "order = 1", "false"),
+                provider("First", "order = -1", "true"))
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Class<?> invoker = loader.loadClass(INVOKER);
+            assertEquals(2, invoker.getMethod("providerCount").invoke(null));
+            assertEquals(Arrays.asList("First:x", "Second:x"),
+                    invoker.getMethod("name", String.class).invoke(null, "x"));
+            assertEquals(true, invoker.getMethod("handleUntilTrue", int.class).invoke(null, 1));
+
+            Class<?> call = loader.loadClass(INVOKER + "$JoinCall");
+            Constructor<?> newCall = call.getConstructor(String.class, int.class);
+            assertEquals(Arrays.asList(Arrays.asList("First:a1", "Second:a1"), Arrays.asList("First:b2", "Second:b2")),
+                    invoker.getMethod("joinBatch", List.class).invoke(null,
+                            Arrays.asList(newCall.newInstance("a", 1), newCall.newInstance("b", 2))));
+
+            Executor direct = Runnable::run;
+            CompletableFuture<?> future = (CompletableFuture<?>) invoker
+                    .getMethod("nameParallel", Executor.class, String.class).invoke(null, direct, "p");
+            assertEquals(Arrays.asList("First:p", "Second:p"), future.join());
+        }
+    }
+
+    @Test
+    public void prototypeProvidersAreCreatedForEachCall() throws Exception {
+        TestCompiler.Result result = compiler(
+                provider("Prototype", "order = 0", "false"),
+                provider("Singleton", "order = 1, scope = com.service.annotations.Scope.SINGLETON", "false"))
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Method self = loader.loadClass(INVOKER).getMethod("self");
+            List<?> first = (List<?>) self.invoke(null);
+            List<?> second = (List<?>) self.invoke(null);
+            assertNotSame(first.get(0), second.get(0));
+            assertSame(first.get(1), second.get(1));
+        }
+        assertFalse(result.generatedSource(INVOKER).contains("PROVIDERS"));
+    }
+
+    @Test
+    public void factoryMethodsAreCalledForEachCall() throws Exception {
+        TestCompiler.Result result = compiler()
+                .source("t.Factory", "package t;",
+                        "public class Factory {",
+                        "  @com.service.annotations.AutoService(Service.class)",
+                        "  public static Service create() { return new Impl(\"Factory\", false); }",
+                        "}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Method self = loader.loadClass(INVOKER).getMethod("self");
+            assertNotSame(((List<?>) self.invoke(null)).get(0), ((List<?>) self.invoke(null)).get(0));
+        }
+    }
+
+    @Test
+    public void singletonProvidersAreShared() throws Exception {
+        TestCompiler.Result result = compiler(
+                provider("Singleton", "scope = com.service.annotations.Scope.SINGLETON", "false"))
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Method self = loader.loadClass(INVOKER).getMethod("self");
+            Object provider = ((List<?>) self.invoke(null)).get(0);
+            assertSame(provider, ((List<?>) self.invoke(null)).get(0));
+            assertSame(provider, registry(loader).get(0));
+        }
+        assertTrue(result.generatedSource(INVOKER).contains("private static final Service[] PROVIDERS"));
+    }
+
+    @Test
+    public void threadProvidersArePerThread() throws Exception {
+        TestCompiler.Result result = compiler(
+                provider("PerThread", "scope = com.service.annotations.Scope.THREAD", "false"),
+                provider("Singleton", "order = 1, scope = com.service.annotations.Scope.SINGLETON", "false"))
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            final Method self = loader.loadClass(INVOKER).getMethod("self");
+            List<?> here = (List<?>) self.invoke(null);
+            assertSame(here.get(0), ((List<?>) self.invoke(null)).get(0));
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                FutureTask<List<?>> task = new FutureTask<>(() -> (List<?>) self.invoke(null));
+                executor.execute(task);
+                List<?> there = task.get();
+                assertNotSame(here.get(0), there.get(0));
+                assertSame(here.get(1), there.get(1));
+            } finally {
+                executor.shutdown();
+            }
+        }
+        assertTrue(result.generatedSource(INVOKER).contains("ThreadLocal<Service[]> PROVIDERS"));
+    }
+
+    @Test
+    public void renamesMethodsThatClashWithInvokerMembers() throws Exception {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;",
+                        "public interface Service {",
+                        "  int providers();",
+                        "  int providerCount();",
+                        "  int PROVIDERS();",
+                        "}")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class,",
+                        "    scope = com.service.annotations.Scope.SINGLETON)",
+                        "public class Impl implements Service {",
+                        "  public int providers() { return 1; }",
+                        "  public int providerCount() { return 2; }",
+                        "  public int PROVIDERS() { return 3; }",
+                        "}")
+                .option("-Aautoservice.module=test")
+                .option("-Aautoservice.invoker=true")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        try (URLClassLoader loader = result.classLoader()) {
+            Class<?> invoker = loader.loadClass(INVOKER);
+            assertEquals(1, invoker.getMethod("providerCount").invoke(null));
+            assertEquals(Arrays.asList(1), invoker.getMethod("providers_").invoke(null));
+            assertEquals(Arrays.asList(2), invoker.getMethod("providerCount_").invoke(null));
+            assertEquals(Arrays.asList(3), invoker.getMethod("PROVIDERS_").invoke(null));
+        }
+    }
+
+    @Test
+    public void skipsGenericInterfaces() throws IOException {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Generic", "package t;", "public interface Generic<T> { T get(); }")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Generic.class)",
+                        "public class Impl implements Generic<String> { public String get() { return \"\"; } }")
+                .option("-Aautoservice.module=test")
+                .option("-Aautoservice.invoker=true")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertNull(result.generatedSource("com.service.registry.Generic_Invoker_test"));
+    }
+
+    private TestCompiler compiler(String[]... providers) {
+        TestCompiler compiler = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;",
+                        "public interface Service {",
+                        "  String name(String prefix);",
+                        "  boolean handle(int code);",
+                        "  String join(String text, int number);",
+                        "  Object self();",
+                        "}")
+                .source("t.Impl", "package t;",
+                        "public class Impl implements Service {",
+                        "  private final String name;",
+                        "  private final boolean handles;",
+                        "  public Impl(String name, boolean handles) { this.name = name; this.handles = handles; }",
+                        "  public String name(String prefix) { return name + \":\" + prefix; }",
+                        "  public boolean handle(int code) { return handles; }",
+                        "  public String join(String text, int number) { return name + \":\" + text + number; }",
+                        "  public Object self() { return this; }",
+                        "}")
+                .option("-Aautoservice.module=test")
+                .option("-Aautoservice.invoker=true");
+        for (String[] provider : providers) {
+            compiler.source("t." + provider[0], "package t;",
+                    "@com.service.annotations.AutoService(value = Service.class, " + provider[1] + ")",
+                    "public class " + provider[0] + " extends Impl {",
+                    "  public " + provider[0] + "() { super(\"" + provider[0] + "\", " + provider[2] + "); }",
+                    "}");
+        }
+        return compiler;
+    }
+
+    private static String[] provider(String name, String attributes, String handles) {
+        return new String[]{name, attributes, handles};
+    }
+
+    private static List<?> registry(ClassLoader loader) throws ClassNotFoundException, NoSuchMethodException,
+            IllegalAccessException, InvocationTargetException {
+        Class<?> registry = loader.loadClass("com.service.registry.AutoServiceRegistry_test");
+        return (List<?>) registry.getMethod("get", Class.class).invoke(null, loader.loadClass("t.Service"));
+    }
+}
@@ -0,0 +1,132 @@
+package com.service.processor;
+
+import com.service.annotations.LazyHandle;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class LazyHandleGeneratorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void providerIsInitializedOnFirstCall() throws Exception {
+        TestCompiler.Result result = compiler()
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, order = 4, lazy = true)",
+                        "public class Impl implements Service {",
+                        "  static { Events.LOG.add(\"init\"); }",
+                        "  public String name() { return \"impl\"; }",
+                        "}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertNotNull(result.generatedSource("t.Impl_LazyHandle"));
+        // service 文件里仍然是实现类本身
+        assertEquals("t.Impl # order=4\n", result.resource("META-INF/services/t.Service"));
+        try (URLClassLoader loader = result.classLoader()) {
+            List<?> events = (List<?>) loader.loadClass("t.Events").getField("LOG").get(null);
+            Object handle = registry(loader).get(0);
+
+            assertEquals("t.Impl_LazyHandle", handle.getClass().getName());
+            LazyHandle lazy = (LazyHandle) handle;
+            assertEquals("t.Impl", lazy.providerName());
+            assertEquals(4, lazy.providerOrder());
+            assertFalse(lazy.isProviderLoaded());
+            assertTrue(events.isEmpty());
+
+            assertEquals("impl", handle.getClass().getMethod("name").invoke(handle));
+            assertEquals("impl default", handle.getClass().getMethod("describe").invoke(handle));
+            assertEquals(Collections.singletonList("init"), events);
+            assertTrue(lazy.isProviderLoaded());
+            assertSame(lazy.provider(), lazy.provider());
+        }
+    }
+
+    @Test
+    public void genericInterfaceUsesProviderTypeArguments() throws Exception {
+        TestCompiler.Result result = compiler()
+                .source("t.Supplier", "package t;",
+                        "@com.service.annotations.AutoService(value = java.util.concurrent.Callable.class, lazy = true)",
+                        "public class Supplier implements java.util.concurrent.Callable<String> {",
+                        "  public String call() { return \"called\"; }",
+                        "}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertTrue(result.generatedSource("t.Supplier_LazyHandle").contains("public String call()"));
+        try (URLClassLoader loader = result.classLoader()) {
+            Class<?> handleClass = loader.loadClass("t.Supplier_LazyHandle");
+            Callable<?> handle = (Callable<?>) handleClass.getConstructor().newInstance();
+            assertEquals("called", handle.call());
+        }
+    }
+
+    @Test
+    public void lazyOptionAppliesToAllProviders() throws IOException {
+        TestCompiler.Result result = compiler()
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Impl implements Service {",
+                        "  public String name() { return \"impl\"; }",
+                        "}")
+                .option("-Aautoservice.lazy=true")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertNotNull(result.generatedSource("t.Impl_LazyHandle"));
+    }
+
+    @Test
+    public void abstractClassServiceIsCreatedEagerly() throws IOException {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Base", "package t;", "public abstract class Base {}")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(value = Base.class, lazy = true)",
+                        "public class Impl extends Base {}")
+                .option("-Aautoservice.module=test")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals(Collections.singletonList("Lazy loading is ignored for t.Impl: t.Base is not an interface"),
+                result.warnings());
+        assertNull(result.generatedSource("t.Impl_LazyHandle"));
+    }
+
+    private TestCompiler compiler() {
+        return new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;",
+                        "public interface Service {",
+                        "  String name();",
+                        "  default String describe() { return name() + \" default\"; }",
+                        "}")
+                .source("t.Events", "package t;",
+                        "public class Events {",
+                        "  public static final java.util.List<String> LOG = new java.util.ArrayList<>();",
+                        "}")
+                .option("-Aautoservice.module=test");
+    }
+
+    private static List<?> registry(ClassLoader loader) throws Exception {
+        Class<?> registry = loader.loadClass("com.service.registry.AutoServiceRegistry_test");
+        return (List<?>) registry.getMethod("get", Class.class).invoke(null, loader.loadClass("t.Service"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class NativeImageConfigsTest {
+
+    private static final String DIR = "META-INF/native-image/autoservice/my_app/";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void reflectConfigListsEachProviderConstructorOnce() {
+        Map<String, Map<String, Integer>> serviceFiles = new LinkedHashMap<>();
+        serviceFiles.put("t.B", Collections.singletonMap("t.Impl$Nested", 0));
+        Map<String, Integer> providers = new LinkedHashMap<>();
+        providers.put("t.Impl", 1);
+        providers.put("t.Impl$Nested", 0);
+        serviceFiles.put("t.A", providers);
+
+        assertEquals("[\n"
+                        + "  {\"name\": \"t.Impl\", \"methods\": [{\"name\": \"<init>\", \"parameterTypes\": []}]},\n"
+                        + "  {\"name\": \"t.Impl$Nested\", \"methods\": [{\"name\": \"<init>\", \"parameterTypes\": []}]}\n"
+                        + "]\n",
+                new String(NativeImageConfigs.reflectConfig(serviceFiles), StandardCharsets.UTF_8));
+        assertEquals("[]\n", new String(NativeImageConfigs.reflectConfig(
+                Collections.<String, Map<String, Integer>>emptyMap()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void resourceConfigQuotesEachPath() {
+        assertEquals("{\n"
+                        + "  \"resources\": {\n"
+                        + "    \"includes\": [\n"
+                        + "      {\"pattern\": \"\\\\QMETA-INF/services/t.A\\\\E\"},\n"
+                        + "      {\"pattern\": \"\\\\QMETA-INF/services/t.B\\\\E\"}\n"
+                        + "    ]\n"
+                        + "  },\n"
+                        + "  \"bundles\": []\n"
+                        + "}\n",
+                new String(NativeImageConfigs.resourceConfig(
+                        Arrays.asList("META-INF/services/t.B", "META-INF/services/t.A")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void processorWritesConfigsForTheModule() throws IOException {
+        TestCompiler.Result result = compiler().compile();
+
+        assertTrue(result.describe(), result.success);
+        String reflect = result.resource(DIR + NativeImageConfigs.REFLECT_CONFIG);
+        assertTrue(reflect, reflect.contains("\"name\": \"t.Impl\""));
+        assertTrue(reflect, reflect.contains("\"name\": \"t.Outer$Inner\""));
+        String resources = result.resource(DIR + NativeImageConfigs.RESOURCE_CONFIG);
+        assertTrue(resources, resources.contains("\\\\QMETA-INF/services/t.Service\\\\E"));
+        // 不聚合时不写索引文件，配置里也不能出现
+        assertFalse(resources, resources.contains(ServiceIndexes.INDEX_FILE));
+        assertFalse(resources, resources.contains(BinaryIndexWriter.INDEX_FILE));
+    }
+
+    @Test
+    public void aggregatingModulesAlsoListTheIndexes() throws IOException {
+        TestCompiler.Result result = compiler()
+                .option("-Aautoservice.aggregate=")
+                .option("-Aautoservice.binaryIndex=true")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        String resources = result.resource(DIR + NativeImageConfigs.RESOURCE_CONFIG);
+        assertTrue(resources, resources.contains("\\\\Q" + ServiceIndexes.INDEX_FILE + "\\\\E"));
+        assertTrue(resources, resources.contains("\\\\Q" + BinaryIndexWriter.INDEX_FILE + "\\\\E"));
+    }
+
+    @Test
+    public void requiresAModule() throws IOException {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Impl implements Service {}")
+                .option("-Aautoservice.nativeImage=true")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals(Collections.singletonList("autoservice.nativeImage is ignored: set autoservice.module "
+                + "to name the META-INF/native-image directory."), result.warnings());
+        assertNull(result.resource(NativeImageConfigs.CONFIG_DIR + "my_app/" + NativeImageConfigs.REFLECT_CONFIG));
+    }
+
+    private TestCompiler compiler() {
+        return new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Impl implements Service {}")
+                .source("t.Outer", "package t;",
+                        "public class Outer {",
+                        "  @com.service.annotations.AutoService(Service.class)",
+                        "  public static class Inner implements Service {}",
+                        "}")
+                .option("-Aautoservice.module=my.app")
+                .option("-Aautoservice.nativeImage=true");
+    }
+}
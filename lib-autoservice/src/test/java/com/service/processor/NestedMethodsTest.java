@@ -0,0 +1,85 @@
+package com.service.processor;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.lang.model.element.Modifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class NestedMethodsTest {
+
+    private static final ClassName OUTER = ClassName.get("t", "Registry");
+
+    @Test
+    public void startsANewClassWhenTheLimitIsReached() {
+        NestedMethods nested = new NestedMethods(OUTER, "Factories");
+        int half = NestedMethods.STATEMENTS_PER_CLASS / 2;
+
+        assertEquals(OUTER.nestedClass("Factories0"), nested.add(method("a"), half));
+        assertEquals(OUTER.nestedClass("Factories0"), nested.add(method("b"), half));
+        assertEquals(OUTER.nestedClass("Factories1"), nested.add(method("c"), 1));
+        // 单个方法超过上限时也只占一个类
+        assertEquals(OUTER.nestedClass("Factories2"), nested.add(method("d"),
+                NestedMethods.STATEMENTS_PER_CLASS + 1));
+        assertEquals(OUTER.nestedClass("Factories3"), nested.add(method("e"), 0));
+
+        TypeSpec.Builder outer = TypeSpec.classBuilder(OUTER);
+        nested.addTo(outer);
+        List<TypeSpec> types = outer.build().typeSpecs;
+        assertEquals(4, types.size());
+        assertEquals(Arrays.asList("a", "b"), methodNames(types.get(0)));
+        assertEquals(Collections.singletonList("c"), methodNames(types.get(1)));
+        assertEquals(Collections.singletonList("d"), methodNames(types.get(2)));
+        assertEquals(Collections.singletonList("e"), methodNames(types.get(3)));
+    }
+
+    @Test
+    public void nestedMethodsArePackagePrivate() {
+        NestedMethods nested = new NestedMethods(OUTER, "Lookups");
+        nested.add(method("a"), 1);
+
+        TypeSpec.Builder outer = TypeSpec.classBuilder(OUTER);
+        nested.addTo(outer);
+        TypeSpec type = outer.build().typeSpecs.get(0);
+        assertEquals("Lookups0", type.name);
+        assertTrue(type.modifiers.containsAll(Arrays.asList(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)));
+        MethodSpec method = type.methodSpecs.get(1);
+        assertEquals(Collections.singleton(Modifier.STATIC), method.modifiers);
+        assertTrue(type.methodSpecs.get(0).isConstructor());
+        assertEquals(Collections.singleton(Modifier.PRIVATE), type.methodSpecs.get(0).modifiers);
+    }
+
+    @Test
+    public void emptyWhenNothingWasAdded() {
+        TypeSpec.Builder outer = TypeSpec.classBuilder(OUTER);
+        new NestedMethods(OUTER, "Factories").addTo(outer);
+        assertTrue(outer.build().typeSpecs.isEmpty());
+    }
+
+    private static MethodSpec method(String name) {
+        return MethodSpec.methodBuilder(name).addModifiers(Modifier.PRIVATE, Modifier.STATIC).build();
+    }
+
+    private static List<String> methodNames(TypeSpec type) {
+        List<String> names = new ArrayList<>();
+        for (MethodSpec method : type.methodSpecs) {
+            if (!method.isConstructor()) {
+                names.add(method.name);
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,86 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class ProcessorMetricsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writesReportToGivenPath() throws IOException {
+        Path report = temporaryFolder.getRoot().toPath().resolve("reports/metrics.json");
+
+        TestCompiler.Result result = compiler(temporaryFolder.newFolder("out").toPath())
+                .option("-Aautoservice.metrics=" + report)
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        String json = read(report);
+        assertTrue(json, json.contains("\"providers\": 2,"));
+        assertTrue(json, json.contains("\"interfaces\": 1,"));
+        assertTrue(json, json.contains("\"classOutputFilesWritten\": 2,"));
+        assertTrue(json, json.contains("\"generateConfigFilesNanos\": "));
+        assertTrue(json, json.contains("{\"round\": 1, \"processingOver\": false"));
+    }
+
+    @Test
+    public void defaultReportGoesToBuildReports() throws IOException {
+        Path build = temporaryFolder.newFolder("module", "build").toPath();
+
+        TestCompiler.Result result = compiler(build.resolve("intermediates/javac"))
+                .option("-Aautoservice.metrics")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertTrue(read(build.resolve("reports/autoservice/autoservice-metrics.json")).startsWith("{"));
+        assertFalse(Files.exists(result.resourcePath(AutoServiceProcessor.METRICS_FILE)));
+        assertFalse(Files.exists(result.generated.resolve(AutoServiceProcessor.METRICS_FILE)));
+    }
+
+    @Test
+    public void defaultReportNextToClassOutputWithoutBuildDirectory() throws IOException {
+        Path root = temporaryFolder.newFolder("out").toPath();
+
+        TestCompiler.Result result = compiler(root).option("-Aautoservice.metrics=true").compile();
+
+        assertTrue(result.describe(), result.success);
+        assertTrue(Files.exists(root.resolve(AutoServiceProcessor.METRICS_FILE)));
+    }
+
+    @Test
+    public void noReportWithoutOption() throws IOException {
+        Path root = temporaryFolder.newFolder("out").toPath();
+        assertTrue(compiler(root).compile().success);
+        assertEquals(0, Files.list(root).filter(p -> p.toString().endsWith(".json")).count());
+    }
+
+    private static TestCompiler compiler(Path root) {
+        return new TestCompiler(root)
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.A", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class A implements Service {}")
+                .source("t.B", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class B implements Service {}");
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
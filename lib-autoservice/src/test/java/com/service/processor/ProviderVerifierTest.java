@@ -0,0 +1,112 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class ProviderVerifierTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void acceptsInheritedAndGenericInterfaces() throws IOException {
+        TestCompiler.Result result = compiler()
+                .source("t.Generic", "package t;", "public interface Generic<T> {}")
+                .source("t.Base", "package t;", "public abstract class Base implements Service {}")
+                .source("t.FromSuperclass", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class FromSuperclass extends Base {}")
+                .source("t.Parameterized", "package t;",
+                        "@com.service.annotations.AutoService(Generic.class)",
+                        "public class Parameterized implements Generic<String> {}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.FromSuperclass\n", result.resource("META-INF/services/t.Service"));
+        assertEquals("t.Parameterized\n", result.resource("META-INF/services/t.Generic"));
+    }
+
+    @Test
+    public void rejectsProviderThatDoesNotImplementTheService() throws IOException {
+        assertError("ServiceProviders must implement their service provider interface. t.Impl does not implement "
+                + "t.Service", "public class Impl {}");
+    }
+
+    @Test
+    public void rejectsAbstractProvider() throws IOException {
+        assertError("ServiceProviders must be concrete classes. t.Impl is abstract or not a class",
+                "public abstract class Impl implements Service {}");
+    }
+
+    @Test
+    public void rejectsNonPublicProvider() throws IOException {
+        assertError("ServiceProviders must be public. t.Impl is not public",
+                "class Impl implements Service {}");
+    }
+
+    @Test
+    public void rejectsProviderWithoutNoArgConstructor() throws IOException {
+        assertError("ServiceProviders must have a public no-arg constructor. t.Impl does not have one",
+                "public class Impl implements Service {", "  public Impl(String name) {}", "}");
+        assertError("ServiceProviders must have a public no-arg constructor. t.Impl does not have one",
+                "public class Impl implements Service {", "  Impl() {}", "}");
+    }
+
+    @Test
+    public void rejectsInnerClassProvider() throws IOException {
+        TestCompiler.Result result = compiler()
+                .source("t.Outer", "package t;",
+                        "public class Outer {",
+                        "  @com.service.annotations.AutoService(Service.class)",
+                        "  public class Inner implements Service {}",
+                        "}")
+                .compile();
+
+        assertFalse(result.success);
+        assertEquals(Collections.singletonList("Nested ServiceProviders must be static. t.Outer.Inner is an inner class"),
+                result.errors());
+    }
+
+    @Test
+    public void verifyFalseSkipsChecks() throws IOException {
+        TestCompiler.Result result = compiler()
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Impl {}")
+                .option("-Averify=false")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.Impl\n", result.resource("META-INF/services/t.Service"));
+    }
+
+    private void assertError(String expected, String... implementation) throws IOException {
+        String[] lines = new String[implementation.length + 2];
+        lines[0] = "package t;";
+        lines[1] = "@com.service.annotations.AutoService(Service.class)";
+        System.arraycopy(implementation, 0, lines, 2, implementation.length);
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.newFolder().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Impl", lines)
+                .compile();
+
+        assertFalse(result.success);
+        assertEquals(Collections.singletonList(expected), result.errors());
+    }
+
+    private TestCompiler compiler() throws IOException {
+        return new TestCompiler(temporaryFolder.newFolder().toPath())
+                .source("t.Service", "package t;", "public interface Service {}");
+    }
+}
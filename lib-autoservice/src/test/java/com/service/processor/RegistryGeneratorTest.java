@@ -0,0 +1,155 @@
+package com.service.processor;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.service.annotations.Scope;
+import com.squareup.javapoet.ClassName;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class RegistryGeneratorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void generatesFactoriesSortedByOrder() {
+        Multimap<String, String> providers = HashMultimap.create();
+        providers.put("t.Service", "t.B");
+        providers.put("t.Service", "t.A");
+        providers.put("t.Service", "t.Hidden");
+        Map<String, ProviderInfo> infos = new HashMap<>();
+        infos.put("t.A", provider("t.A", true, 1));
+        infos.put("t.B", provider("t.B", true, -1));
+        infos.put("t.Hidden", provider("t.Hidden", false, 0));
+
+        String source = RegistryGenerator.generate("t.registry", "AutoServiceRegistry_test", providers, infos,
+                null, null, Collections.emptyList()).toString();
+
+        assertEquals(""
+                + "package t.registry;\n"
+                + "\n"
+                + "import java.util.ArrayList;\n"
+                + "import java.util.Collections;\n"
+                + "import java.util.List;\n"
+                + "import t.A;\n"
+                + "import t.B;\n"
+                + "\n"
+                + "/**\n"
+                + " * 由 AutoServiceProcessor 生成，请勿修改。\n"
+                + " */\n"
+                + "public final class AutoServiceRegistry_test {\n"
+                + "  private AutoServiceRegistry_test() {\n"
+                + "  }\n"
+                + "\n"
+                + "  private static List<Object> lookup0(String name) {\n"
+                + "    switch (name) {\n"
+                + "      case \"t.Service\":\n"
+                + "        return Factories0.create0();\n"
+                + "      default:\n"
+                + "        return null;\n"
+                + "    }\n"
+                + "  }\n"
+                + "\n"
+                + "  /**\n"
+                + "   * 返回 service 所有实现类的实例，没有注册实现类时返回空列表。\n"
+                + "   * PROTOTYPE 的实现类每次都是新实例，SINGLETON 和 THREAD 的实现类按 scope 复用。\n"
+                + "   */\n"
+                + "  @SuppressWarnings(\"unchecked\")\n"
+                + "  public static <T> List<T> get(Class<T> service) {\n"
+                + "    String name = service.getName();\n"
+                + "    List<Object> providers = lookup0(name);\n"
+                + "    return providers != null ? (List<T>) (List<?>) providers : Collections.<T>emptyList();\n"
+                + "  }\n"
+                + "\n"
+                + "  private static final class Factories0 {\n"
+                + "    private Factories0() {\n"
+                + "    }\n"
+                + "\n"
+                + "    static List<Object> create0() {\n"
+                + "      List<Object> providers = new ArrayList<>(2);\n"
+                + "      providers.add(new B());\n"
+                + "      providers.add(new A());\n"
+                + "      return providers;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n", source);
+    }
+
+    @Test
+    public void registryReturnsInstancesInOrder() throws Exception {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Other", "package t;", "public interface Other {}")
+                .source("t.First", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, order = -1)",
+                        "public class First implements Service {}")
+                .source("t.Second", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Second implements Service {}")
+                .option("-Aautoservice.module=test")
+                .compile();
+        assertTrue(result.describe(), result.success);
+
+        try (URLClassLoader loader = result.classLoader()) {
+            Class<?> registry = loader.loadClass("com.service.registry.AutoServiceRegistry_test");
+            Method get = registry.getMethod("get", Class.class);
+            List<?> services = (List<?>) get.invoke(null, loader.loadClass("t.Service"));
+            assertEquals(2, services.size());
+            assertEquals("t.First", services.get(0).getClass().getName());
+            assertEquals("t.Second", services.get(1).getClass().getName());
+            // PROTOTYPE 的实现类每次都是新实例
+            assertTrue(services.get(0) != ((List<?>) get.invoke(null, loader.loadClass("t.Service"))).get(0));
+            assertEquals(Collections.emptyList(), get.invoke(null, loader.loadClass("t.Other")));
+        }
+    }
+
+    @Test
+    public void registryIsOnlyGeneratedWithModule() throws Exception {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Impl implements Service {}")
+                .compile();
+        assertTrue(result.describe(), result.success);
+        assertNull(result.generatedSource("com.service.registry.AutoServiceRegistry_test"));
+        assertEquals("t.Impl\n", result.resource("META-INF/services/t.Service"));
+    }
+
+    @Test
+    public void registryPackageAndModuleNameAreConfigurable() throws Exception {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Impl implements Service {}")
+                .option("-Aautoservice.module=lib-foo")
+                .option("-Aautoservice.registryPackage=t.gen")
+                .compile();
+        assertTrue(result.describe(), result.success);
+        assertTrue(result.generatedSource("t.gen.AutoServiceRegistry_lib_foo") != null);
+    }
+
+    static ProviderInfo provider(String binaryName, boolean instantiable, int order) {
+        return new ProviderInfo(binaryName, ClassName.bestGuess(binaryName), null, instantiable, order, null, null,
+                Scope.PROTOTYPE, null, new ArrayList<String>(), new ArrayList<Integer>(), new ArrayList<String>());
+    }
+}
@@ -0,0 +1,142 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class ServiceIndexesTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void mergesClasspathInOrderAndSortsByOrder() throws IOException {
+        File directory = temporaryFolder.newFolder("classes");
+        File services = new File(directory, "META-INF/services");
+        assertTrue(services.mkdirs());
+        Files.write(new File(services, "s.Service").toPath(),
+                "a.First\na.Late # order=5\n".getBytes(StandardCharsets.UTF_8));
+        File jar = jar("lib.jar", "META-INF/services/s.Service", "b.Second\na.First # order=9\nb.Early # order=-1\n");
+
+        Map<String, Map<String, Integer>> index = new HashMap<>();
+        ServiceIndexes.readClasspath(Arrays.asList(directory, jar, new File(directory, "missing.jar")), index);
+
+        assertEquals("[s.Service]\n"
+                + "b.Early # order=-1\n"
+                + "a.First\n"
+                + "b.Second\n"
+                + "a.Late # order=5\n", write(index));
+    }
+
+    @Test
+    public void ignoresNestedEntriesAndFilesThatAreNotJars() throws IOException {
+        File jar = jar("lib.jar", "META-INF/services/nested/s.Service", "x.Ignored\n");
+        File text = temporaryFolder.newFile("notes.txt");
+
+        Map<String, Map<String, Integer>> index = new HashMap<>();
+        ServiceIndexes.readClasspath(Arrays.asList(jar, text), index);
+
+        assertEquals("", write(index));
+    }
+
+    @Test
+    public void earlierProvidersWin() {
+        Map<String, Map<String, Integer>> index = new HashMap<>();
+        Map<String, Integer> module = new LinkedHashMap<>();
+        module.put("a.Impl", 1);
+        ServiceIndexes.merge(index, "s.Service", module);
+        Map<String, Integer> dependency = new LinkedHashMap<>();
+        dependency.put("a.Impl", 7);
+        dependency.put("b.Impl", 0);
+        ServiceIndexes.merge(index, "s.Service", dependency);
+
+        assertEquals(Integer.valueOf(1), index.get("s.Service").get("a.Impl"));
+        assertEquals(Arrays.asList("a.Impl", "b.Impl"), Arrays.asList(index.get("s.Service").keySet().toArray()));
+    }
+
+    @Test
+    public void processorAggregatesModuleBeforeDependencies() throws IOException {
+        File jar = jar("dep.jar", "META-INF/services/t.Service", "dep.Impl\nt.Impl # order=3\n");
+
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.newFolder("app").toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Impl implements Service {}")
+                .option("-Aautoservice.aggregate=" + jar.getPath())
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("[t.Service]\nt.Impl\ndep.Impl\n", result.resource(ServiceIndexes.INDEX_FILE));
+    }
+
+    @Test
+    public void processorIndexesResourceDirectoriesAndRuntimeOnlyJars() throws IOException {
+        // src/main/resources 中手写的实现类和 runtimeOnly 依赖都不在 javac 的 classpath 上，只能通过 aggregate 进入索引
+        File resources = temporaryFolder.newFolder("resources");
+        File services = new File(resources, "META-INF/services");
+        assertTrue(services.mkdirs());
+        Files.write(new File(services, "t.Service").toPath(), "t.Hand\n".getBytes(StandardCharsets.UTF_8));
+        File runtimeOnly = jar("runtime.jar", "META-INF/services/t.Service", "rt.Impl\n");
+
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.newFolder("app").toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Impl implements Service {}")
+                .option("-Aautoservice.aggregate=" + resources.getPath() + File.pathSeparator + runtimeOnly.getPath())
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("[t.Service]\nt.Impl\nt.Hand\nrt.Impl\n", result.resource(ServiceIndexes.INDEX_FILE));
+    }
+
+    @Test
+    public void noIndexWithoutAggregate() throws IOException {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.Impl", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class Impl implements Service {}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertNull(result.resource(ServiceIndexes.INDEX_FILE));
+    }
+
+    private File jar(String name, String entry, String content) throws IOException {
+        File jar = temporaryFolder.newFile(name);
+        try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar))) {
+            output.putNextEntry(new ZipEntry(entry));
+            output.write(content.getBytes(StandardCharsets.UTF_8));
+            output.closeEntry();
+        }
+        return jar;
+    }
+
+    private static String write(Map<String, Map<String, Integer>> index) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ServiceIndexes.writeIndex(index, output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author dengxiaoqiu
+ */
+public class ServicesFilesTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writeSortsByOrderAndRoundTrips() throws IOException {
+        Map<String, Integer> services = new LinkedHashMap<>();
+        services.put("t.B", 0);
+        services.put("t.A", 2);
+        services.put("t.C", -5);
+        services.put("t.D", 0);
+
+        byte[] content = ServicesFiles.toByteArray(services);
+
+        assertEquals("t.C # order=-5\nt.B\nt.D\nt.A # order=2\n", new String(content, StandardCharsets.UTF_8));
+        Map<String, Integer> read = ServicesFiles.readServiceFileWithOrders(new ByteArrayInputStream(content));
+        assertEquals(services, read);
+        assertEquals(Arrays.asList("t.C", "t.B", "t.D", "t.A"), Arrays.asList(read.keySet().toArray()));
+    }
+
+    @Test
+    public void readIgnoresCommentsBlankLinesAndDuplicates() throws IOException {
+        Map<String, Integer> read = read("  t.A # order= 3 \r\n"
+                + "# comment\n"
+                + "\n"
+                + "t.B#not an order\n"
+                + "t.A # order=9\n"
+                + "t.C");
+
+        Map<String, Integer> expected = new LinkedHashMap<>();
+        expected.put("t.A", 3);
+        expected.put("t.B", 0);
+        expected.put("t.C", 0);
+        assertEquals(expected, read);
+    }
+
+    @Test
+    public void invalidOrdersAreZero() throws IOException {
+        Map<String, Integer> read = read("t.A # order=abc\n"
+                + "t.B # order=99999999999\n"
+                + "t.C # order=1x\n"
+                + "t.D # order=-2147483648\n");
+
+        assertEquals(Integer.valueOf(0), read.get("t.A"));
+        assertEquals(Integer.valueOf(0), read.get("t.B"));
+        assertEquals(Integer.valueOf(0), read.get("t.C"));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), read.get("t.D"));
+    }
+
+    @Test
+    public void processorWritesProvidersByOrder() throws IOException {
+        TestCompiler.Result result = new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.A", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, order = 10)",
+                        "public class A implements Service {}")
+                .source("t.B", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class B implements Service {}")
+                .source("t.C", "package t;",
+                        "@com.service.annotations.AutoService(value = Service.class, order = -1)",
+                        "public class C implements Service {}")
+                .compile();
+
+        assertTrue(result.describe(), result.success);
+        assertEquals("t.C # order=-1\nt.B\nt.A # order=10\n", result.resource("META-INF/services/t.Service"));
+    }
+
+    private static Map<String, Integer> read(String content) throws IOException {
+        return ServicesFiles.readServiceFileWithOrders(
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,179 @@
+package com.service.processor;
+
+import com.service.annotations.Scope;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.util.Elements;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 不经过 AutoServiceProcessor，在一个只做检查的处理器里用 javac 的符号测试 {@link SymbolCache}。
+ *
+ * @author dengxiaoqiu
+ */
+public class SymbolCacheTest {
+
+    private Elements elements;
+    private SymbolCache cache;
+
+    @Test
+    public void binaryNames() throws Throwable {
+        analyze(this::checkBinaryNames);
+    }
+
+    @Test
+    public void readsDeclaredValues() throws Throwable {
+        analyze(this::checkDeclaredValues);
+    }
+
+    @Test
+    public void fallsBackToDefaults() throws Throwable {
+        analyze(this::checkDefaults);
+    }
+
+    @Test
+    public void noAnnotation() throws Throwable {
+        analyze(this::checkNoAnnotation);
+    }
+
+    private void checkBinaryNames() {
+        assertEquals("t.Outer$Inner", cache.getBinaryName(type("t.Outer.Inner")));
+        assertEquals("t.Outer$Inner$Deeper", cache.getBinaryName(type("t.Outer.Inner.Deeper")));
+        assertEquals("Unnamed", cache.getBinaryName(type("Unnamed")));
+        assertSame(cache.getBinaryName(type("t.Outer")), cache.getBinaryName(type("t.Outer")));
+    }
+
+    private void checkDeclaredValues() {
+        AnnotationMirror annotation = cache.getAutoService(type("t.Outer.Inner"));
+
+        assertEquals(Arrays.asList("t.First", "t.Second"), names(cache.getValue(annotation)));
+        assertEquals(Collections.singletonList("t.Second"), names(cache.getDependsOn(annotation)));
+        assertEquals(3, cache.getOrder(annotation));
+        assertTrue(cache.getLazy(annotation));
+        assertEquals(Scope.SINGLETON, cache.getScope(annotation));
+        assertEquals(Arrays.asList("a", "b"), cache.getKeys(annotation));
+        assertEquals(Collections.singletonList(7), cache.getIntKeys(annotation));
+        assertEquals(Collections.singletonList("flavor=prod"), cache.getConditions(annotation));
+    }
+
+    private void checkDefaults() {
+        AnnotationMirror annotation = cache.getAutoService(type("t.Defaults"));
+
+        assertEquals(Collections.singletonList("t.First"), names(cache.getValue(annotation)));
+        assertTrue(cache.getDependsOn(annotation).isEmpty());
+        assertEquals(0, cache.getOrder(annotation));
+        assertFalse(cache.getLazy(annotation));
+        assertEquals(Scope.PROTOTYPE, cache.getScope(annotation));
+        assertTrue(cache.getKeys(annotation).isEmpty());
+        assertTrue(cache.getIntKeys(annotation).isEmpty());
+        assertTrue(cache.getConditions(annotation).isEmpty());
+    }
+
+    private void checkNoAnnotation() {
+        assertNull(cache.getAutoService(type("t.Outer")));
+        cache.reset();
+        assertNull(cache.getAutoService(type("Unnamed")));
+    }
+
+    /**
+     * 符号只在编译过程中可用，所以在处理器的第一轮里执行检查，检查失败时在编译结束后重新抛出。
+     */
+    private void analyze(final Runnable check) throws Throwable {
+        final Throwable[] failure = new Throwable[1];
+        AbstractProcessor processor = new AbstractProcessor() {
+            @Override
+            public Set<String> getSupportedAnnotationTypes() {
+                return Collections.singleton("*");
+            }
+
+            @Override
+            public SourceVersion getSupportedSourceVersion() {
+                return SourceVersion.latestSupported();
+            }
+
+            @Override
+            public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+                if (!roundEnv.processingOver()) {
+                    elements = processingEnv.getElementUtils();
+                    cache = new SymbolCache(elements);
+                    try {
+                        check.run();
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+                return false;
+            }
+        };
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, null,
+                Arrays.asList("-proc:only", "-classpath", System.getProperty("java.class.path")), null,
+                Arrays.asList(
+                        source("t/First.java", "package t; public interface First {}"),
+                        source("t/Second.java", "package t; public interface Second {}"),
+                        source("t/Outer.java", "package t;",
+                                "public class Outer {",
+                                "  @com.service.annotations.AutoService(value = {First.class, Second.class},",
+                                "      order = 3, lazy = true, scope = com.service.annotations.Scope.SINGLETON,",
+                                "      keys = {\"a\", \"b\"}, intKeys = 7, conditions = \"flavor=prod\",",
+                                "      dependsOn = Second.class)",
+                                "  public static class Inner implements First, Second {",
+                                "    public static class Deeper {}",
+                                "  }",
+                                "}"),
+                        source("t/Defaults.java", "package t;",
+                                "@com.service.annotations.AutoService(First.class)",
+                                "public class Defaults implements First {}"),
+                        source("Unnamed.java", "public class Unnamed {}")));
+        task.setProcessors(Collections.singletonList(processor));
+        assertTrue(task.call());
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private TypeElement type(String canonicalName) {
+        return elements.getTypeElement(canonicalName);
+    }
+
+    private List<String> names(Iterable<DeclaredType> types) {
+        List<String> names = new ArrayList<>();
+        for (DeclaredType type : types) {
+            names.add(cache.getBinaryName((TypeElement) type.asElement()));
+        }
+        return names;
+    }
+
+    private static JavaFileObject source(String path, String... lines) {
+        final String code = String.join("\n", lines);
+        return new SimpleJavaFileObject(URI.create("string:///" + path), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+}
@@ -0,0 +1,186 @@
+package com.service.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * 测试用的 javac 封装：把源码写到临时目录，用 {@link AutoServiceProcessor} 编译，
+ * 生成的源码和 class 文件都留在目录里，可以再次编译同一个输出目录来模拟增量编译。
+ *
+ * @author dengxiaoqiu
+ */
+final class TestCompiler {
+
+    private final Path root;
+    private final Map<String, String> sources = new LinkedHashMap<>();
+    private final List<String> options = new ArrayList<>();
+    private final List<File> classpath = new ArrayList<>();
+
+    /**
+     * @param root 临时目录，源码、生成的源码和 class 文件分别放在 src、gen、classes 下
+     */
+    TestCompiler(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * @param qualifiedName 顶层类的全名，例如 t.Foo
+     */
+    TestCompiler source(String qualifiedName, String... lines) {
+        sources.put(qualifiedName, String.join("\n", lines) + "\n");
+        return this;
+    }
+
+    TestCompiler option(String option) {
+        options.add(option);
+        return this;
+    }
+
+    /**
+     * 额外的 classpath，例如之前编译出来的 jar。
+     */
+    TestCompiler classpath(File entry) {
+        classpath.add(entry);
+        return this;
+    }
+
+    /**
+     * 只编译 qualifiedNames 中的源码，其它源码当作上一次编译已经留在 classes 下。
+     */
+    Result compile(String... qualifiedNames) throws IOException {
+        Path src = Files.createDirectories(root.resolve("src"));
+        Path gen = Files.createDirectories(root.resolve("gen"));
+        Path classes = Files.createDirectories(root.resolve("classes"));
+        List<File> files = new ArrayList<>();
+        List<String> selected = qualifiedNames.length == 0
+                ? new ArrayList<>(sources.keySet()) : Arrays.asList(qualifiedNames);
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            Path file = src.resolve(source.getKey().replace('.', File.separatorChar) + ".java");
+            Files.createDirectories(file.getParent());
+            Files.write(file, source.getValue().getBytes(StandardCharsets.UTF_8));
+            if (selected.contains(source.getKey())) {
+                files.add(file.toFile());
+            }
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT,
+                StandardCharsets.UTF_8)) {
+            List<File> fullClasspath = new ArrayList<>();
+            fullClasspath.add(classes.toFile());
+            fullClasspath.addAll(classpath);
+            for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                fullClasspath.add(new File(entry));
+            }
+            fileManager.setLocation(StandardLocation.CLASS_PATH, fullClasspath);
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(classes.toFile()));
+            fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(gen.toFile()));
+            List<String> arguments = new ArrayList<>(options);
+            arguments.add("-encoding");
+            arguments.add("UTF-8");
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, arguments, null,
+                    fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(Collections.singletonList(new AutoServiceProcessor()));
+            boolean success = task.call();
+            return new Result(success, diagnostics.getDiagnostics(), classes, gen);
+        }
+    }
+
+    static final class Result {
+        final boolean success;
+        final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        final Path classes;
+        final Path generated;
+
+        Result(boolean success, List<Diagnostic<? extends JavaFileObject>> diagnostics, Path classes,
+               Path generated) {
+            this.success = success;
+            this.diagnostics = diagnostics;
+            this.classes = classes;
+            this.generated = generated;
+        }
+
+        List<String> messages(Diagnostic.Kind kind) {
+            List<String> messages = new ArrayList<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+                if (diagnostic.getKind() == kind) {
+                    messages.add(diagnostic.getMessage(Locale.ROOT));
+                }
+            }
+            return messages;
+        }
+
+        List<String> errors() {
+            return messages(Diagnostic.Kind.ERROR);
+        }
+
+        List<String> warnings() {
+            List<String> warnings = messages(Diagnostic.Kind.WARNING);
+            warnings.addAll(messages(Diagnostic.Kind.MANDATORY_WARNING));
+            return warnings;
+        }
+
+        /**
+         * @return 生成的源码，没有生成时返回 null
+         */
+        String generatedSource(String qualifiedName) throws IOException {
+            return read(generated.resolve(qualifiedName.replace('.', File.separatorChar) + ".java"));
+        }
+
+        /**
+         * @return CLASS_OUTPUT 下的资源，不存在时返回 null
+         */
+        String resource(String path) throws IOException {
+            return read(classes.resolve(path));
+        }
+
+        Path resourcePath(String path) {
+            return classes.resolve(path);
+        }
+
+        /**
+         * 加载编译结果的 ClassLoader，父 ClassLoader 是测试自身的 ClassLoader。
+         */
+        URLClassLoader classLoader() throws MalformedURLException {
+            return new URLClassLoader(new URL[]{classes.toUri().toURL()}, TestCompiler.class.getClassLoader());
+        }
+
+        /**
+         * 失败时把所有诊断信息放进断言消息。
+         */
+        String describe() {
+            StringBuilder text = new StringBuilder();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+                text.append(diagnostic.getKind()).append(": ").append(diagnostic.getMessage(Locale.ROOT))
+                        .append('\n');
+            }
+            return text.toString();
+        }
+
+        private static String read(Path file) throws IOException {
+            return Files.exists(file) ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8) : null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.service.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 内容没有变化的资源不重新写，保留原来的修改时间。
+ *
+ * @author dengxiaoqiu
+ */
+public class UnchangedResourcesTest {
+
+    private static final FileTime OLD = FileTime.fromMillis(1000000000000L);
+    private static final String SERVICE_FILE = "META-INF/services/t.Service";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void keepsUnchangedResources() throws IOException {
+        TestCompiler compiler = compiler();
+        TestCompiler.Result first = compiler.compile();
+        assertTrue(first.describe(), first.success);
+        age(first, SERVICE_FILE, ServiceIndexes.INDEX_FILE, BinaryIndexWriter.INDEX_FILE);
+
+        TestCompiler.Result second = compiler.compile("t.B");
+
+        assertTrue(second.describe(), second.success);
+        assertEquals(OLD, Files.getLastModifiedTime(second.resourcePath(SERVICE_FILE)));
+        assertEquals(OLD, Files.getLastModifiedTime(second.resourcePath(ServiceIndexes.INDEX_FILE)));
+        assertEquals(OLD, Files.getLastModifiedTime(second.resourcePath(BinaryIndexWriter.INDEX_FILE)));
+    }
+
+    @Test
+    public void rewritesChangedResources() throws IOException {
+        TestCompiler compiler = compiler();
+        TestCompiler.Result first = compiler.compile();
+        assertTrue(first.describe(), first.success);
+        age(first, SERVICE_FILE, ServiceIndexes.INDEX_FILE);
+
+        compiler.source("t.B", "package t;",
+                "@com.service.annotations.AutoService(value = Service.class, order = -1)",
+                "public class B implements Service {}");
+        TestCompiler.Result second = compiler.compile("t.B");
+
+        assertTrue(second.describe(), second.success);
+        assertNotEquals(OLD, Files.getLastModifiedTime(second.resourcePath(SERVICE_FILE)));
+        assertNotEquals(OLD, Files.getLastModifiedTime(second.resourcePath(ServiceIndexes.INDEX_FILE)));
+        assertEquals("t.B # order=-1\nt.A\n", second.resource(SERVICE_FILE));
+    }
+
+    private TestCompiler compiler() {
+        return new TestCompiler(temporaryFolder.getRoot().toPath())
+                .source("t.Service", "package t;", "public interface Service {}")
+                .source("t.A", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class A implements Service {}")
+                .source("t.B", "package t;",
+                        "@com.service.annotations.AutoService(Service.class)",
+                        "public class B implements Service {}")
+                .option("-Aautoservice.aggregate=")
+                .option("-Aautoservice.binaryIndex=true");
+    }
+
+    private static void age(TestCompiler.Result result, String... resources) throws IOException {
+        for (String resource : resources) {
+            Path file = result.resourcePath(resource);
+            Files.setLastModifiedTime(file, OLD);
+        }
+    }
+}